@@ -35,12 +35,17 @@ package com.sparrowrecsys.online;
 import com.sparrowrecsys.online.datamanager.DataManager;
 import com.sparrowrecsys.online.service.*;
 import com.sparrowrecsys.online.service.ModelService;
+import com.sparrowrecsys.online.util.Config;
+import com.sparrowrecsys.online.util.HttpClient;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.servlet.DefaultServlet;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.LifeCycle;
 import org.eclipse.jetty.util.resource.Resource;
 
+import java.io.File;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URL;
@@ -84,7 +89,20 @@ public class RecSysServer {
                 webRootUri.getPath() + "sampledata/links.csv", webRootUri.getPath() + "sampledata/ratings.csv",
                 webRootUri.getPath() + "modeldata/item2vecEmb.csv",
                 webRootUri.getPath() + "modeldata/userEmb.csv",
-                "i2vEmb", "uEmb");
+                "i2vEmb", "uEmb",
+                Config.IS_ENABLE_DATA_SNAPSHOT ? new File(Config.DATA_DIR, "datamanager.snapshot").getPath() : null);
+
+        // 加载离线预计算的相似电影表
+        if (Config.IS_ENABLE_SIMILAR_MOVIE_TABLE) {
+            DataManager.getInstance().loadSimilarMovieTables(webRootUri.getPath() + "modeldata/");
+        }
+
+        // 监听模型目录中的增量向量文件
+        if (Config.IS_ENABLE_EMB_DELTA_WATCHER) {
+            DataManager.getInstance().startEmbeddingDeltaWatcher(webRootUri.getPath() + "modeldata/",
+                    webRootUri.getPath() + "modeldata/item2vecEmb.csv",
+                    webRootUri.getPath() + "modeldata/userEmb.csv");
+        }
 
         // 创建服务器上下文
         ServletContextHandler context = new ServletContextHandler();
@@ -101,9 +119,21 @@ public class RecSysServer {
         context.addServlet(new ServletHolder(new RecommendationService()), "/getrecommendation");
         context.addServlet(new ServletHolder(new RecForYouService()), "/getrecforyou");
         context.addServlet(new ServletHolder(new ModelService()), "/getmodel");
+        context.addServlet(new ServletHolder(new MetricsService()), "/getmetrics");
+        context.addServlet(new ServletHolder(new RatingService()), "/addrating");
 
         // 设置 URL 处理器
         server.setHandler(context);
+
+        // 启动共用的异步 HTTP 客户端，服务器停止（包括进程退出）时关闭
+        HttpClient.start();
+        server.setStopAtShutdown(true);
+        server.addLifeCycleListener(new AbstractLifeCycle.AbstractLifeCycleListener() {
+            @Override
+            public void lifeCycleStopped(LifeCycle event) {
+                HttpClient.shutdown();
+            }
+        });
         System.out.println("RecSys 服务器已启动。");
 
         // 启动服务器
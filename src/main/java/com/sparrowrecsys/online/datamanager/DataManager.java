@@ -1,10 +1,26 @@
 package com.sparrowrecsys.online.datamanager;
 
+import com.sparrowrecsys.online.config.ModelConfig;
 import com.sparrowrecsys.online.util.Config;
-import com.sparrowrecsys.online.util.Utility;
+import com.sparrowrecsys.online.util.EmbeddingParser;
+import com.sparrowrecsys.online.util.IntObjectHashMap;
+import com.sparrowrecsys.online.util.Metrics;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * DataManager 是一个工具类，负责所有的数据加载逻辑。
@@ -12,18 +28,68 @@ import java.util.*;
 public class DataManager {
     // 单例实例
     private static volatile DataManager instance;
-    // 存储电影数据的映射
-    HashMap<Integer, Movie> movieMap;
-    // 存储用户数据的映射
-    HashMap<Integer, User> userMap;
+    // 存储电影数据的映射，以电影ID为键
+    IntObjectHashMap<Movie> movieMap;
+    // 存储用户数据的映射，以用户ID为键
+    IntObjectHashMap<User> userMap;
     // 类型反向索引，用于快速查询某类型的所有电影
     HashMap<String, List<Movie>> genreReverseIndexMap;
+    // 按列存储的全部评分数据
+    RatingStore ratingStore;
+    // 每种排序方式的全局有序电影索引
+    HashMap<String, SortedMovieIndex> sortedMovieIndexMap;
+    // 每个类型下每种排序方式的有序电影索引
+    HashMap<String, HashMap<String, SortedMovieIndex>> genreSortedMovieIndexMap;
+    // 在线评分更新的锁，有序索引刷新时同样持有，保证刷新期间排序键不变
+    private final Object ratingUpdateLock = new Object();
+    // 合并在线评分引起的有序索引更新，每隔 Config.SORTED_MOVIE_INDEX_REFRESH_MS 刷新一次
+    private final ScheduledExecutorService sortedIndexRefresher;
+    // 是否已经安排了下一次有序索引刷新，由 ratingUpdateLock 保护
+    private boolean sortedIndexRefreshScheduled;
+    // 当前版本的嵌入向量表，模型切换时整体原子替换
+    private final AtomicReference<EmbeddingTable> embeddingTable;
+    // 后台重新加载嵌入向量的单线程执行器，多个切换请求依次执行
+    private final ExecutorService embeddingReloadExecutor;
+    // 最近的重新加载任务，按提交顺序保存
+    private final LinkedHashMap<String, EmbeddingReloadJob> embeddingReloadJobs = new LinkedHashMap<>();
+    private final AtomicLong embeddingReloadJobSequence = new AtomicLong();
+    // 保留的重新加载任务记录数量
+    private static final int MAX_RELOAD_JOB_HISTORY = 20;
+    // 离线预计算的相似电影表，以文件名为键
+    private final ConcurrentHashMap<String, SimilarMovieTable> similarMovieTables = new ConcurrentHashMap<>();
+    // 增量向量文件所在目录，启动监听后设置，模型切换时从中重放新版本的增量
+    private volatile Path embeddingDeltaDirectory;
+
+    // 支持的排序方式及其比较器
+    private static final LinkedHashMap<String, Comparator<Movie>> SORT_KEYS = new LinkedHashMap<>();
+    static {
+        SORT_KEYS.put("rating", SortedMovieIndex.BY_RATING);
+        SORT_KEYS.put("popularity", SortedMovieIndex.BY_POPULARITY);
+        SORT_KEYS.put("releaseYear", SortedMovieIndex.BY_RELEASE_YEAR);
+    }
+    // 评分变化时需要调整的排序方式
+    private static final String[] RATING_SORT_KEYS = {"rating", "popularity"};
 
     // 私有构造函数，初始化数据结构
     private DataManager(){
-        this.movieMap = new HashMap<>();
-        this.userMap = new HashMap<>();
+        this.movieMap = new IntObjectHashMap<>();
+        this.userMap = new IntObjectHashMap<>();
         this.genreReverseIndexMap = new HashMap<>();
+        this.ratingStore = RatingStore.empty();
+        this.sortedMovieIndexMap = new HashMap<>();
+        this.genreSortedMovieIndexMap = new HashMap<>();
+        this.embeddingTable = new AtomicReference<>(new EmbeddingTable(ModelConfig.getCurrentModelVersion().name(), 0, 0));
+        this.embeddingReloadExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "embedding-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sortedIndexRefresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sorted-index-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        buildSortedMovieIndexes();
         instance = this;
     }
 
@@ -41,14 +107,60 @@ public class DataManager {
 
     // 从文件系统加载数据，包括电影、评分、链接数据和模型数据如嵌入向量
     public void loadData(String movieDataPath, String linkDataPath, String ratingDataPath, String movieEmbPath, String userEmbPath, String movieRedisKey, String userRedisKey) throws Exception{
+        loadData(movieDataPath, linkDataPath, ratingDataPath, movieEmbPath, userEmbPath, movieRedisKey, userRedisKey, null);
+    }
+
+    // 加载数据，snapshotPath不为空时优先从二进制快照恢复，快照无效时从CSV加载并重新写入快照
+    public void loadData(String movieDataPath, String linkDataPath, String ratingDataPath, String movieEmbPath, String userEmbPath, String movieRedisKey, String userRedisKey, String snapshotPath) throws Exception{
+        boolean isEmbFromFile = Config.EMB_DATA_SOURCE.equals(Config.DATA_SOURCE_FILE);
+        long sourceFingerprint = DataSnapshot.fingerprint(movieDataPath, linkDataPath, ratingDataPath,
+                isEmbFromFile ? movieEmbPath : null, isEmbFromFile ? userEmbPath : null,
+                isEmbFromFile ? findBinaryEmbFile(movieEmbPath) : null, isEmbFromFile ? findBinaryEmbFile(userEmbPath) : null);
+
+        if (null != snapshotPath){
+            System.out.println("Loading data snapshot from " + snapshotPath + " ...");
+            long startTime = System.nanoTime();
+            EmbeddingTable snapshotEmbeddings = DataSnapshot.read(this, snapshotPath, sourceFingerprint);
+            if (null != snapshotEmbeddings){
+                System.out.printf("Loading data snapshot completed. %d movies, %d users, %.2f s.%n",
+                        this.movieMap.size(), this.userMap.size(), (System.nanoTime() - startTime) / 1e9);
+                buildSortedMovieIndexes();
+                // Redis中的数据不在快照的校验范围内，仍然从Redis加载
+                if (!isEmbFromFile){
+                    loadMovieEmb(movieEmbPath, movieRedisKey, snapshotEmbeddings);
+                }
+                publishEmbeddings(snapshotEmbeddings);
+                if (Config.IS_LOAD_ITEM_FEATURE_FROM_REDIS){
+                    loadMovieFeatures("mf:");
+                }
+                return;
+            }
+        }
+
         loadMovieData(movieDataPath);
         loadLinkData(linkDataPath);
         loadRatingData(ratingDataPath);
-        loadMovieEmb(movieEmbPath, movieRedisKey);
+        buildSortedMovieIndexes();
+        EmbeddingTable embeddings = new EmbeddingTable(ModelConfig.getCurrentModelVersion().name(),
+                this.movieMap.size(), this.userMap.size());
+        loadMovieEmb(movieEmbPath, movieRedisKey, embeddings);
         if (Config.IS_LOAD_ITEM_FEATURE_FROM_REDIS){
             loadMovieFeatures("mf:");
         }
-        loadUserEmb(userEmbPath, userRedisKey);
+        loadUserEmb(userEmbPath, userRedisKey, embeddings);
+
+        // 在量化之前写入快照，快照中始终是原始的float向量
+        if (null != snapshotPath){
+            try {
+                long startTime = System.nanoTime();
+                DataSnapshot.write(this, embeddings, snapshotPath, sourceFingerprint);
+                System.out.printf("Writing data snapshot to %s completed, %.2f s.%n", snapshotPath, (System.nanoTime() - startTime) / 1e9);
+            } catch (Exception e){
+                // 快照写入失败不影响服务启动
+                System.out.println("Failed to write data snapshot: " + e.getMessage());
+            }
+        }
+        publishEmbeddings(embeddings);
     }
 
     // 从movies.csv加载电影数据
@@ -66,6 +178,7 @@ public class DataManager {
                 if (movieData.length == 3){
                     Movie movie = new Movie();
                     movie.setMovieId(Integer.parseInt(movieData[0]));
+                    movie.index = this.movieMap.size();
                     int releaseYear = parseReleaseYear(movieData[1].trim());
                     if (releaseYear == -1){
                         movie.setTitle(movieData[1].trim());
@@ -88,90 +201,170 @@ public class DataManager {
         System.out.println("Loading movie data completed. " + this.movieMap.size() + " movies in total.");
     }
 
-    // 加载电影嵌入向量
-    private void loadMovieEmb(String movieEmbPath, String embKey) throws Exception{
+    // 加载电影嵌入向量到指定的向量表，返回加载的数量
+    private int loadMovieEmb(String movieEmbPath, String embKey, EmbeddingTable embeddings) throws Exception{
         if (Config.EMB_DATA_SOURCE.equals(Config.DATA_SOURCE_FILE)) {
+            String binaryEmbPath = findBinaryEmbFile(movieEmbPath);
+            if (null != binaryEmbPath) {
+                return loadEmbFile(binaryEmbPath, embeddings, true);
+            }
             System.out.println("Loading movie embedding from " + movieEmbPath + " ...");
             int validEmbCount = 0;
-            try (Scanner scanner = new Scanner(new File(movieEmbPath))) {
-                while (scanner.hasNextLine()) {
-                    String movieRawEmbData = scanner.nextLine();
-                    String[] movieEmbData = movieRawEmbData.split(":");
-                    if (movieEmbData.length == 2) {
-                        Movie m = getMovieById(Integer.parseInt(movieEmbData[0]));
-                        if (null == m) {
-                            continue;
-                        }
-                        m.setEmb(Utility.parseEmbStr(movieEmbData[1]));
+            int rejectedEmbCount = 0;
+            boolean strict = EmbeddingParser.isStrict();
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(movieEmbPath), StandardCharsets.UTF_8)) {
+                String line;
+                while (null != (line = reader.readLine())) {
+                    // 与 split(":") 的结果长度为 2 一致：恰好一个冒号且两侧非空
+                    int colon = line.indexOf(':');
+                    if (colon <= 0 || colon == line.length() - 1 || line.indexOf(':', colon + 1) >= 0) {
+                        continue;
+                    }
+                    Movie m = getMovieById(Integer.parseInt(line.substring(0, colon)));
+                    if (null == m) {
+                        continue;
+                    }
+                    if (embeddings.parseMovieEmb(m, line, colon + 1, line.length(), strict)) {
                         validEmbCount++;
+                    } else {
+                        rejectedEmbCount++;
                     }
                 }
             }
+            if (rejectedEmbCount > 0) {
+                System.out.println("Skipped " + rejectedEmbCount + " malformed movie embeddings.");
+            }
             System.out.println("Loading movie embedding completed. " + validEmbCount + " movie embeddings in total.");
+            return validEmbCount;
         } else {
             System.out.println("Loading movie embedding from Redis ...");
-            Set<String> movieEmbKeys = RedisClient.getInstance().keys(embKey + "*");
-            int validEmbCount = 0;
-            for (String movieEmbKey : movieEmbKeys){
+            int[] validEmbCount = {0};
+            boolean strict = EmbeddingParser.isStrict();
+            RedisBulkLoader.loadStrings(embKey + "*", (movieEmbKey, movieEmb) -> {
                 String movieId = movieEmbKey.split(":")[1];
                 Movie m = getMovieById(Integer.parseInt(movieId));
                 if (null == m) {
-                    continue;
+                    return;
                 }
-                m.setEmb(Utility.parseEmbStr(RedisClient.getInstance().get(movieEmbKey)));
-                validEmbCount++;
-            }
-            System.out.println("Loading movie embedding completed. " + validEmbCount + " movie embeddings in total.");
+                if (embeddings.parseMovieEmb(m, movieEmb, 0, movieEmb.length(), strict)) {
+                    validEmbCount[0]++;
+                }
+            });
+            System.out.println("Loading movie embedding completed. " + validEmbCount[0] + " movie embeddings in total.");
+            return validEmbCount[0];
         }
     }
 
     // 加载电影特征
     private void loadMovieFeatures(String movieFeaturesPrefix) throws Exception{
         System.out.println("Loading movie features from Redis ...");
-        Set<String> movieFeaturesKeys = RedisClient.getInstance().keys(movieFeaturesPrefix + "*");
-        int validFeaturesCount = 0;
-        for (String movieFeaturesKey : movieFeaturesKeys){
+        int[] validFeaturesCount = {0};
+        RedisBulkLoader.loadHashes(movieFeaturesPrefix + "*", (movieFeaturesKey, movieFeatures) -> {
             String movieId = movieFeaturesKey.split(":")[1];
             Movie m = getMovieById(Integer.parseInt(movieId));
             if (null == m) {
-                continue;
+                return;
             }
-            m.setMovieFeatures(RedisClient.getInstance().hgetAll(movieFeaturesKey));
-            validFeaturesCount++;
-        }
-        System.out.println("Loading movie features completed. " + validFeaturesCount + " movie features in total.");
+            m.setMovieFeatures(movieFeatures);
+            validFeaturesCount[0]++;
+        });
+        System.out.println("Loading movie features completed. " + validFeaturesCount[0] + " movie features in total.");
     }
 
-    // 加载用户嵌入向量
-    private void loadUserEmb(String userEmbPath, String embKey) throws Exception{
+    // 加载用户嵌入向量到指定的向量表，返回加载的数量
+    private int loadUserEmb(String userEmbPath, String embKey, EmbeddingTable embeddings) throws Exception{
         if (Config.EMB_DATA_SOURCE.equals(Config.DATA_SOURCE_FILE)) {
+            String binaryEmbPath = findBinaryEmbFile(userEmbPath);
+            if (null != binaryEmbPath) {
+                return loadEmbFile(binaryEmbPath, embeddings, false);
+            }
             System.out.println("Loading user embedding from " + userEmbPath + " ...");
             int validEmbCount = 0;
-            try (Scanner scanner = new Scanner(new File(userEmbPath))) {
-                while (scanner.hasNextLine()) {
-                    String userRawEmbData = scanner.nextLine();
-                    String[] userEmbData = userRawEmbData.split(":");
-                    if (userEmbData.length == 2) {
-                        // 支持两种用户ID格式: 纯数字或 "user_数字"
-                        int userId;
-                        String userIdStr = userEmbData[0];
-                        if (userIdStr.startsWith("user_")) {
-                            userId = Integer.parseInt(userIdStr.substring(5)); // 去掉"user_"前缀
-                        } else {
-                            userId = Integer.parseInt(userIdStr);
-                        }
+            int rejectedEmbCount = 0;
+            boolean strict = EmbeddingParser.isStrict();
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(userEmbPath), StandardCharsets.UTF_8)) {
+                String line;
+                while (null != (line = reader.readLine())) {
+                    int colon = line.indexOf(':');
+                    if (colon <= 0 || colon == line.length() - 1 || line.indexOf(':', colon + 1) >= 0) {
+                        continue;
+                    }
+                    // 支持两种用户ID格式: 纯数字或 "user_数字"
+                    int userId;
+                    if (line.startsWith("user_")) {
+                        userId = Integer.parseInt(line.substring(5, colon)); // 去掉"user_"前缀
+                    } else {
+                        userId = Integer.parseInt(line.substring(0, colon));
+                    }
 
-                        User u = getUserById(userId);
-                        if (null == u) {
-                            continue;
-                        }
-                        u.setEmb(Utility.parseEmbStr(userEmbData[1]));
+                    User u = getUserById(userId);
+                    if (null == u) {
+                        continue;
+                    }
+                    if (embeddings.parseUserEmb(u, line, colon + 1, line.length(), strict)) {
                         validEmbCount++;
+                    } else {
+                        rejectedEmbCount++;
                     }
                 }
             }
+            if (rejectedEmbCount > 0) {
+                System.out.println("Skipped " + rejectedEmbCount + " malformed user embeddings.");
+            }
             System.out.println("Loading user embedding completed. " + validEmbCount + " user embeddings in total.");
+            return validEmbCount;
         }
+        return 0;
+    }
+
+    /**
+     * 查找可以代替文本向量文件的二进制向量文件
+     * @param embPath 配置的向量文件路径
+     * @return 本身就是二进制文件时返回 embPath；启用二进制文件且同名 .bin 文件不早于文本文件时返回 .bin 文件；否则返回 null
+     */
+    private String findBinaryEmbFile(String embPath) {
+        if (EmbeddingFile.isEmbeddingFile(embPath)) {
+            return embPath;
+        }
+        if (!Config.IS_ENABLE_BINARY_EMB_FILE) {
+            return null;
+        }
+        File binaryFile = new File(EmbeddingFile.binaryPathOf(embPath));
+        File textFile = new File(embPath);
+        if (binaryFile.isFile() && binaryFile.lastModified() >= textFile.lastModified()
+                && EmbeddingFile.isEmbeddingFile(binaryFile.getPath())) {
+            return binaryFile.getPath();
+        }
+        return null;
+    }
+
+    // 内存映射二进制向量文件，把其中的电影或用户向量复制到向量表，返回加载的数量
+    private int loadEmbFile(String embPath, EmbeddingTable embeddings, boolean isMovie) throws IOException {
+        String kind = isMovie ? "movie" : "user";
+        System.out.println("Loading " + kind + " embedding from " + embPath + " (mapped) ...");
+        long startTime = System.nanoTime();
+        EmbeddingFile file = EmbeddingFile.open(embPath);
+        int validEmbCount = 0;
+        for (int row = 0; row < file.getCount(); row++) {
+            int id = file.getId(row);
+            if (isMovie) {
+                Movie m = getMovieById(id);
+                if (null == m) {
+                    continue;
+                }
+                embeddings.readMovieEmb(m, file, row);
+            } else {
+                User u = getUserById(id);
+                if (null == u) {
+                    continue;
+                }
+                embeddings.readUserEmb(u, file, row);
+            }
+            validEmbCount++;
+        }
+        System.out.printf("Loading %s embedding completed. %d %s embeddings in total, model version %s, %.1f ms.%n",
+                kind, validEmbCount, kind, file.getModelVersion(), (System.nanoTime() - startTime) / 1e6);
+        return validEmbCount;
     }
 
     // 解析上映年份
@@ -215,9 +408,25 @@ public class DataManager {
         System.out.println("Loading link data completed. " + count + " links in total.");
     }
 
-    // 从ratings.csv加载评分数据
+    // 从ratings.csv加载评分数据，根据Config.RATING_LOAD_MODE选择加载方式，并报告耗时和吞吐
     private void loadRatingData(String ratingDataPath) throws Exception{
-        System.out.println("Loading rating data from " + ratingDataPath + " ...");
+        System.out.println("Loading rating data from " + ratingDataPath + " (mode: " + Config.RATING_LOAD_MODE + ") ...");
+        long startTime = System.nanoTime();
+        RatingStore.Builder builder = new RatingStore.Builder(1024);
+        int count;
+        if (Config.RATING_LOAD_MODE_MMAP.equals(Config.RATING_LOAD_MODE)){
+            count = loadRatingDataByMmap(ratingDataPath, builder);
+        }else{
+            count = loadRatingDataByScanner(ratingDataPath, builder);
+        }
+        buildRatingStore(builder);
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.printf("Loading rating data completed. %d ratings in total, %.2f s, %.0f rows/sec.%n",
+                count, seconds, seconds > 0 ? count / seconds : 0.0);
+    }
+
+    // 使用Scanner逐行解析评分数据
+    private int loadRatingDataByScanner(String ratingDataPath, RatingStore.Builder builder) throws Exception{
         boolean skipFirstLine = true;
         int count = 0;
         try (Scanner scanner = new Scanner(new File(ratingDataPath))) {
@@ -230,25 +439,68 @@ public class DataManager {
                 String[] linkData = ratingRawData.split(",");
                 if (linkData.length == 4){
                     count++;
-                    Rating rating = new Rating();
-                    rating.setUserId(Integer.parseInt(linkData[0]));
-                    rating.setMovieId(Integer.parseInt(linkData[1]));
-                    rating.setScore(Float.parseFloat(linkData[2]));
-                    rating.setTimestamp(Long.parseLong(linkData[3]));
-                    Movie movie = this.movieMap.get(rating.getMovieId());
-                    if (null != movie){
-                        movie.addRating(rating);
-                    }
-                    if (!this.userMap.containsKey(rating.getUserId())){
-                        User user = new User();
-                        user.setUserId(rating.getUserId());
-                        this.userMap.put(user.getUserId(), user);
-                    }
-                    this.userMap.get(rating.getUserId()).addRating(rating);
+                    addRating2Index(Integer.parseInt(linkData[0]), Integer.parseInt(linkData[1]),
+                            Float.parseFloat(linkData[2]), Long.parseLong(linkData[3]), builder);
                 }
             }
         }
-        System.out.println("Loading rating data completed. " + count + " ratings in total.");
+        return count;
+    }
+
+    // 使用内存映射并行解析评分数据，再按文件顺序合并到电影和用户结构中
+    private int loadRatingDataByMmap(String ratingDataPath, RatingStore.Builder builder) throws Exception{
+        List<RatingCsvLoader.RatingChunk> chunks = RatingCsvLoader.load(ratingDataPath, Config.RATING_LOAD_PARALLELISM);
+        int totalCount = 0;
+        for (RatingCsvLoader.RatingChunk chunk : chunks){
+            totalCount += chunk.count;
+        }
+        builder.ensureCapacity(totalCount);
+        int count = 0;
+        for (RatingCsvLoader.RatingChunk chunk : chunks){
+            for (int i = 0; i < chunk.count; i++){
+                addRating2Index(chunk.userIds[i], chunk.movieIds[i], chunk.scores[i], chunk.timestamps[i], builder);
+            }
+            count += chunk.count;
+        }
+        return count;
+    }
+
+    // 将一条评分合并到对应的电影和用户统计中，并追加到评分列存储
+    private void addRating2Index(int userId, int movieId, float score, long timestamp, RatingStore.Builder builder){
+        Movie movie = this.movieMap.get(movieId);
+        if (null != movie){
+            movie.addRating(userId, score, timestamp);
+        }
+        User user = this.userMap.get(userId);
+        if (null == user){
+            user = new User();
+            user.setUserId(userId);
+            user.index = this.userMap.size();
+            this.userMap.put(user.getUserId(), user);
+        }
+        user.addRating(score);
+        builder.append(user.index, null == movie ? -1 : movie.index, userId, movieId, score, timestamp);
+    }
+
+    // 构建评分列存储，并把电影和用户的评分列表指向存储上的视图
+    private void buildRatingStore(RatingStore.Builder builder){
+        this.ratingStore = builder.build(this.userMap.size(), this.movieMap.size());
+        attachRatingViews();
+    }
+
+    // 把电影和用户的评分列表指向当前评分存储上的视图
+    void attachRatingViews(){
+        for (Movie movie : this.movieMap.values()){
+            movie.ratings = this.ratingStore.movieRatings(movie.index);
+        }
+        for (User user : this.userMap.values()){
+            user.ratings = this.ratingStore.userRatings(user.index);
+        }
+    }
+
+    // 获取评分列存储
+    public RatingStore getRatingStore(){
+        return this.ratingStore;
     }
 
     // 将电影添加到类型反向索引中
@@ -259,53 +511,104 @@ public class DataManager {
         this.genreReverseIndexMap.get(genre).add(movie);
     }
 
-    // 根据类型获取电影，并按sortBy方法排序
-    public List<Movie> getMoviesByGenre(String genre, int size, String sortBy){
-        if (null != genre){
-            List<Movie> movies = new ArrayList<>(this.genreReverseIndexMap.get(genre));
-            switch (sortBy){
-                case "rating":
-                    movies.sort((m1, m2) -> Double.compare(m2.getAverageRating(), m1.getAverageRating()));
-                    break;
-                case "popularity":
-                    movies.sort((m1, m2) -> Integer.compare(m2.getRatingNumber(), m1.getRatingNumber()));
-                    break;
-                case "releaseYear":
-                    movies.sort((m1, m2) -> Integer.compare(m2.getReleaseYear(), m1.getReleaseYear()));
-                    break;
-                default:
-                    movies.sort((m1, m2) -> Double.compare(m2.getAverageRating(), m1.getAverageRating()));
+    // 为每种排序方式构建全局和按类型的有序电影索引
+    private void buildSortedMovieIndexes(){
+        HashMap<String, SortedMovieIndex> sortedIndexes = new HashMap<>();
+        for (Map.Entry<String, Comparator<Movie>> sortKey : SORT_KEYS.entrySet()){
+            sortedIndexes.put(sortKey.getKey(), new SortedMovieIndex(this.movieMap.values(), sortKey.getValue()));
+        }
+        HashMap<String, HashMap<String, SortedMovieIndex>> genreSortedIndexes = new HashMap<>();
+        for (Map.Entry<String, List<Movie>> genreEntry : this.genreReverseIndexMap.entrySet()){
+            HashMap<String, SortedMovieIndex> indexes = new HashMap<>();
+            for (Map.Entry<String, Comparator<Movie>> sortKey : SORT_KEYS.entrySet()){
+                indexes.put(sortKey.getKey(), new SortedMovieIndex(genreEntry.getValue(), sortKey.getValue()));
             }
+            genreSortedIndexes.put(genreEntry.getKey(), indexes);
+        }
+        this.sortedMovieIndexMap = sortedIndexes;
+        this.genreSortedMovieIndexMap = genreSortedIndexes;
+    }
+
+    // 将sortBy参数规范化为索引的排序键，未知的排序方式按评分排序
+    private static String normalizeSortBy(String sortBy){
+        return null != sortBy && SORT_KEYS.containsKey(sortBy) ? sortBy : "rating";
+    }
 
-            if (movies.size() > size){
-                return movies.subList(0, size);
+    // 根据类型获取电影，并按sortBy方法排序，返回有序索引前缀上的只读列表
+    public List<Movie> getMoviesByGenre(String genre, int size, String sortBy){
+        if (null != genre){
+            HashMap<String, SortedMovieIndex> indexes = this.genreSortedMovieIndexMap.get(genre);
+            if (null == indexes){
+                return new ArrayList<>();
             }
-            return movies;
+            return indexes.get(normalizeSortBy(sortBy)).top(size);
         }
         return null;
     }
 
-    // 获取前N部电影，并按sortBy方法排序
+    // 获取前N部电影，并按sortBy方法排序，返回有序索引前缀上的只读列表
     public List<Movie> getMovies(int size, String sortBy){
-        List<Movie> movies = new ArrayList<>(movieMap.values());
-        switch (sortBy){
-            case "rating":
-                movies.sort((m1, m2) -> Double.compare(m2.getAverageRating(), m1.getAverageRating()));
-                break;
-            case "popularity":
-                movies.sort((m1, m2) -> Integer.compare(m2.getRatingNumber(), m1.getRatingNumber()));
-                break;
-            case "releaseYear":
-                movies.sort((m1, m2) -> Integer.compare(m2.getReleaseYear(), m1.getReleaseYear()));
-                break;
-            default:
-                movies.sort((m1, m2) -> Double.compare(m2.getAverageRating(), m1.getAverageRating()));
+        return this.sortedMovieIndexMap.get(normalizeSortBy(sortBy)).top(size);
+    }
+
+    /**
+     * 在线添加一条评分，更新电影和用户的统计，由 /addrating 调用；评分明细在下次全量加载时写入RatingStore
+     * 有序索引中只标记该电影，最多 Config.SORTED_MOVIE_INDEX_REFRESH_MS 之后统一刷新，为0时立即刷新
+     * @param userId 用户ID，未知的用户只更新电影
+     * @param movieId 电影ID
+     * @param score 评分
+     * @param timestamp 评分时间（秒）
+     * @return 电影存在并已更新时返回true
+     */
+    public boolean addRating(int userId, int movieId, float score, long timestamp){
+        Movie movie = this.movieMap.get(movieId);
+        if (null == movie){
+            return false;
+        }
+        User user = this.userMap.get(userId);
+        // 在线更新与索引刷新相互串行，刷新期间排序键不变
+        synchronized (this.ratingUpdateLock){
+            if (null != user){
+                user.addRating(score);
+            }
+            movie.addRating(userId, score, timestamp);
+            for (String sortBy : RATING_SORT_KEYS){
+                this.sortedMovieIndexMap.get(sortBy).markDirty(movie);
+                for (String genre : movie.getGenres()){
+                    HashMap<String, SortedMovieIndex> indexes = this.genreSortedMovieIndexMap.get(genre);
+                    if (null != indexes){
+                        indexes.get(sortBy).markDirty(movie);
+                    }
+                }
+            }
+            if (Config.SORTED_MOVIE_INDEX_REFRESH_MS <= 0){
+                refreshSortedMovieIndexes();
+            } else if (!this.sortedIndexRefreshScheduled){
+                this.sortedIndexRefreshScheduled = true;
+                this.sortedIndexRefresher.schedule(this::refreshSortedMovieIndexes,
+                        Config.SORTED_MOVIE_INDEX_REFRESH_MS, TimeUnit.MILLISECONDS);
+            }
         }
+        return true;
+    }
 
-        if (movies.size() > size){
-            return movies.subList(0, size);
+    // 把在线评分标记的电影移动到各个有序索引中的新位置，每个索引只复制一次数组
+    private void refreshSortedMovieIndexes(){
+        synchronized (this.ratingUpdateLock){
+            this.sortedIndexRefreshScheduled = false;
+            long startTime = System.nanoTime();
+            int refreshed = 0;
+            for (SortedMovieIndex index : this.sortedMovieIndexMap.values()){
+                refreshed += index.refresh() ? 1 : 0;
+            }
+            for (HashMap<String, SortedMovieIndex> indexes : this.genreSortedMovieIndexMap.values()){
+                for (SortedMovieIndex index : indexes.values()){
+                    refreshed += index.refresh() ? 1 : 0;
+                }
+            }
+            Metrics.counter("movie.index.refreshed").add(refreshed);
+            Metrics.timer("movie.index.refresh").recordSince(startTime);
         }
-        return movies;
     }
 
     // 根据电影ID获取电影对象
@@ -318,27 +621,237 @@ public class DataManager {
         return this.userMap.get(userId);
     }
 
-    // 重新加载embedding模型
+    /**
+     * 获取当前版本的嵌入向量表并持有引用，使用完毕后必须调用EmbeddingTable.release
+     * 持有期间即使发生模型切换，读取到的也始终是同一个版本
+     * @return 当前版本的嵌入向量表
+     */
+    public EmbeddingTable acquireEmbeddings(){
+        while (true){
+            EmbeddingTable embeddings = this.embeddingTable.get();
+            if (embeddings.retain()){
+                return embeddings;
+            }
+        }
+    }
+
+    // 按配置量化或构建电影向量索引后把新的向量表设为当前版本，旧版本在所有持有者释放后清空
+    void publishEmbeddings(EmbeddingTable embeddings){
+        embeddings.markLoaded();
+        long startTime = System.nanoTime();
+        if (!Config.EMB_QUANTIZATION_NONE.equals(Config.EMB_QUANTIZATION)){
+            long floatBytes = embeddings.getStorageBytes();
+            embeddings.quantize(Config.EMB_QUANTIZATION, Config.EMB_PQ_SUBSPACE_DIM);
+            System.out.printf("Embedding version %s quantized to %s. %.1f MB -> %.1f MB, %.2f s.%n",
+                    embeddings.getVersion(), embeddings.getQuantization(), floatBytes / 1048576.0,
+                    embeddings.getStorageBytes() / 1048576.0, (System.nanoTime() - startTime) / 1e9);
+        }
+        if (!embeddings.isQuantized()){
+            startTime = System.nanoTime();
+            embeddings.buildMovieIndex(this.movieMap.values(), Config.HNSW_M, Config.HNSW_EF_CONSTRUCTION, Config.HNSW_EF_SEARCH);
+            Metrics.timer("embedding.hnsw.build").recordSince(startTime);
+            System.out.printf("Movie embedding HNSW index of version %s built. %d vectors, %.2f s.%n",
+                    embeddings.getVersion(), embeddings.getMovieIndex().size(), (System.nanoTime() - startTime) / 1e9);
+        }
+        EmbeddingTable old = this.embeddingTable.getAndSet(embeddings);
+        old.release();
+    }
+
+    /**
+     * 同步重新加载embedding模型，新向量在独立的表中加载和校验，完成后原子替换，加载期间请求继续使用旧版本
+     * @param modelDataPath 模型数据目录
+     * @param movieEmbFile 电影嵌入向量文件名
+     * @param userEmbFile 用户嵌入向量文件名
+     * @throws Exception 加载或校验失败，此时当前版本保持不变
+     */
     public void reloadEmbeddings(String modelDataPath, String movieEmbFile, String userEmbFile) throws Exception {
-        String movieEmbPath = modelDataPath + movieEmbFile;
-        String userEmbPath = modelDataPath + userEmbFile;
+        reloadEmbeddings(modelDataPath, movieEmbFile, userEmbFile, movieEmbFile);
+    }
+
+    /**
+     * 同步重新加载embedding模型，并指定新版本的名称
+     * @param modelDataPath 模型数据目录
+     * @param movieEmbFile 电影嵌入向量文件名
+     * @param userEmbFile 用户嵌入向量文件名
+     * @param version 新版本名称
+     * @throws Exception 加载或校验失败，此时当前版本保持不变
+     */
+    public void reloadEmbeddings(String modelDataPath, String movieEmbFile, String userEmbFile, String version) throws Exception {
+        EmbeddingReloadJob job = newEmbeddingReloadJob(version, modelDataPath + movieEmbFile, modelDataPath + userEmbFile);
+        runEmbeddingReload(job, null);
+        if (job.getState() == EmbeddingReloadJob.State.FAILED){
+            throw new IllegalStateException(job.getMessage());
+        }
+    }
+
+    /**
+     * 提交后台重新加载任务，立即返回
+     * @param modelDataPath 模型数据目录
+     * @param movieEmbFile 电影嵌入向量文件名
+     * @param userEmbFile 用户嵌入向量文件名
+     * @param version 新版本名称
+     * @param onCompleted 新版本生效后执行的回调，可以为null
+     * @return 重新加载任务，可以通过任务ID查询进度
+     */
+    public EmbeddingReloadJob submitEmbeddingReload(String modelDataPath, String movieEmbFile, String userEmbFile,
+                                                    String version, Runnable onCompleted){
+        EmbeddingReloadJob job = newEmbeddingReloadJob(version, modelDataPath + movieEmbFile, modelDataPath + userEmbFile);
+        this.embeddingReloadExecutor.submit(() -> runEmbeddingReload(job, onCompleted));
+        return job;
+    }
+
+    /**
+     * 开始监听模型目录中的增量向量文件，启动时先应用比全量向量文件更新的已有增量文件
+     * @param modelDataPath 模型数据目录
+     * @param baseEmbPaths 当前加载的全量向量文件，用于判断已有增量文件是否已包含在全量文件中
+     * @throws IOException 无法监听目录
+     */
+    public void startEmbeddingDeltaWatcher(String modelDataPath, String... baseEmbPaths) throws IOException {
+        long baselineMillis = 0;
+        for (String baseEmbPath : baseEmbPaths){
+            baselineMillis = Math.max(baselineMillis, new File(baseEmbPath).lastModified());
+        }
+        this.embeddingDeltaDirectory = Paths.get(modelDataPath);
+        new EmbeddingDeltaWatcher(this, this.embeddingDeltaDirectory).start(baselineMillis);
+    }
+
+    /**
+     * 加载模型目录中离线预计算的相似电影表（similarMovies_*.bin），替换已加载的同名表
+     * 依赖嵌入向量的表早于对应模型版本的电影向量文件时视为过期，不加载
+     * @param modelDataPath 模型数据目录
+     * @return 加载的表数量
+     */
+    public int loadSimilarMovieTables(String modelDataPath){
+        return loadSimilarMovieTables(modelDataPath, null);
+    }
+
+    /**
+     * 加载模型目录中基于某个模型版本预计算的相似电影表
+     * @param modelDataPath 模型数据目录
+     * @param modelVersion 模型版本，为null时加载全部表
+     * @return 加载的表数量
+     */
+    public int loadSimilarMovieTables(String modelDataPath, String modelVersion){
+        File[] files = new File(modelDataPath).listFiles((dir, name) ->
+                name.startsWith(SimilarMovieTable.FILE_PREFIX) && name.endsWith(SimilarMovieTable.EXTENSION));
+        if (null == files){
+            return 0;
+        }
+        int loaded = 0;
+        for (File file : files){
+            try {
+                SimilarMovieTable table = SimilarMovieTable.open(file.getPath());
+                if (null != modelVersion && !modelVersion.equals(table.getModelVersion())){
+                    continue;
+                }
+                if (!table.getModelVersion().isEmpty()){
+                    File embFile = new File(modelDataPath, ModelConfig.ModelVersion.valueOf(table.getModelVersion()).getItemEmbFile());
+                    if (embFile.lastModified() > file.lastModified()){
+                        System.out.println("Skip stale similar movie table " + table + ", older than " + embFile.getName());
+                        continue;
+                    }
+                }
+                this.similarMovieTables.put(SimilarMovieTable.fileNameOf(table.getModel(), table.getModelVersion()), table);
+                System.out.println("Loaded similar movie table " + table);
+                loaded++;
+            } catch (IOException | IllegalArgumentException e){
+                System.out.println("Failed to load similar movie table " + file + ": " + e.getMessage());
+            }
+        }
+        return loaded;
+    }
 
-        System.out.println("重新加载embedding模型:");
-        System.out.println("Movie embedding: " + movieEmbPath);
-        System.out.println("User embedding: " + userEmbPath);
+    /**
+     * 获取离线预计算的相似电影表
+     * @param model 排序模型名称
+     * @param modelVersion 模型版本，与模型版本无关时为空字符串
+     * @return 相似电影表，没有加载或已失效时返回null
+     */
+    public SimilarMovieTable getSimilarMovieTable(String model, String modelVersion){
+        return this.similarMovieTables.get(SimilarMovieTable.fileNameOf(model, modelVersion));
+    }
 
-        // 清除现有的embedding数据
-        for (Movie movie : movieMap.values()) {
-            movie.setEmb(null);
+    // 嵌入向量在线更新后，基于该版本向量预计算的相似电影表不再准确，停止使用
+    void invalidateSimilarMovieTables(String modelVersion){
+        this.similarMovieTables.values().removeIf(table -> table.getModelVersion().equals(modelVersion));
+    }
+
+    // 提交一个增量向量文件，在嵌入向量执行器上与模型切换串行应用
+    void submitEmbeddingDelta(Path deltaPath){
+        this.embeddingReloadExecutor.submit(() -> EmbeddingDeltaWatcher.apply(this, deltaPath));
+    }
+
+    // 根据任务ID获取重新加载任务，不存在时返回null
+    public EmbeddingReloadJob getEmbeddingReloadJob(String jobId){
+        synchronized (this.embeddingReloadJobs){
+            return this.embeddingReloadJobs.get(jobId);
         }
-        for (User user : userMap.values()) {
-            user.setEmb(null);
+    }
+
+    // 获取最近提交的重新加载任务，没有时返回null
+    public EmbeddingReloadJob getLatestEmbeddingReloadJob(){
+        synchronized (this.embeddingReloadJobs){
+            EmbeddingReloadJob latest = null;
+            for (EmbeddingReloadJob job : this.embeddingReloadJobs.values()){
+                latest = job;
+            }
+            return latest;
         }
+    }
 
-        // 重新加载embedding
-        loadMovieEmb(movieEmbPath, "i2vEmb");
-        loadUserEmb(userEmbPath, "uEmb");
+    private EmbeddingReloadJob newEmbeddingReloadJob(String version, String movieEmbPath, String userEmbPath){
+        EmbeddingReloadJob job = new EmbeddingReloadJob("reload-" + this.embeddingReloadJobSequence.incrementAndGet(),
+                version, movieEmbPath, userEmbPath);
+        synchronized (this.embeddingReloadJobs){
+            this.embeddingReloadJobs.put(job.getJobId(), job);
+            Iterator<String> iterator = this.embeddingReloadJobs.keySet().iterator();
+            while (this.embeddingReloadJobs.size() > MAX_RELOAD_JOB_HISTORY && iterator.hasNext()){
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        return job;
+    }
 
-        System.out.println("✅ Embedding模型重新加载完成!");
+    // 在影子向量表中加载新版本，校验维度和覆盖率后原子替换当前版本
+    private void runEmbeddingReload(EmbeddingReloadJob job, Runnable onCompleted){
+        System.out.println("重新加载embedding模型 (" + job.getJobId() + "):");
+        System.out.println("Movie embedding: " + job.getMovieEmbPath());
+        System.out.println("User embedding: " + job.getUserEmbPath());
+        long startTime = System.nanoTime();
+        try {
+            EmbeddingTable embeddings = new EmbeddingTable(job.getVersion(), this.movieMap.size(), this.userMap.size());
+            job.setState(EmbeddingReloadJob.State.LOADING_MOVIE_EMB);
+            job.setMovieEmbCount(loadMovieEmb(job.getMovieEmbPath(), "i2vEmb", embeddings));
+            job.setState(EmbeddingReloadJob.State.LOADING_USER_EMB);
+            job.setUserEmbCount(loadUserEmb(job.getUserEmbPath(), "uEmb", embeddings));
+            // 全量文件不包含之后写入的增量，生效前重放该版本的增量，切换回旧版本时不丢失已应用的变化
+            int replayed = 0;
+            Path deltaDirectory = this.embeddingDeltaDirectory;
+            if (null != deltaDirectory){
+                job.setState(EmbeddingReloadJob.State.REPLAYING_DELTAS);
+                long baselineMillis = Math.max(new File(job.getMovieEmbPath()).lastModified(),
+                        new File(job.getUserEmbPath()).lastModified());
+                replayed = EmbeddingDeltaWatcher.replay(this, embeddings, deltaDirectory, baselineMillis);
+            }
+            job.setState(EmbeddingReloadJob.State.VALIDATING);
+            embeddings.validate(Config.EMB_MIN_MOVIE_COVERAGE);
+            publishEmbeddings(embeddings);
+            // 之前因增量失效的相似电影表与全量文件一致时重新加载，重放了增量时停止使用
+            if (replayed > 0){
+                invalidateSimilarMovieTables(job.getVersion());
+            } else if (Config.IS_ENABLE_SIMILAR_MOVIE_TABLE){
+                loadSimilarMovieTables(new File(job.getMovieEmbPath()).getParent() + File.separator, job.getVersion());
+            }
+            if (null != onCompleted){
+                onCompleted.run();
+            }
+            job.finish(EmbeddingReloadJob.State.COMPLETED, String.format("Switched to %s in %.2f s",
+                    job.getVersion(), (System.nanoTime() - startTime) / 1e9));
+            System.out.println("✅ Embedding模型重新加载完成!");
+        } catch (Exception e){
+            job.finish(EmbeddingReloadJob.State.FAILED, String.valueOf(e.getMessage()));
+            System.out.println("Embedding模型重新加载失败，继续使用当前版本: " + e.getMessage());
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,393 @@
+package com.sparrowrecsys.online.datamanager;
+
+import com.sparrowrecsys.online.config.ModelConfig;
+import com.sparrowrecsys.online.model.Embedding;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * DataSnapshot 类，负责 DataManager 全量状态的二进制快照读写
+ * 快照在 CSV 加载完成后写入一次，之后的启动直接内存映射快照文件，版本号、源文件指纹或校验和不匹配时回退到 CSV 加载
+ *
+ * 文件布局：[magic][formatVersion][payloadLength][crc32][sourceFingerprint] + payload
+ * payload 依次为：电影、类型索引、用户、评分列存储及其 CSR 索引、电影嵌入向量、用户嵌入向量
+ */
+class DataSnapshot {
+    // 文件魔数 "SRSS"
+    static final int MAGIC = 0x53525353;
+    // 快照格式版本，格式变化时递增
+    static final int FORMAT_VERSION = 3;
+    // 文件头长度
+    static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8;
+
+    /**
+     * 计算源文件指纹，任意源文件的大小或修改时间变化都会使快照失效
+     * @param sourcePaths 源文件路径，为 null 的路径被忽略
+     * @return 指纹
+     */
+    static long fingerprint(String... sourcePaths) {
+        long hash = 1125899906842597L;
+        for (String path : sourcePaths) {
+            if (null == path) {
+                continue;
+            }
+            File file = new File(path);
+            hash = 31 * hash + path.hashCode();
+            hash = 31 * hash + file.length();
+            hash = 31 * hash + file.lastModified();
+        }
+        return hash;
+    }
+
+    /**
+     * 将 DataManager 当前状态写入快照文件，先写临时文件再原子替换
+     * @param dataManager 数据管理器
+     * @param embeddings 写入快照的嵌入向量表
+     * @param snapshotPath 快照文件路径
+     * @param sourceFingerprint 源文件指纹
+     * @throws IOException 如果写入失败
+     */
+    static void write(DataManager dataManager, EmbeddingTable embeddings, String snapshotPath, long sourceFingerprint) throws IOException {
+        File target = new File(snapshotPath);
+        File tmp = new File(snapshotPath + ".tmp");
+        File directory = target.getAbsoluteFile().getParentFile();
+        if (null != directory) {
+            Files.createDirectories(directory.toPath());
+        }
+        CRC32 crc = new CRC32();
+        try (FileOutputStream fileOut = new FileOutputStream(tmp)) {
+            fileOut.write(new byte[HEADER_SIZE]);
+            CheckedOutputStream checkedOut = new CheckedOutputStream(new BufferedOutputStream(fileOut, 1 << 16), crc);
+            DataOutputStream out = new DataOutputStream(checkedOut);
+            writePayload(dataManager, embeddings, out);
+            out.flush();
+        }
+        if (tmp.length() > Integer.MAX_VALUE) {
+            // 快照以单个映射区域读取，超过 2GB 时放弃写入
+            Files.deleteIfExists(tmp.toPath());
+            throw new IOException("Snapshot too large: " + tmp.length() + " bytes");
+        }
+        long payloadLength = tmp.length() - HEADER_SIZE;
+        try (RandomAccessFile file = new RandomAccessFile(tmp, "rw")) {
+            file.writeInt(MAGIC);
+            file.writeInt(FORMAT_VERSION);
+            file.writeLong(payloadLength);
+            file.writeLong(crc.getValue());
+            file.writeLong(sourceFingerprint);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writePayload(DataManager dataManager, EmbeddingTable embeddings, DataOutputStream out) throws IOException {
+        // 电影
+        out.writeInt(dataManager.movieMap.size());
+        for (Movie movie : dataManager.movieMap.values()) {
+            out.writeInt(movie.movieId);
+            out.writeInt(movie.index);
+            writeString(out, movie.title);
+            out.writeInt(movie.releaseYear);
+            writeString(out, movie.imdbId);
+            writeString(out, movie.tmdbId);
+            out.writeInt(movie.genres.size());
+            for (String genre : movie.genres) {
+                writeString(out, genre);
+            }
+            out.writeInt(movie.ratingNumber);
+            out.writeDouble(movie.averageRating);
+            List<Rating> topRatings = movie.topRatings.toList();
+            out.writeInt(topRatings.size());
+            for (Rating rating : topRatings) {
+                writeRating(out, rating);
+            }
+        }
+
+        // 类型索引，保留原始的电影顺序
+        out.writeInt(dataManager.genreReverseIndexMap.size());
+        for (Map.Entry<String, List<Movie>> entry : dataManager.genreReverseIndexMap.entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (Movie movie : entry.getValue()) {
+                out.writeInt(movie.movieId);
+            }
+        }
+
+        // 用户及其评分统计
+        out.writeInt(dataManager.userMap.size());
+        for (User user : dataManager.userMap.values()) {
+            out.writeInt(user.userId);
+            out.writeInt(user.index);
+            out.writeDouble(user.averageRating);
+            out.writeDouble(user.highestRating);
+            out.writeDouble(user.lowestRating);
+            out.writeInt(user.ratingCount);
+        }
+
+        // 评分列存储及其 CSR 索引
+        RatingStore store = dataManager.ratingStore;
+        out.writeInt(store.size);
+        writeInts(out, store.userIds, store.size);
+        writeInts(out, store.movieIds, store.size);
+        for (int i = 0; i < store.size; i++) {
+            out.writeFloat(store.scores[i]);
+        }
+        for (int i = 0; i < store.size; i++) {
+            out.writeLong(store.timestamps[i]);
+        }
+        out.writeInt(store.userOffsets.length);
+        writeInts(out, store.userOffsets, store.userOffsets.length);
+        out.writeInt(store.movieOffsets.length);
+        writeInts(out, store.movieOffsets, store.movieOffsets.length);
+        out.writeInt(store.movieRows.length);
+        writeInts(out, store.movieRows, store.movieRows.length);
+
+        // 嵌入向量
+        if (!embeddings.retain()) {
+            throw new IOException("Embedding version " + embeddings.getVersion() + " has been released");
+        }
+        try {
+            int movieEmbCount = 0;
+            for (Movie movie : dataManager.movieMap.values()) {
+                if (null != embeddings.getMovieEmb(movie)) {
+                    movieEmbCount++;
+                }
+            }
+            out.writeInt(movieEmbCount);
+            for (Movie movie : dataManager.movieMap.values()) {
+                Embedding emb = embeddings.getMovieEmb(movie);
+                if (null != emb) {
+                    out.writeInt(movie.movieId);
+                    writeEmbedding(out, emb);
+                }
+            }
+            int userEmbCount = 0;
+            for (User user : dataManager.userMap.values()) {
+                if (null != embeddings.getUserEmb(user)) {
+                    userEmbCount++;
+                }
+            }
+            out.writeInt(userEmbCount);
+            for (User user : dataManager.userMap.values()) {
+                Embedding emb = embeddings.getUserEmb(user);
+                if (null != emb) {
+                    out.writeInt(user.userId);
+                    writeEmbedding(out, emb);
+                }
+            }
+        } finally {
+            embeddings.release();
+        }
+    }
+
+    /**
+     * 内存映射快照文件并恢复 DataManager 状态
+     * @param dataManager 数据管理器，其中的电影和用户结构会被替换
+     * @param snapshotPath 快照文件路径
+     * @param sourceFingerprint 期望的源文件指纹
+     * @return 快照有效并恢复成功时返回快照中的嵌入向量表（尚未生效），否则返回 null 且不修改 dataManager
+     */
+    static EmbeddingTable read(DataManager dataManager, String snapshotPath, long sourceFingerprint) {
+        File file = new File(snapshotPath);
+        if (!file.isFile() || file.length() < HEADER_SIZE || file.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            long payloadLength = buffer.getLong();
+            long expectedCrc = buffer.getLong();
+            long fingerprint = buffer.getLong();
+            if (magic != MAGIC || version != FORMAT_VERSION) {
+                System.out.println("Data snapshot version mismatch, fall back to CSV loading.");
+                return null;
+            }
+            if (fingerprint != sourceFingerprint) {
+                System.out.println("Data snapshot is stale, fall back to CSV loading.");
+                return null;
+            }
+            if (payloadLength != channel.size() - HEADER_SIZE) {
+                System.out.println("Data snapshot is truncated, fall back to CSV loading.");
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(HEADER_SIZE);
+            crc.update(payload);
+            if (crc.getValue() != expectedCrc) {
+                System.out.println("Data snapshot checksum mismatch, fall back to CSV loading.");
+                return null;
+            }
+            buffer.position(HEADER_SIZE);
+            return readPayload(dataManager, buffer);
+        } catch (Exception e) {
+            System.out.println("Failed to read data snapshot, fall back to CSV loading: " + e.getMessage());
+            dataManager.movieMap.clear();
+            dataManager.userMap.clear();
+            dataManager.genreReverseIndexMap.clear();
+            dataManager.ratingStore = RatingStore.empty();
+            return null;
+        }
+    }
+
+    private static EmbeddingTable readPayload(DataManager dataManager, ByteBuffer in) {
+        int movieCount = in.getInt();
+        for (int i = 0; i < movieCount; i++) {
+            Movie movie = new Movie();
+            movie.movieId = in.getInt();
+            movie.index = in.getInt();
+            movie.title = readString(in);
+            movie.releaseYear = in.getInt();
+            movie.imdbId = readString(in);
+            movie.tmdbId = readString(in);
+            int genreCount = in.getInt();
+            for (int g = 0; g < genreCount; g++) {
+                movie.genres.add(readString(in));
+            }
+            movie.ratingNumber = in.getInt();
+            movie.averageRating = in.getDouble();
+            int topCount = in.getInt();
+            List<Rating> topRatings = new ArrayList<>(topCount);
+            for (int t = 0; t < topCount; t++) {
+                topRatings.add(readRating(in));
+            }
+            movie.topRatings.restore(topRatings);
+            dataManager.movieMap.put(movie.movieId, movie);
+        }
+
+        int genreCount = in.getInt();
+        for (int i = 0; i < genreCount; i++) {
+            String genre = readString(in);
+            int size = in.getInt();
+            List<Movie> movies = new ArrayList<>(size);
+            for (int m = 0; m < size; m++) {
+                movies.add(dataManager.movieMap.get(in.getInt()));
+            }
+            dataManager.genreReverseIndexMap.put(genre, movies);
+        }
+
+        int userCount = in.getInt();
+        for (int i = 0; i < userCount; i++) {
+            User user = new User();
+            user.userId = in.getInt();
+            user.index = in.getInt();
+            user.averageRating = in.getDouble();
+            user.highestRating = in.getDouble();
+            user.lowestRating = in.getDouble();
+            user.ratingCount = in.getInt();
+            dataManager.userMap.put(user.userId, user);
+        }
+
+        // 评分列直接从映射区域批量复制
+        int ratingCount = in.getInt();
+        int[] userIds = readInts(in, ratingCount);
+        int[] movieIds = readInts(in, ratingCount);
+        float[] scores = new float[ratingCount];
+        in.asFloatBuffer().get(scores);
+        in.position(in.position() + ratingCount * 4);
+        long[] timestamps = new long[ratingCount];
+        in.asLongBuffer().get(timestamps);
+        in.position(in.position() + ratingCount * 8);
+        int[] userOffsets = readInts(in, in.getInt());
+        int[] movieOffsets = readInts(in, in.getInt());
+        int[] movieRows = readInts(in, in.getInt());
+        dataManager.ratingStore = new RatingStore(ratingCount, userIds, movieIds, scores, timestamps,
+                userOffsets, movieOffsets, movieRows);
+        dataManager.attachRatingViews();
+
+        EmbeddingTable embeddings = new EmbeddingTable(ModelConfig.getCurrentModelVersion().name(),
+                dataManager.movieMap.size(), dataManager.userMap.size());
+        int movieEmbCount = in.getInt();
+        for (int i = 0; i < movieEmbCount; i++) {
+            Movie movie = dataManager.movieMap.get(in.getInt());
+            embeddings.setMovieEmb(movie, readEmbedding(in));
+        }
+        int userEmbCount = in.getInt();
+        for (int i = 0; i < userEmbCount; i++) {
+            User user = dataManager.userMap.get(in.getInt());
+            embeddings.setUserEmb(user, readEmbedding(in));
+        }
+        return embeddings;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values, int length) throws IOException {
+        for (int i = 0; i < length; i++) {
+            out.writeInt(values[i]);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer in, int length) {
+        int[] values = new int[length];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + length * 4);
+        return values;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (null == value) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeRating(DataOutputStream out, Rating rating) throws IOException {
+        out.writeInt(rating.userId);
+        out.writeInt(rating.movieId);
+        out.writeFloat(rating.score);
+        out.writeLong(rating.timestamp);
+    }
+
+    private static Rating readRating(ByteBuffer in) {
+        Rating rating = new Rating();
+        rating.userId = in.getInt();
+        rating.movieId = in.getInt();
+        rating.score = in.getFloat();
+        rating.timestamp = in.getLong();
+        return rating;
+    }
+
+    // 向量表中的向量都已归一化，保存单位向量和原始的模，恢复时不需要重新归一化
+    private static void writeEmbedding(DataOutputStream out, Embedding emb) throws IOException {
+        out.writeInt(emb.getDim());
+        out.writeFloat(emb.getNorm());
+        for (int d = 0; d < emb.getDim(); d++) {
+            out.writeFloat(emb.get(d));
+        }
+    }
+
+    private static Embedding readEmbedding(ByteBuffer in) {
+        float[] vector = new float[in.getInt()];
+        float norm = in.getFloat();
+        in.asFloatBuffer().get(vector);
+        in.position(in.position() + vector.length * 4);
+        return new Embedding(vector, 0, vector.length, norm);
+    }
+}
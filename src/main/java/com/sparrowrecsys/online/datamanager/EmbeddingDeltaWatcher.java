@@ -0,0 +1,285 @@
+package com.sparrowrecsys.online.datamanager;
+
+import com.sparrowrecsys.online.model.Embedding;
+import com.sparrowrecsys.online.util.EmbeddingParser;
+import com.sparrowrecsys.online.util.Metrics;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * EmbeddingDeltaWatcher 类，监听模型目录中的增量向量文件，并把其中的变化应用到当前版本的向量表
+ *
+ * 增量文件以 .delta 结尾，每行一个操作，# 开头的行是注释。操作属于它之前最近的 #version=模型版本 行，
+ * 只应用到同名版本的向量表，其他版本的操作被跳过，没有版本的操作视为无效：
+ *   #version=STANDARD         之后的操作属于 STANDARD 版本
+ *   +movie:电影ID:v1 v2 ...   新增或替换电影向量
+ *   +user:用户ID:v1 v2 ...    新增或替换用户向量，用户ID可以带 user_ 前缀
+ *   -movie:电影ID             删除电影向量
+ *   -user:用户ID              删除用户向量
+ * 每个向量整体替换，读线程不会看到一半新一半旧的向量。写入方应先写临时文件，再重命名为 .delta 文件。
+ * 同一文件被修改后会重新应用；增量应用和模型切换在同一个执行器上串行执行。
+ * 切换到某个版本时，比该版本全量文件更新的增量文件会在新表生效前重放（replay），切换回之前的版本不会丢失已应用的增量。
+ */
+class EmbeddingDeltaWatcher {
+    // 增量文件的扩展名
+    static final String DELTA_SUFFIX = ".delta";
+    // 指定之后的操作所属模型版本的注释行前缀
+    static final String VERSION_HEADER = "#version=";
+
+    private final DataManager dataManager;
+    private final Path directory;
+    // 已应用的文件及其修改时间，避免重复应用
+    private final HashMap<Path, Long> appliedFiles = new HashMap<>();
+    private WatchService watchService;
+
+    EmbeddingDeltaWatcher(DataManager dataManager, Path directory) {
+        this.dataManager = dataManager;
+        this.directory = directory;
+    }
+
+    /**
+     * 启动监听线程，并应用目录中修改时间晚于 baselineMillis 的已有增量文件
+     * @param baselineMillis 全量向量文件的修改时间，更早的增量文件已经包含在全量文件中
+     */
+    void start(long baselineMillis) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        List<Path> existing = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + DELTA_SUFFIX)) {
+            for (Path path : stream) {
+                if (Files.getLastModifiedTime(path).toMillis() > baselineMillis) {
+                    existing.add(path);
+                } else {
+                    appliedFiles.put(path, Files.getLastModifiedTime(path).toMillis());
+                }
+            }
+        }
+        existing.sort((p1, p2) -> Long.compare(p1.toFile().lastModified(), p2.toFile().lastModified()));
+        for (Path path : existing) {
+            submit(path);
+        }
+
+        Thread thread = new Thread(this::watchLoop, "embedding-delta-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("Watching " + directory + " for embedding delta files.");
+    }
+
+    // 停止监听
+    void stop() throws IOException {
+        if (null != watchService) {
+            watchService.close();
+        }
+    }
+
+    private void watchLoop() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rescan();
+                        continue;
+                    }
+                    Path path = directory.resolve((Path) event.context());
+                    if (path.getFileName().toString().endsWith(DELTA_SUFFIX)) {
+                        submit(path);
+                    }
+                }
+                if (!key.reset()) {
+                    System.out.println("Embedding delta directory " + directory + " is no longer accessible.");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // 监听被停止
+        } catch (IOException e) {
+            System.out.println("Embedding delta watcher stopped: " + e.getMessage());
+        }
+    }
+
+    // 事件溢出时重新扫描目录，应用所有新的或被修改的增量文件
+    private void rescan() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + DELTA_SUFFIX)) {
+            for (Path path : stream) {
+                submit(path);
+            }
+        }
+    }
+
+    // 文件是新的或被修改过时提交应用任务
+    private void submit(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return;
+        }
+        long modifiedAt = path.toFile().lastModified();
+        Long appliedAt = appliedFiles.get(path);
+        if (null != appliedAt && appliedAt == modifiedAt) {
+            return;
+        }
+        appliedFiles.put(path, modifiedAt);
+        dataManager.submitEmbeddingDelta(path);
+    }
+
+    /**
+     * 把一个增量文件应用到当前版本的向量表
+     * @param dataManager 数据管理器
+     * @param path 增量文件路径
+     * @return 应用成功的操作数量
+     */
+    static int apply(DataManager dataManager, Path path) {
+        long writtenAt = path.toFile().lastModified();
+        EmbeddingTable embeddings = dataManager.acquireEmbeddings();
+        int applied;
+        try {
+            applied = applyTo(dataManager, embeddings, path);
+        } finally {
+            embeddings.release();
+        }
+        if (applied > 0) {
+            dataManager.invalidateSimilarMovieTables(embeddings.getVersion());
+        }
+        Metrics.timer("embedding.delta.lag").record(Math.max(0, System.currentTimeMillis() - writtenAt));
+        return applied;
+    }
+
+    /**
+     * 把目录中修改时间晚于 baselineMillis 的增量文件按修改时间顺序重放到尚未生效的向量表，只应用该表版本的操作
+     * @param dataManager 数据管理器
+     * @param embeddings 新加载的向量表
+     * @param directory 增量文件所在目录
+     * @param baselineMillis 全量向量文件的修改时间，更早的增量文件已经包含在全量文件中
+     * @return 应用成功的操作数量
+     * @throws IOException 无法列出目录
+     */
+    static int replay(DataManager dataManager, EmbeddingTable embeddings, Path directory, long baselineMillis)
+            throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + DELTA_SUFFIX)) {
+            for (Path path : stream) {
+                if (path.toFile().lastModified() > baselineMillis) {
+                    files.add(path);
+                }
+            }
+        }
+        files.sort((p1, p2) -> Long.compare(p1.toFile().lastModified(), p2.toFile().lastModified()));
+        int applied = 0;
+        for (Path path : files) {
+            applied += applyTo(dataManager, embeddings, path);
+        }
+        return applied;
+    }
+
+    // 把一个增量文件中属于 embeddings 版本的操作应用到 embeddings
+    private static int applyTo(DataManager dataManager, EmbeddingTable embeddings, Path path) {
+        int upserts = 0;
+        int deletes = 0;
+        int rejected = 0;
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String version = null;
+            String line;
+            while (null != (line = reader.readLine())) {
+                line = line.trim();
+                if (line.startsWith(VERSION_HEADER)) {
+                    version = line.substring(VERSION_HEADER.length()).trim();
+                    continue;
+                }
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (null == version) {
+                    rejected++;
+                    continue;
+                }
+                if (!version.equals(embeddings.getVersion())) {
+                    skipped++;
+                    continue;
+                }
+                int result = applyLine(dataManager, embeddings, line);
+                if (result > 0) {
+                    upserts++;
+                } else if (result < 0) {
+                    deletes++;
+                } else {
+                    rejected++;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Failed to read embedding delta " + path + ": " + e.getMessage());
+            Metrics.counter("embedding.delta.failedFiles").increment();
+            return upserts + deletes;
+        }
+
+        Metrics.counter("embedding.delta.files").increment();
+        Metrics.counter("embedding.delta.upserts").add(upserts);
+        Metrics.counter("embedding.delta.deletes").add(deletes);
+        Metrics.counter("embedding.delta.rejected").add(rejected);
+        Metrics.counter("embedding.delta.skipped").add(skipped);
+        System.out.printf("Applied embedding delta %s to version %s: %d upserts, %d deletes, %d rejected, %d skipped for other versions.%n",
+                path.getFileName(), embeddings.getVersion(), upserts, deletes, rejected, skipped);
+        return upserts + deletes;
+    }
+
+    // 应用一行增量，新增或替换返回1，删除返回-1，无效行返回0
+    private static int applyLine(DataManager dataManager, EmbeddingTable embeddings, String line) {
+        char op = line.charAt(0);
+        if (op != '+' && op != '-') {
+            return 0;
+        }
+        String[] fields = line.substring(1).split(":", 3);
+        if (fields.length < 2 || (op == '+' && fields.length != 3)) {
+            return 0;
+        }
+        try {
+            Embedding emb = null;
+            if (op == '+') {
+                emb = EmbeddingParser.parse(fields[2].trim());
+                if (null == emb) {
+                    return 0;
+                }
+                int dim = embeddings.getDim();
+                if (dim > 0 && emb.getDim() != dim) {
+                    return 0;
+                }
+            }
+            String id = fields[1].trim();
+            switch (fields[0].trim()) {
+                case "movie":
+                    Movie movie = dataManager.getMovieById(Integer.parseInt(id));
+                    if (null == movie) {
+                        return 0;
+                    }
+                    embeddings.setMovieEmb(movie, emb);
+                    break;
+                case "user":
+                    User user = dataManager.getUserById(Integer.parseInt(id.startsWith("user_") ? id.substring(5) : id));
+                    if (null == user) {
+                        return 0;
+                    }
+                    embeddings.setUserEmb(user, emb);
+                    break;
+                default:
+                    return 0;
+            }
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        return op == '+' ? 1 : -1;
+    }
+}
@@ -0,0 +1,260 @@
+package com.sparrowrecsys.online.datamanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * EmbeddingFile 类，二进制嵌入向量文件的读写
+ * 文件以只读方式内存映射，打开时只读取文件头并检查 ID 表，向量数据在读取对应的行时才由操作系统按页载入。
+ *
+ * 文件布局（小端序）：
+ *   [magic][formatVersion][dtype][dim][count][reserved][modelVersion 40 字节 UTF-8，不足补 0]  共 64 字节
+ *   [ID 表 int32 × count，严格递增]
+ *   [向量 float32 × count × dim，第 i 行对应 ID 表的第 i 个 ID]
+ */
+public class EmbeddingFile {
+    // 文件魔数 "SREB"
+    static final int MAGIC = 0x53524542;
+    // 文件格式版本，格式变化时递增
+    static final int FORMAT_VERSION = 1;
+    // 数据类型：float32
+    static final int DTYPE_FLOAT32 = 1;
+    // 文件头长度
+    static final int HEADER_SIZE = 64;
+    // 文件头中模型版本的最大字节数
+    static final int MODEL_VERSION_BYTES = 40;
+    // 二进制向量文件的扩展名
+    public static final String EXTENSION = ".bin";
+
+    private final String path;
+    private final String modelVersion;
+    private final int dim;
+    private final int count;
+    private final IntBuffer ids;
+    private final FloatBuffer rows;
+
+    private EmbeddingFile(String path, String modelVersion, int dim, int count, IntBuffer ids, FloatBuffer rows) {
+        this.path = path;
+        this.modelVersion = modelVersion;
+        this.dim = dim;
+        this.count = count;
+        this.ids = ids;
+        this.rows = rows;
+    }
+
+    /**
+     * 内存映射打开二进制向量文件
+     * @param path 文件路径
+     * @return 向量文件
+     * @throws IOException 读取失败或文件格式不合法
+     */
+    public static EmbeddingFile open(String path) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(path, "r"); FileChannel channel = file.getChannel()) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Invalid embedding file size " + channel.size() + ": " + path);
+            }
+            // 关闭通道后映射仍然有效
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not an embedding file: " + path);
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION || buffer.getInt(8) != DTYPE_FLOAT32) {
+            throw new IOException("Unsupported embedding file format " + buffer.getInt(4) + "/" + buffer.getInt(8) + ": " + path);
+        }
+        int dim = buffer.getInt(12);
+        int count = buffer.getInt(16);
+        long expectedSize = HEADER_SIZE + 4L * count + 4L * count * dim;
+        if (dim <= 0 || count < 0 || expectedSize != buffer.capacity()) {
+            throw new IOException("Corrupted embedding file, dim " + dim + ", count " + count + ", size "
+                    + buffer.capacity() + ": " + path);
+        }
+        byte[] versionBytes = new byte[MODEL_VERSION_BYTES];
+        buffer.position(24);
+        buffer.get(versionBytes);
+        int versionLength = 0;
+        while (versionLength < versionBytes.length && versionBytes[versionLength] != 0) {
+            versionLength++;
+        }
+        String modelVersion = new String(versionBytes, 0, versionLength, StandardCharsets.UTF_8);
+
+        buffer.position(HEADER_SIZE);
+        buffer.limit(HEADER_SIZE + 4 * count);
+        IntBuffer ids = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        buffer.limit(buffer.capacity());
+        buffer.position(HEADER_SIZE + 4 * count);
+        FloatBuffer rows = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        // 二分查找依赖 ID 严格递增，只会载入 ID 表所在的页
+        for (int i = 1; i < count; i++) {
+            if (ids.get(i) <= ids.get(i - 1)) {
+                throw new IOException("Embedding file ids are not sorted at row " + i + ": " + path);
+            }
+        }
+        return new EmbeddingFile(path, modelVersion, dim, count, ids, rows);
+    }
+
+    /**
+     * 判断文件是否是二进制向量文件（以魔数开头）
+     * @param path 文件路径
+     * @return 是否是二进制向量文件，文件不存在或无法读取时返回 false
+     */
+    public static boolean isEmbeddingFile(String path) {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            if (file.length() < HEADER_SIZE) {
+                return false;
+            }
+            return Integer.reverseBytes(file.readInt()) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 获取文本向量文件对应的二进制文件路径，即把扩展名替换为 .bin
+     * @param textPath 文本向量文件路径
+     * @return 二进制文件路径
+     */
+    public static String binaryPathOf(String textPath) {
+        int slash = Math.max(textPath.lastIndexOf('/'), textPath.lastIndexOf(File.separatorChar));
+        int dot = textPath.lastIndexOf('.');
+        return (dot > slash ? textPath.substring(0, dot) : textPath) + EXTENSION;
+    }
+
+    /**
+     * 写入二进制向量文件，先写临时文件再原子替换
+     * @param path 文件路径
+     * @param modelVersion 模型版本，超过 40 字节时被截断
+     * @param dim 向量维度
+     * @param ids 严格递增的 ID
+     * @param vectors 按行存放的向量，第 i 行对应 ids[i]
+     * @throws IOException 写入失败
+     * @throws IllegalArgumentException ID 未排序或向量数量不匹配
+     */
+    public static void write(String path, String modelVersion, int dim, int[] ids, float[] vectors) throws IOException {
+        if ((long) ids.length * dim != vectors.length) {
+            throw new IllegalArgumentException("Expect " + ids.length + " x " + dim + " floats, got " + vectors.length);
+        }
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i] <= ids[i - 1]) {
+                throw new IllegalArgumentException("Ids are not sorted at " + i);
+            }
+        }
+        File target = new File(path);
+        File tmp = new File(path + ".tmp");
+        try (RandomAccessFile file = new RandomAccessFile(tmp, "rw"); FileChannel channel = file.getChannel()) {
+            file.setLength(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(DTYPE_FLOAT32).putInt(dim).putInt(ids.length).putInt(0);
+            byte[] versionBytes = modelVersion.getBytes(StandardCharsets.UTF_8);
+            header.put(versionBytes, 0, Math.min(versionBytes.length, MODEL_VERSION_BYTES));
+            header.position(HEADER_SIZE);
+            header.flip();
+            writeFully(channel, header);
+
+            ByteBuffer block = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            for (int id : ids) {
+                if (!block.hasRemaining()) {
+                    block.flip();
+                    writeFully(channel, block);
+                    block.clear();
+                }
+                block.putInt(id);
+            }
+            for (float value : vectors) {
+                if (!block.hasRemaining()) {
+                    block.flip();
+                    writeFully(channel, block);
+                    block.clear();
+                }
+                block.putFloat(value);
+            }
+            block.flip();
+            writeFully(channel, block);
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // 获取文件路径
+    public String getPath() {
+        return path;
+    }
+
+    // 获取写入文件时的模型版本
+    public String getModelVersion() {
+        return modelVersion;
+    }
+
+    // 获取向量维度
+    public int getDim() {
+        return dim;
+    }
+
+    // 获取向量数量
+    public int getCount() {
+        return count;
+    }
+
+    // 获取第 row 行的 ID
+    public int getId(int row) {
+        return ids.get(row);
+    }
+
+    /**
+     * 二分查找 ID 所在的行
+     * @param id 电影或用户ID
+     * @return 行号，不存在时返回-1
+     */
+    public int findRow(int id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = ids.get(mid);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 把第 row 行的向量复制到 target 数组，只载入该行所在的页
+     * @param row 行号
+     * @param target 结果数组
+     * @param offset 结果的起始位置
+     */
+    public void read(int row, float[] target, int offset) {
+        // 每次复制使用独立的视图，多个线程可以同时读取
+        FloatBuffer view = rows.duplicate();
+        view.position(row * dim);
+        view.get(target, offset, dim);
+    }
+
+    @Override
+    public String toString() {
+        return path + " (version " + modelVersion + ", " + count + " x " + dim + ")";
+    }
+}
@@ -0,0 +1,104 @@
+package com.sparrowrecsys.online.datamanager;
+
+/**
+ * EmbeddingReloadJob 类，记录一次后台嵌入向量重新加载任务的进度
+ * 状态依次为 PENDING、LOADING_MOVIE_EMB、LOADING_USER_EMB、VALIDATING，最终为 COMPLETED 或 FAILED
+ */
+public class EmbeddingReloadJob {
+    // 任务状态
+    public enum State {
+        PENDING, LOADING_MOVIE_EMB, LOADING_USER_EMB, REPLAYING_DELTAS, VALIDATING, COMPLETED, FAILED
+    }
+
+    private final String jobId;
+    private final String version;
+    private final String movieEmbPath;
+    private final String userEmbPath;
+    private final long submittedAt;
+    private volatile State state = State.PENDING;
+    private volatile int movieEmbCount;
+    private volatile int userEmbCount;
+    private volatile long finishedAt;
+    private volatile String message = "";
+
+    EmbeddingReloadJob(String jobId, String version, String movieEmbPath, String userEmbPath) {
+        this.jobId = jobId;
+        this.version = version;
+        this.movieEmbPath = movieEmbPath;
+        this.userEmbPath = userEmbPath;
+        this.submittedAt = System.currentTimeMillis();
+    }
+
+    // 获取任务ID
+    public String getJobId() {
+        return jobId;
+    }
+
+    // 获取要加载的模型版本
+    public String getVersion() {
+        return version;
+    }
+
+    // 获取电影嵌入向量路径
+    public String getMovieEmbPath() {
+        return movieEmbPath;
+    }
+
+    // 获取用户嵌入向量路径
+    public String getUserEmbPath() {
+        return userEmbPath;
+    }
+
+    // 获取提交时间
+    public long getSubmittedAt() {
+        return submittedAt;
+    }
+
+    // 获取当前状态
+    public State getState() {
+        return state;
+    }
+
+    // 获取已加载的电影向量数量
+    public int getMovieEmbCount() {
+        return movieEmbCount;
+    }
+
+    // 获取已加载的用户向量数量
+    public int getUserEmbCount() {
+        return userEmbCount;
+    }
+
+    // 获取结束时间，未结束时为0
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    // 获取状态说明，失败时为失败原因
+    public String getMessage() {
+        return message;
+    }
+
+    // 判断任务是否已结束
+    public boolean isDone() {
+        return state == State.COMPLETED || state == State.FAILED;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    void setMovieEmbCount(int movieEmbCount) {
+        this.movieEmbCount = movieEmbCount;
+    }
+
+    void setUserEmbCount(int userEmbCount) {
+        this.userEmbCount = userEmbCount;
+    }
+
+    void finish(State state, String message) {
+        this.message = message;
+        this.finishedAt = System.currentTimeMillis();
+        this.state = state;
+    }
+}
@@ -0,0 +1,585 @@
+package com.sparrowrecsys.online.datamanager;
+
+import com.sparrowrecsys.online.model.Embedding;
+import com.sparrowrecsys.online.model.EmbeddingQuantizer;
+import com.sparrowrecsys.online.model.HnswIndex;
+import com.sparrowrecsys.online.model.SimilarityKernel;
+import com.sparrowrecsys.online.util.EmbeddingParser;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * EmbeddingTable 类，一个版本的电影和用户嵌入向量，按电影和用户的稠密序号存放
+ * 加载阶段所有向量被复制到一个按行存放的 float 矩阵中，第 i 行是序号为 i 的向量，Embedding 只是矩阵行上的视图。
+ * 写入的向量都会归一化为单位向量并保留原始的模，请求中的余弦相似度只需要计算点积。
+ * 新模型的向量先加载到一个独立的表中，校验通过后由 DataManager 原子地替换为当前版本。
+ * 请求通过 DataManager.acquireEmbeddings 持有表的引用，旧版本在所有持有者释放后才清空。
+ * 生效后仍可以按向量整体替换或删除单个向量（增量更新）：新向量使用独立的数组，不原地修改矩阵，
+ * 读线程看到的始终是某个完整的向量。
+ * 每个版本有自己的电影向量 HNSW 索引，在生效前构建，增量更新同步修改索引。
+ * 启用量化时，生效前把 float 矩阵压缩为字节编码（int8 或乘积量化）并释放矩阵：
+ * 候选打分直接使用编码（ADC），读取单个向量时解码为近似的新向量；量化存储不构建 HNSW 索引。
+ */
+public class EmbeddingTable {
+    // 版本名称
+    private final String version;
+    // 电影向量
+    private final Rows movieRows;
+    // 用户向量
+    private final Rows userRows;
+    // 引用计数，DataManager 作为当前版本持有一个引用，计数归零后不能再被获取
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    // 加载完成的时间
+    private volatile long loadedAt;
+    // 向量维度，生效前由已加载的向量确定，没有向量时为-1
+    private volatile int dim = -1;
+    // 是否已经生效，生效后的修改不再写入矩阵
+    private volatile boolean published;
+    // 电影向量的近似最近邻索引，以电影ID为标签，未构建时为 null
+    private volatile HnswIndex movieIndex;
+
+    public EmbeddingTable(String version, int movieCount, int userCount) {
+        this.version = version;
+        this.movieRows = new Rows(movieCount);
+        this.userRows = new Rows(userCount);
+    }
+
+    // 获取版本名称
+    public String getVersion() {
+        return version;
+    }
+
+    // 获取电影的嵌入向量，不存在时返回 null
+    public Embedding getMovieEmb(Movie movie) {
+        return null == movie ? null : movieRows.get(movie.index);
+    }
+
+    // 获取用户的嵌入向量，不存在时返回 null
+    public Embedding getUserEmb(User user) {
+        return null == user ? null : userRows.get(user.index);
+    }
+
+    /**
+     * 批量计算查询向量与一组电影向量的余弦相似度，没有向量的电影得分为-1
+     * @param query 查询向量，为 null 时所有得分为-1
+     * @param movies 候选电影
+     * @param kernel 相似度计算实现
+     * @param scores 结果数组，长度不小于 movies.size()，scores[i] 对应 movies.get(i)
+     */
+    public void movieSimilarities(Embedding query, List<Movie> movies, SimilarityKernel kernel, float[] scores) {
+        Quantized quantized = movieRows.quantized;
+        if (null != quantized) {
+            quantized.score(query, movies, scores);
+            return;
+        }
+        Embedding[] candidates = new Embedding[movies.size()];
+        for (int i = 0; i < candidates.length; i++) {
+            candidates[i] = getMovieEmb(movies.get(i));
+        }
+        kernel.cosine(query, candidates, candidates.length, scores);
+    }
+
+    // 获取电影向量的近似最近邻索引，未构建时返回 null
+    public HnswIndex getMovieIndex() {
+        return movieIndex;
+    }
+
+    // 设置电影的嵌入向量，emb 为 null 时删除，索引已构建时同步更新索引
+    void setMovieEmb(Movie movie, Embedding emb) {
+        movieRows.set(movie.index, emb, published);
+        updateMovieIndex(movie);
+    }
+
+    /**
+     * 从文本 [start, end) 区间解析电影的嵌入向量，生效前直接写入矩阵的对应行
+     * @return 是否解析成功，lenient 模式下格式不合法时返回 false 且不修改原有向量
+     * @throws NumberFormatException strict 模式下格式不合法
+     */
+    boolean parseMovieEmb(Movie movie, CharSequence text, int start, int end, boolean strict) {
+        if (!movieRows.parse(movie.index, text, start, end, strict, published)) {
+            return false;
+        }
+        updateMovieIndex(movie);
+        return true;
+    }
+
+    // 从二进制向量文件复制第 row 行作为电影的嵌入向量
+    void readMovieEmb(Movie movie, EmbeddingFile file, int row) {
+        movieRows.read(movie.index, file, row, published);
+        updateMovieIndex(movie);
+    }
+
+    // 电影向量变化后同步更新索引
+    private void updateMovieIndex(Movie movie) {
+        HnswIndex index = movieIndex;
+        if (null != index) {
+            Embedding stored = movieRows.get(movie.index);
+            if (null == stored) {
+                index.remove(movie.getMovieId());
+            } else if (stored.getDim() == dim) {
+                index.add(movie.getMovieId(), stored);
+            }
+        }
+    }
+
+    // 设置用户的嵌入向量，emb 为 null 时删除；已生效的表中写入独立的副本，用于按请求加载的用户向量
+    public void setUserEmb(User user, Embedding emb) {
+        userRows.set(user.index, emb, published);
+    }
+
+    /**
+     * 从文本 [start, end) 区间解析用户的嵌入向量，生效前直接写入矩阵的对应行
+     * @return 是否解析成功，lenient 模式下格式不合法时返回 false 且不修改原有向量
+     * @throws NumberFormatException strict 模式下格式不合法
+     */
+    boolean parseUserEmb(User user, CharSequence text, int start, int end, boolean strict) {
+        return userRows.parse(user.index, text, start, end, strict, published);
+    }
+
+    // 从二进制向量文件复制第 row 行作为用户的嵌入向量
+    void readUserEmb(User user, EmbeddingFile file, int row) {
+        userRows.read(user.index, file, row, published);
+    }
+
+    // 获取有嵌入向量的电影数量
+    public int getMovieEmbCount() {
+        return movieRows.countNonNull();
+    }
+
+    // 获取有嵌入向量的用户数量
+    public int getUserEmbCount() {
+        return userRows.countNonNull();
+    }
+
+    // 获取电影数量，即电影向量表的容量
+    public int getMovieCapacity() {
+        return movieRows.capacity;
+    }
+
+    // 获取用户数量，即用户向量表的容量
+    public int getUserCapacity() {
+        return userRows.capacity;
+    }
+
+    // 获取向量存储占用的字节数：float 矩阵，或量化后的编码、模和码本
+    public long getStorageBytes() {
+        return movieRows.storageBytes() + userRows.storageBytes();
+    }
+
+    // 获取量化方式，未量化时返回 none
+    public String getQuantization() {
+        Quantized quantized = movieRows.quantized;
+        return null == quantized ? "none" : quantized.quantizer.getName();
+    }
+
+    // 获取当前持有者数量，包括 DataManager 自身持有的引用
+    public int getRefCount() {
+        return refCount.get();
+    }
+
+    // 获取加载完成的时间戳
+    public long getLoadedAt() {
+        return loadedAt;
+    }
+
+    // 获取向量维度，没有向量时为-1
+    public int getDim() {
+        return dim;
+    }
+
+    void markLoaded() {
+        int movieDim = movieRows.findDim();
+        this.dim = movieDim >= 0 ? movieDim : userRows.findDim();
+        this.loadedAt = System.currentTimeMillis();
+        this.published = true;
+    }
+
+    /**
+     * 把电影和用户向量压缩为量化编码并释放 float 矩阵，只能在生效前调用
+     * 没有向量的一类实体（例如从 Redis 按请求加载的用户向量）保持 float 存储，之后写入的向量不经过量化
+     * @param quantization 量化方式，int8 或 pq
+     * @param pqSubspaceDim 乘积量化每个子空间的维度
+     */
+    void quantize(String quantization, int pqSubspaceDim) {
+        if (dim <= 0) {
+            return;
+        }
+        movieRows.quantize(quantization, dim, pqSubspaceDim);
+        userRows.quantize(quantization, dim, pqSubspaceDim);
+    }
+
+    // 是否使用量化存储
+    public boolean isQuantized() {
+        return null != movieRows.quantized;
+    }
+
+    /**
+     * 为全部电影向量构建 HNSW 索引
+     * @param movies 全部电影
+     * @param m 每个节点的最大邻居数
+     * @param efConstruction 构建时的候选集大小
+     * @param efSearch 查询时的候选集大小
+     */
+    void buildMovieIndex(Collection<Movie> movies, int m, int efConstruction, int efSearch) {
+        HnswIndex index = new HnswIndex(m, efConstruction, efSearch, getMovieEmbCount());
+        for (Movie movie : movies) {
+            Embedding emb = getMovieEmb(movie);
+            if (null != emb && emb.getDim() == dim) {
+                index.add(movie.getMovieId(), emb);
+            }
+        }
+        this.movieIndex = index;
+    }
+
+    /**
+     * 获取一个引用，表已被释放时返回 false
+     * @return 是否获取成功
+     */
+    boolean retain() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 释放一个引用，最后一个引用释放后清空向量，之后的读取都返回 null
+     */
+    public void release() {
+        if (refCount.decrementAndGet() == 0) {
+            if (movieRows.capacity + userRows.capacity > 0) {
+                movieRows.clear();
+                userRows.clear();
+                movieIndex = null;
+                System.out.println("Embedding version " + version + " released.");
+            }
+        }
+    }
+
+    /**
+     * 校验向量维度是否一致以及电影向量的覆盖率
+     * @param minMovieCoverage 有向量的电影占全部电影的最小比例
+     * @throws IllegalStateException 校验失败
+     */
+    void validate(double minMovieCoverage) {
+        int dim = -1;
+        for (Rows rows : Arrays.asList(movieRows, userRows)) {
+            for (int i = 0; i < rows.capacity; i++) {
+                Embedding emb = rows.get(i);
+                if (null == emb) {
+                    continue;
+                }
+                int size = emb.getDim();
+                if (dim < 0) {
+                    dim = size;
+                } else if (size != dim) {
+                    throw new IllegalStateException("Inconsistent embedding dimension in version " + version
+                            + ": " + size + " vs " + dim);
+                }
+            }
+        }
+        if (dim == 0) {
+            throw new IllegalStateException("Empty embedding vectors in version " + version);
+        }
+        int movieCount = movieRows.capacity;
+        int movieEmbCount = getMovieEmbCount();
+        if (movieCount > 0 && movieEmbCount < minMovieCoverage * movieCount) {
+            throw new IllegalStateException(String.format("Movie embedding coverage %.2f%% of version %s is below %.2f%%",
+                    100.0 * movieEmbCount / movieCount, version, 100.0 * minMovieCoverage));
+        }
+    }
+
+    /**
+     * 一类实体（电影或用户）的向量：按序号存放的视图，以及视图背后按行存放的矩阵；量化后只保留编码
+     */
+    private static class Rows {
+        // 容量，即实体数量
+        final int capacity;
+        // 按序号存放的向量视图，量化后为 null
+        private volatile AtomicReferenceArray<Embedding> slots;
+        // 按行存放的向量矩阵，在第一个向量写入时按其维度分配
+        private float[] matrix;
+        private int matrixDim = -1;
+        // 量化后的编码，未量化时为 null
+        volatile Quantized quantized;
+
+        Rows(int count) {
+            this.capacity = count;
+            this.slots = new AtomicReferenceArray<>(count);
+        }
+
+        Embedding get(int index) {
+            if (index >= capacity) {
+                return null;
+            }
+            Quantized q = quantized;
+            return null != q ? q.decode(index) : slots.get(index);
+        }
+
+        /**
+         * 写入一个向量
+         * @param index 序号
+         * @param emb 向量，为 null 时删除
+         * @param detached 为 true 时复制为独立的向量，不写入矩阵，用于已生效的表
+         */
+        void set(int index, Embedding emb, boolean detached) {
+            if (index >= capacity) {
+                return;
+            }
+            Quantized q = quantized;
+            if (null != q) {
+                q.set(index, null == emb ? null : normalizedCopy(emb));
+                return;
+            }
+            if (null == emb) {
+                slots.set(index, null);
+                return;
+            }
+            if (detached) {
+                slots.set(index, normalizedCopy(emb));
+                return;
+            }
+            if (null == matrix) {
+                matrixDim = emb.getDim();
+                matrix = new float[capacity * matrixDim];
+            }
+            if (emb.getDim() != matrixDim) {
+                // 维度不一致的向量单独保存，由校验步骤拒绝
+                slots.set(index, normalizedCopy(emb));
+                return;
+            }
+            int offset = index * matrixDim;
+            emb.copyTo(matrix, offset);
+            slots.set(index, normalizedView(emb, matrix, offset, matrixDim));
+        }
+
+        /**
+         * 解析并写入一个向量，维度与矩阵相同的向量直接解析到矩阵行中，不产生中间数组
+         * @return 是否解析成功，lenient 模式下格式不合法时返回 false
+         */
+        boolean parse(int index, CharSequence text, int start, int end, boolean strict, boolean detached) {
+            if (index >= capacity) {
+                return true;
+            }
+            // 只有空行直接解析到矩阵中，解析失败时不会破坏已有的向量
+            if (!detached && null == quantized && null != matrix && null == slots.get(index)) {
+                int offset = index * matrixDim;
+                int dim = EmbeddingParser.parse(text, start, end, strict, matrix, offset, matrixDim);
+                if (dim < 0) {
+                    return false;
+                }
+                if (dim == matrixDim) {
+                    Embedding view = new Embedding(matrix, offset, matrixDim);
+                    view.normalize();
+                    slots.set(index, view);
+                    return true;
+                }
+            }
+            Embedding emb = EmbeddingParser.parse(text, start, end, strict);
+            if (null == emb) {
+                return false;
+            }
+            set(index, emb, detached);
+            return true;
+        }
+
+        // 从二进制向量文件复制一个向量，维度与矩阵相同时直接复制到矩阵行中
+        void read(int index, EmbeddingFile file, int row, boolean detached) {
+            if (index >= capacity) {
+                return;
+            }
+            int dim = file.getDim();
+            if (!detached && null == quantized && (null == matrix || matrixDim == dim)) {
+                if (null == matrix) {
+                    matrixDim = dim;
+                    matrix = new float[capacity * matrixDim];
+                }
+                int offset = index * matrixDim;
+                file.read(row, matrix, offset);
+                Embedding view = new Embedding(matrix, offset, matrixDim);
+                view.normalize();
+                slots.set(index, view);
+                return;
+            }
+            float[] vector = new float[dim];
+            file.read(row, vector, 0);
+            set(index, new Embedding(vector), detached);
+        }
+
+        // 复制为独立的归一化向量
+        private static Embedding normalizedCopy(Embedding emb) {
+            float[] vector = emb.toArray();
+            return normalizedView(emb, vector, 0, vector.length);
+        }
+
+        // 创建已复制到 data 中的向量的归一化视图，已经归一化的向量沿用原始的模
+        private static Embedding normalizedView(Embedding emb, float[] data, int offset, int dim) {
+            if (emb.isNormalized()) {
+                return new Embedding(data, offset, dim, emb.getNorm());
+            }
+            Embedding view = new Embedding(data, offset, dim);
+            view.normalize();
+            return view;
+        }
+
+        // 用当前的全部向量训练量化器并编码，之后释放视图和矩阵；没有向量时无法训练，保持 float 存储
+        void quantize(String quantization, int dim, int pqSubspaceDim) {
+            Embedding[] vectors = new Embedding[capacity];
+            int count = 0;
+            for (int i = 0; i < capacity; i++) {
+                vectors[i] = slots.get(i);
+                if (null != vectors[i]) {
+                    count++;
+                }
+            }
+            if (count == 0) {
+                return;
+            }
+            EmbeddingQuantizer quantizer = EmbeddingQuantizer.train(quantization, vectors, capacity, dim, pqSubspaceDim);
+            Quantized q = new Quantized(quantizer, capacity);
+            for (int i = 0; i < capacity; i++) {
+                q.set(i, vectors[i]);
+            }
+            this.quantized = q;
+            this.slots = null;
+            this.matrix = null;
+        }
+
+        int countNonNull() {
+            Quantized q = quantized;
+            if (null != q) {
+                return q.countNonNull();
+            }
+            int count = 0;
+            for (int i = 0; i < capacity; i++) {
+                if (null != slots.get(i)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        int findDim() {
+            for (int i = 0; i < capacity; i++) {
+                Embedding emb = get(i);
+                if (null != emb) {
+                    return emb.getDim();
+                }
+            }
+            return -1;
+        }
+
+        long storageBytes() {
+            Quantized q = quantized;
+            if (null != q) {
+                return q.bytes();
+            }
+            return null == matrix ? 0 : 4L * matrix.length;
+        }
+
+        void clear() {
+            Quantized q = quantized;
+            if (null != q) {
+                for (int i = 0; i < capacity; i++) {
+                    q.set(i, null);
+                }
+                return;
+            }
+            for (int i = 0; i < capacity; i++) {
+                slots.set(i, null);
+            }
+            matrix = null;
+        }
+    }
+
+    /**
+     * 量化后的一类实体的向量：按序号存放的定长编码和原始的模
+     * 增量更新原地改写编码，并发读取可能短暂看到新旧混合的编码，只影响该向量的一次得分
+     */
+    private static class Quantized {
+        final EmbeddingQuantizer quantizer;
+        final int codeSize;
+        // 按序号存放的编码
+        final byte[] codes;
+        // 原始向量的模，小于 0 表示没有向量
+        final float[] norms;
+
+        Quantized(EmbeddingQuantizer quantizer, int capacity) {
+            this.quantizer = quantizer;
+            this.codeSize = quantizer.getCodeSize();
+            this.codes = new byte[capacity * codeSize];
+            this.norms = new float[capacity];
+            Arrays.fill(norms, -1);
+        }
+
+        // 写入已归一化的向量，为 null 时删除
+        void set(int index, Embedding emb) {
+            if (null == emb) {
+                norms[index] = -1;
+                return;
+            }
+            if (emb.getDim() != quantizer.getDim()) {
+                throw new IllegalArgumentException("Embedding dimension " + emb.getDim()
+                        + " does not match quantized dimension " + quantizer.getDim());
+            }
+            quantizer.encode(emb, codes, index * codeSize);
+            norms[index] = emb.getNorm();
+        }
+
+        // 解码为近似的单位向量，没有向量时返回 null
+        Embedding decode(int index) {
+            float norm = norms[index];
+            if (norm < 0) {
+                return null;
+            }
+            float[] vector = new float[quantizer.getDim()];
+            quantizer.decode(codes, index * codeSize, vector, 0);
+            return new Embedding(vector, 0, vector.length, norm);
+        }
+
+        // 用编码计算查询向量与一组电影的近似余弦相似度
+        void score(Embedding query, List<Movie> movies, float[] scores) {
+            int count = movies.size();
+            if (null == query || query.getDim() != quantizer.getDim()) {
+                Arrays.fill(scores, 0, count, -1);
+                return;
+            }
+            int[] rows = new int[count];
+            for (int i = 0; i < count; i++) {
+                Movie movie = movies.get(i);
+                int index = null == movie ? -1 : movie.index;
+                rows[i] = index >= 0 && index < norms.length && norms[index] >= 0 ? index : -1;
+            }
+            if (!query.isNormalized()) {
+                // 查询向量未归一化时先复制并归一化
+                Embedding copy = new Embedding(query.toArray());
+                copy.normalize();
+                query = copy;
+            }
+            quantizer.score(query, codes, rows, count, scores);
+        }
+
+        int countNonNull() {
+            int count = 0;
+            for (float norm : norms) {
+                if (norm >= 0) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        long bytes() {
+            return codes.length + 4L * norms.length + quantizer.getCodebookBytes();
+        }
+    }
+}
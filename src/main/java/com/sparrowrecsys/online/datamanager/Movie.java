@@ -5,7 +5,6 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.sparrowrecsys.online.model.Embedding;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -23,12 +22,11 @@ public class Movie {
     int ratingNumber;
     // 平均评分
     double averageRating;
-
-    // 电影的嵌入向量
+    // 电影在DataManager中的稠密序号
     @JsonIgnore
-    Embedding emb;
+    int index;
 
-    // 所有评分列表
+    // 所有评分列表，是RatingStore上的只读视图
     @JsonIgnore
     List<Rating> ratings;
 
@@ -39,18 +37,17 @@ public class Movie {
     // 前10个评分的大小
     final int TOP_RATING_SIZE = 10;
 
-    // 使用自定义序列化器序列化评分列表
-    @JsonSerialize(using = RatingListSerializer.class)
-    List<Rating> topRatings;
+    // 评分最高的前10个评分，序列化为与评分列表相同的JSON数组
+    @JsonSerialize(using = TopRatings.Serializer.class)
+    TopRatings topRatings;
 
     // 构造函数，初始化默认值
     public Movie() {
         ratingNumber = 0;
         averageRating = 0;
         this.genres = new ArrayList<>();
-        this.ratings = new ArrayList<>();
-        this.topRatings = new LinkedList<>();
-        this.emb = null;
+        this.ratings = RatingList.EMPTY;
+        this.topRatings = new TopRatings(TOP_RATING_SIZE);
         this.movieFeatures = null;
     }
 
@@ -104,31 +101,21 @@ public class Movie {
         return ratings;
     }
 
-    // 添加评分并更新平均评分和评分数量
+    // 添加评分并更新平均评分和评分数量，评分本身由DataManager写入RatingStore
     public void addRating(Rating rating) {
-        averageRating = (averageRating * ratingNumber + rating.getScore()) / (ratingNumber+1);
+        addRating(rating.getUserId(), rating.getScore(), rating.getTimestamp());
+    }
+
+    // 添加评分并更新平均评分和评分数量，不需要构造Rating对象
+    public void addRating(int userId, float score, long timestamp) {
+        averageRating = (averageRating * ratingNumber + score) / (ratingNumber+1);
         ratingNumber++;
-        this.ratings.add(rating);
-        addTopRating(rating);
+        this.topRatings.offer(movieId, userId, score, timestamp);
     }
 
     // 添加评分到前10个评分列表
     public void addTopRating(Rating rating){
-        if (this.topRatings.isEmpty()){
-            this.topRatings.add(rating);
-        }else{
-            int index = 0;
-            for (Rating topRating : this.topRatings){
-                if (topRating.getScore() >= rating.getScore()){
-                    break;
-                }
-                index ++;
-            }
-            topRatings.add(index, rating);
-            if (topRatings.size() > TOP_RATING_SIZE) {
-                topRatings.remove(0);
-            }
-        }
+        this.topRatings.offer(rating.getMovieId(), rating.getUserId(), rating.getScore(), rating.getTimestamp());
     }
 
     // 获取IMDb ID
@@ -161,14 +148,25 @@ public class Movie {
         return averageRating;
     }
 
-    // 获取嵌入向量
+    // 获取当前模型版本中的嵌入向量，同一请求内需要一致的版本时使用DataManager.acquireEmbeddings
+    @JsonIgnore
     public Embedding getEmb() {
-        return emb;
+        EmbeddingTable embeddings = DataManager.getInstance().acquireEmbeddings();
+        try {
+            return embeddings.getMovieEmb(this);
+        } finally {
+            embeddings.release();
+        }
     }
 
-    // 设置嵌入向量
+    // 设置当前模型版本中的嵌入向量
     public void setEmb(Embedding emb) {
-        this.emb = emb;
+        EmbeddingTable embeddings = DataManager.getInstance().acquireEmbeddings();
+        try {
+            embeddings.setMovieEmb(this, emb);
+        } finally {
+            embeddings.release();
+        }
     }
 
     // 获取电影特征映射
@@ -0,0 +1,317 @@
+package com.sparrowrecsys.online.datamanager;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * RatingCsvLoader 类，使用内存映射和 fork-join 线程池并行解析 ratings.csv
+ * 文件按行边界切分成若干字节区间，每个区间直接从字节解析整数和浮点数，结果按文件顺序返回
+ */
+class RatingCsvLoader {
+    // 每个分块的目标字节数，保证单次映射远小于 2GB 的限制
+    static final int TARGET_CHUNK_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * 单个分块的解析结果，按列存储
+     */
+    static class RatingChunk {
+        int count;
+        int[] userIds;
+        int[] movieIds;
+        float[] scores;
+        long[] timestamps;
+
+        RatingChunk(int capacity) {
+            this.count = 0;
+            this.userIds = new int[capacity];
+            this.movieIds = new int[capacity];
+            this.scores = new float[capacity];
+            this.timestamps = new long[capacity];
+        }
+
+        // 追加一行评分，容量不足时扩容
+        void add(int userId, int movieId, float score, long timestamp) {
+            if (count == userIds.length) {
+                int newCapacity = Math.max(16, count * 2);
+                userIds = Arrays.copyOf(userIds, newCapacity);
+                movieIds = Arrays.copyOf(movieIds, newCapacity);
+                scores = Arrays.copyOf(scores, newCapacity);
+                timestamps = Arrays.copyOf(timestamps, newCapacity);
+            }
+            userIds[count] = userId;
+            movieIds[count] = movieId;
+            scores[count] = score;
+            timestamps[count] = timestamp;
+            count++;
+        }
+    }
+
+    /**
+     * 并行加载评分文件
+     * @param ratingDataPath 评分文件路径
+     * @param parallelism 并行度
+     * @return 按文件顺序排列的分块结果
+     * @throws IOException 如果读取文件失败
+     */
+    static List<RatingChunk> load(String ratingDataPath, int parallelism) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(ratingDataPath, "r");
+             FileChannel channel = file.getChannel()) {
+            long fileSize = channel.size();
+            long[] boundaries = splitOnLineBoundaries(channel, fileSize);
+
+            List<ParseTask> tasks = new ArrayList<>();
+            for (int i = 0; i + 1 < boundaries.length; i++) {
+                tasks.add(new ParseTask(channel, boundaries[i], boundaries[i + 1]));
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+            try {
+                return pool.submit(() -> {
+                    ParseTask.invokeAll(tasks);
+                    List<RatingChunk> chunks = new ArrayList<>(tasks.size());
+                    for (ParseTask task : tasks) {
+                        chunks.add(task.join());
+                    }
+                    return chunks;
+                }).get();
+            } catch (Exception e) {
+                throw new IOException("Parallel rating loading failed: " + e.getMessage(), e);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    // 跳过表头后按目标大小切分文件，每个边界都向后对齐到下一行的开头
+    private static long[] splitOnLineBoundaries(FileChannel channel, long fileSize) throws IOException {
+        List<Long> boundaries = new ArrayList<>();
+        long start = nextLineStart(channel, 0, fileSize);
+        boundaries.add(start);
+        long position = start;
+        while (position < fileSize) {
+            long next = position + TARGET_CHUNK_BYTES;
+            if (next >= fileSize) {
+                position = fileSize;
+            } else {
+                position = nextLineStart(channel, next, fileSize);
+            }
+            boundaries.add(position);
+        }
+        long[] result = new long[boundaries.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = boundaries.get(i);
+        }
+        return result;
+    }
+
+    // 返回 position 之后（含）第一个换行符的下一个字节位置
+    private static long nextLineStart(FileChannel channel, long position, long fileSize) throws IOException {
+        final int probeSize = 4096;
+        while (position < fileSize) {
+            int length = (int) Math.min(probeSize, fileSize - position);
+            MappedByteBuffer probe = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            for (int i = 0; i < length; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += length;
+        }
+        return fileSize;
+    }
+
+    /**
+     * 解析一个字节区间的任务
+     */
+    static class ParseTask extends RecursiveTask<RatingChunk> {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+
+        ParseTask(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected RatingChunk compute() {
+            int length = (int) (end - start);
+            // 评分行平均约 25 字节，按此估算初始容量
+            RatingChunk chunk = new RatingChunk(Math.max(16, length / 24));
+            if (length == 0) {
+                return chunk;
+            }
+            MappedByteBuffer buffer;
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to map rating file region [" + start + ", " + end + ")", e);
+            }
+            parse(buffer, length, chunk);
+            return chunk;
+        }
+    }
+
+    // 逐行解析 userId,movieId,rating,timestamp 格式的数据，字段数不为 4 的行被跳过
+    static void parse(MappedByteBuffer buffer, int length, RatingChunk chunk) {
+        int pos = 0;
+        while (pos < length) {
+            int lineEnd = pos;
+            while (lineEnd < length && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            int contentEnd = lineEnd;
+            if (contentEnd > pos && buffer.get(contentEnd - 1) == '\r') {
+                contentEnd--;
+            }
+            parseLine(buffer, pos, contentEnd, chunk);
+            pos = lineEnd + 1;
+        }
+    }
+
+    private static void parseLine(MappedByteBuffer buffer, int start, int end, RatingChunk chunk) {
+        int c1 = indexOf(buffer, start, end);
+        if (c1 < 0) {
+            return;
+        }
+        int c2 = indexOf(buffer, c1 + 1, end);
+        if (c2 < 0) {
+            return;
+        }
+        int c3 = indexOf(buffer, c2 + 1, end);
+        // 与 split(",") 一致：末尾字段为空或多于 4 个字段的行视为无效
+        if (c3 < 0 || c3 + 1 == end || indexOf(buffer, c3 + 1, end) >= 0) {
+            return;
+        }
+        int userId = parseInt(buffer, start, c1);
+        int movieId = parseInt(buffer, c1 + 1, c2);
+        float score = parseFloat(buffer, c2 + 1, c3);
+        long timestamp = parseLong(buffer, c3 + 1, end);
+        chunk.add(userId, movieId, score, timestamp);
+    }
+
+    private static int indexOf(MappedByteBuffer buffer, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buffer.get(i) == ',') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // 从字节直接解析 int，格式不合法或超出 int 范围时抛出 NumberFormatException，与 Integer.parseInt 行为一致
+    static int parseInt(MappedByteBuffer buffer, int start, int end) {
+        long value = parseLong(buffer, start, end);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException(asString(buffer, start, end));
+        }
+        return (int) value;
+    }
+
+    // 从字节直接解析十进制整数，格式不合法或超出 long 范围时抛出 NumberFormatException，与 Long.parseLong 行为一致
+    static long parseLong(MappedByteBuffer buffer, int start, int end) {
+        if (start >= end) {
+            throw new NumberFormatException("Empty number field");
+        }
+        boolean negative = false;
+        int i = start;
+        byte first = buffer.get(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+            if (i == end) {
+                throw new NumberFormatException(asString(buffer, start, end));
+            }
+        }
+        // 与 Long.parseLong 相同，按负数累加，Long.MIN_VALUE 也能表示
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplyLimit = limit / 10;
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = buffer.get(i) - '0';
+            if (digit < 0 || digit > 9 || value < multiplyLimit) {
+                throw new NumberFormatException(asString(buffer, start, end));
+            }
+            value *= 10;
+            if (value < limit + digit) {
+                throw new NumberFormatException(asString(buffer, start, end));
+            }
+            value -= digit;
+        }
+        return negative ? value : -value;
+    }
+
+    // 从字节直接解析形如 3.5 的评分，结果与 Float.parseFloat 相同，遇到指数、超过 15 位有效数字等少见格式时退回 Float.parseFloat
+    static float parseFloat(MappedByteBuffer buffer, int start, int end) {
+        if (start >= end) {
+            throw new NumberFormatException("Empty number field");
+        }
+        int i = start;
+        boolean negative = false;
+        byte first = buffer.get(i);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int fractionDigits = 0;
+        int totalDigits = 0;
+        boolean seenDot = false;
+        for (; i < end; i++) {
+            byte b = buffer.get(i);
+            if (b == '.' && !seenDot) {
+                seenDot = true;
+                continue;
+            }
+            int digit = b - '0';
+            // 不超过 15 位时尾数能用 double 精确表示
+            if (digit < 0 || digit > 9 || totalDigits >= 15) {
+                return Float.parseFloat(asString(buffer, start, end));
+            }
+            mantissa = mantissa * 10 + digit;
+            totalDigits++;
+            if (seenDot) {
+                fractionDigits++;
+            }
+        }
+        if (totalDigits == 0) {
+            throw new NumberFormatException(asString(buffer, start, end));
+        }
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        if (isFloatMidpoint(value)) {
+            // 正确舍入的 double 恰好落在两个 float 中间时，再舍入为 float 可能与直接舍入不同
+            return Float.parseFloat(asString(buffer, start, end));
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    // double 的低 29 位是否恰好是 float 舍入的中点
+    private static boolean isFloatMidpoint(double value) {
+        return (Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) == 0x10000000L;
+    }
+
+    private static final double[] POWERS_OF_TEN = new double[16];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private static String asString(MappedByteBuffer buffer, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = start; i < end; i++) {
+            bytes[i - start] = buffer.get(i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,55 @@
+package com.sparrowrecsys.online.datamanager;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * RatingList 类，RatingStore 上的只读评分视图
+ * 视图本身只保存区间，访问元素时才按需生成 Rating 对象
+ */
+public class RatingList extends AbstractList<Rating> implements RandomAccess {
+    // 空视图
+    static final RatingList EMPTY = new RatingList(RatingStore.empty(), null, 0, 0);
+
+    final RatingStore store;
+    // 行号间接索引，为 null 时 [from, to) 直接是评分行号
+    final int[] rows;
+    final int from;
+    final int to;
+
+    RatingList(RatingStore store, int[] rows, int from, int to) {
+        this.store = store;
+        this.rows = rows;
+        this.from = from;
+        this.to = to;
+    }
+
+    // 获取第 i 个元素在评分存储中的行号
+    public int rowAt(int index) {
+        if (index < 0 || index >= to - from) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return null == rows ? from + index : rows[from + index];
+    }
+
+    // 获取底层的评分存储
+    public RatingStore getStore() {
+        return store;
+    }
+
+    @Override
+    public Rating get(int index) {
+        int row = rowAt(index);
+        Rating rating = new Rating();
+        rating.userId = store.userIds[row];
+        rating.movieId = store.movieIds[row];
+        rating.score = store.scores[row];
+        rating.timestamp = store.timestamps[row];
+        return rating;
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+}
@@ -8,7 +8,7 @@ import java.io.IOException;
 import java.util.List;
 
 /**
- * RatingListSerializer 类，用于序列化 Rating 对象列表
+ * RatingListSerializer 类，用于序列化 Rating 对象列表和 RatingStore 上的评分视图
  */
 public class RatingListSerializer extends JsonSerializer<List<Rating>> {
 
@@ -23,6 +23,24 @@ public class RatingListSerializer extends JsonSerializer<List<Rating>> {
     public void serialize(List<Rating> ratingList, JsonGenerator jsonGenerator,
                           SerializerProvider provider) throws IOException {
         jsonGenerator.writeStartArray(); // 开始写 JSON 数组
+        if (ratingList instanceof RatingList) {
+            // 评分视图直接从列存储读取字段，不生成中间的 Rating 对象
+            RatingList view = (RatingList) ratingList;
+            RatingStore store = view.getStore();
+            for (int i = 0; i < view.size(); i++) {
+                int row = view.rowAt(i);
+                jsonGenerator.writeStartObject();
+                jsonGenerator.writeObjectFieldStart("rating");
+                jsonGenerator.writeNumberField("movieId", store.getMovieId(row));
+                jsonGenerator.writeNumberField("userId", store.getUserId(row));
+                jsonGenerator.writeNumberField("score", store.getScore(row));
+                jsonGenerator.writeNumberField("timestamp", store.getTimestamp(row));
+                jsonGenerator.writeEndObject();
+                jsonGenerator.writeEndObject();
+            }
+            jsonGenerator.writeEndArray();
+            return;
+        }
         for (Rating rating : ratingList) {
             jsonGenerator.writeStartObject(); // 开始写 JSON 对象
             jsonGenerator.writeObjectField("rating", rating); // 写入 rating 字段
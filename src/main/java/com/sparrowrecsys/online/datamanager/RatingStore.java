@@ -0,0 +1,189 @@
+package com.sparrowrecsys.online.datamanager;
+
+import java.util.Arrays;
+
+/**
+ * RatingStore 类，按列存储全部评分数据
+ * 评分行按用户分组排列（组内保持原始顺序），userOffsets 是按用户稠密序号的 CSR 偏移；
+ * movieRows 按电影分组记录评分行号（组内保持原始顺序），movieOffsets 是按电影稠密序号的 CSR 偏移
+ */
+public class RatingStore {
+    // 评分总数
+    final int size;
+    // 评分列
+    final int[] userIds;
+    final int[] movieIds;
+    final float[] scores;
+    final long[] timestamps;
+    // 按用户稠密序号的偏移，第 i 个用户的评分行为 [userOffsets[i], userOffsets[i+1])
+    final int[] userOffsets;
+    // 按电影稠密序号的偏移，第 i 部电影的评分行号为 movieRows[movieOffsets[i] .. movieOffsets[i+1])
+    final int[] movieOffsets;
+    final int[] movieRows;
+
+    RatingStore(int size, int[] userIds, int[] movieIds, float[] scores, long[] timestamps,
+                int[] userOffsets, int[] movieOffsets, int[] movieRows) {
+        this.size = size;
+        this.userIds = userIds;
+        this.movieIds = movieIds;
+        this.scores = scores;
+        this.timestamps = timestamps;
+        this.userOffsets = userOffsets;
+        this.movieOffsets = movieOffsets;
+        this.movieRows = movieRows;
+    }
+
+    // 空的评分存储
+    static RatingStore empty() {
+        return new RatingStore(0, new int[0], new int[0], new float[0], new long[0], new int[1], new int[1], new int[0]);
+    }
+
+    // 获取评分总数
+    public int size() {
+        return size;
+    }
+
+    // 获取某一行评分的用户ID
+    public int getUserId(int row) {
+        return userIds[row];
+    }
+
+    // 获取某一行评分的电影ID
+    public int getMovieId(int row) {
+        return movieIds[row];
+    }
+
+    // 获取某一行评分的分数
+    public float getScore(int row) {
+        return scores[row];
+    }
+
+    // 获取某一行评分的时间戳
+    public long getTimestamp(int row) {
+        return timestamps[row];
+    }
+
+    // 获取指定稠密序号用户的评分视图
+    RatingList userRatings(int userIndex) {
+        if (userIndex < 0 || userIndex + 1 >= userOffsets.length) {
+            return RatingList.EMPTY;
+        }
+        return new RatingList(this, null, userOffsets[userIndex], userOffsets[userIndex + 1]);
+    }
+
+    // 获取指定稠密序号电影的评分视图
+    RatingList movieRatings(int movieIndex) {
+        if (movieIndex < 0 || movieIndex + 1 >= movieOffsets.length) {
+            return RatingList.EMPTY;
+        }
+        return new RatingList(this, movieRows, movieOffsets[movieIndex], movieOffsets[movieIndex + 1]);
+    }
+
+    /**
+     * RatingStore 的构建器，按原始顺序追加评分，build 时用计数排序生成 CSR 索引
+     */
+    static class Builder {
+        private int size = 0;
+        private int[] userIndexes;
+        private int[] movieIndexes;
+        private int[] userIds;
+        private int[] movieIds;
+        private float[] scores;
+        private long[] timestamps;
+
+        Builder(int initialCapacity) {
+            int capacity = Math.max(16, initialCapacity);
+            this.userIndexes = new int[capacity];
+            this.movieIndexes = new int[capacity];
+            this.userIds = new int[capacity];
+            this.movieIds = new int[capacity];
+            this.scores = new float[capacity];
+            this.timestamps = new long[capacity];
+        }
+
+        /**
+         * 追加一条评分
+         * @param userIndex 用户的稠密序号
+         * @param movieIndex 电影的稠密序号，电影不存在时为 -1
+         */
+        void append(int userIndex, int movieIndex, int userId, int movieId, float score, long timestamp) {
+            if (size == userIds.length) {
+                grow(size * 2);
+            }
+            userIndexes[size] = userIndex;
+            movieIndexes[size] = movieIndex;
+            userIds[size] = userId;
+            movieIds[size] = movieId;
+            scores[size] = score;
+            timestamps[size] = timestamp;
+            size++;
+        }
+
+        // 预留容量，避免逐次扩容
+        void ensureCapacity(int capacity) {
+            if (capacity > userIds.length) {
+                grow(Math.max(capacity, userIds.length + (userIds.length >> 1)));
+            }
+        }
+
+        private void grow(int capacity) {
+            userIndexes = Arrays.copyOf(userIndexes, capacity);
+            movieIndexes = Arrays.copyOf(movieIndexes, capacity);
+            userIds = Arrays.copyOf(userIds, capacity);
+            movieIds = Arrays.copyOf(movieIds, capacity);
+            scores = Arrays.copyOf(scores, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+        }
+
+        /**
+         * 构建评分存储
+         * @param userCount 用户数量，即用户稠密序号的上界
+         * @param movieCount 电影数量，即电影稠密序号的上界
+         * @return 评分存储
+         */
+        RatingStore build(int userCount, int movieCount) {
+            // 按用户计数排序，稳定排序保证每个用户内部保持原始顺序
+            int[] userOffsets = new int[userCount + 1];
+            for (int i = 0; i < size; i++) {
+                userOffsets[userIndexes[i] + 1]++;
+            }
+            for (int u = 0; u < userCount; u++) {
+                userOffsets[u + 1] += userOffsets[u];
+            }
+            int[] cursor = Arrays.copyOf(userOffsets, userCount);
+            int[] newRowOf = new int[size];
+            int[] sortedUserIds = new int[size];
+            int[] sortedMovieIds = new int[size];
+            float[] sortedScores = new float[size];
+            long[] sortedTimestamps = new long[size];
+            for (int i = 0; i < size; i++) {
+                int row = cursor[userIndexes[i]]++;
+                newRowOf[i] = row;
+                sortedUserIds[row] = userIds[i];
+                sortedMovieIds[row] = movieIds[i];
+                sortedScores[row] = scores[i];
+                sortedTimestamps[row] = timestamps[i];
+            }
+
+            // 按电影计数排序，记录排序后的行号
+            int[] movieOffsets = new int[movieCount + 1];
+            for (int i = 0; i < size; i++) {
+                if (movieIndexes[i] >= 0) {
+                    movieOffsets[movieIndexes[i] + 1]++;
+                }
+            }
+            for (int m = 0; m < movieCount; m++) {
+                movieOffsets[m + 1] += movieOffsets[m];
+            }
+            int[] movieRows = new int[movieOffsets[movieCount]];
+            cursor = Arrays.copyOf(movieOffsets, movieCount);
+            for (int i = 0; i < size; i++) {
+                if (movieIndexes[i] >= 0) {
+                    movieRows[cursor[movieIndexes[i]]++] = newRowOf[i];
+                }
+            }
+            return new RatingStore(size, sortedUserIds, sortedMovieIds, sortedScores, sortedTimestamps,
+                    userOffsets, movieOffsets, movieRows);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.sparrowrecsys.online.datamanager;
+
+import com.sparrowrecsys.online.util.Config;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * RedisBulkLoader 类，用 SCAN 游标代替会阻塞 Redis 的 KEYS 命令批量加载数据
+ * 扫描到的键按批次分发给多个并行连接，字符串用 MGET、哈希用流水线 HGETALL 读取，每批只需要一次往返
+ */
+class RedisBulkLoader {
+
+    /**
+     * 一批键的读取方式
+     * @param <T> 值类型
+     */
+    private interface BatchFetcher<T> {
+        // 读取一批键的值，返回的列表与键一一对应，不存在的键对应 null
+        List<T> fetch(Jedis jedis, List<String> keys);
+    }
+
+    /**
+     * 加载所有匹配的字符串键
+     * @param pattern 键的匹配模式
+     * @param consumer 在调用线程上依次接收键和值
+     * @return 加载的键数量
+     */
+    static int loadStrings(String pattern, BiConsumer<String, String> consumer) throws Exception {
+        return load(pattern, (jedis, keys) -> jedis.mget(keys.toArray(new String[0])), consumer);
+    }
+
+    /**
+     * 加载所有匹配的哈希键
+     * @param pattern 键的匹配模式
+     * @param consumer 在调用线程上依次接收键和哈希内容
+     * @return 加载的键数量
+     */
+    static int loadHashes(String pattern, BiConsumer<String, Map<String, String>> consumer) throws Exception {
+        return load(pattern, (jedis, keys) -> {
+            Pipeline pipeline = jedis.pipelined();
+            List<Response<Map<String, String>>> responses = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                responses.add(pipeline.hgetAll(key));
+            }
+            pipeline.sync();
+            List<Map<String, String>> values = new ArrayList<>(keys.size());
+            for (Response<Map<String, String>> response : responses) {
+                values.add(response.get());
+            }
+            return values;
+        }, consumer);
+    }
+
+    private static <T> int load(String pattern, BatchFetcher<T> fetcher, BiConsumer<String, T> consumer) throws Exception {
+        long startTime = System.nanoTime();
+        int batchSize = Config.REDIS_SCAN_BATCH_SIZE;
+        JedisPool pool = RedisClient.getPool();
+        AtomicInteger roundTrips = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Config.REDIS_LOAD_PARALLELISM));
+        List<List<String>> batches = new ArrayList<>();
+        List<Future<List<T>>> futures = new ArrayList<>();
+        try {
+            // SCAN 可能返回重复的键，这里去重
+            HashSet<String> seenKeys = new HashSet<>();
+            List<String> pending = new ArrayList<>(batchSize);
+            try (Jedis scanner = pool.getResource()) {
+                ScanParams params = new ScanParams().match(pattern).count(batchSize);
+                String cursor = ScanParams.SCAN_POINTER_START;
+                do {
+                    ScanResult<String> result = scanner.scan(cursor, params);
+                    roundTrips.incrementAndGet();
+                    for (String key : result.getResult()) {
+                        if (seenKeys.add(key)) {
+                            pending.add(key);
+                        }
+                    }
+                    if (pending.size() >= batchSize) {
+                        submit(executor, pool, fetcher, pending, batches, futures, roundTrips);
+                        pending = new ArrayList<>(batchSize);
+                    }
+                    cursor = result.getCursor();
+                } while (!ScanParams.SCAN_POINTER_START.equals(cursor));
+            }
+            if (!pending.isEmpty()) {
+                submit(executor, pool, fetcher, pending, batches, futures, roundTrips);
+            }
+
+            int count = 0;
+            for (int b = 0; b < futures.size(); b++) {
+                List<String> keys = batches.get(b);
+                List<T> values = futures.get(b).get();
+                for (int i = 0; i < keys.size(); i++) {
+                    T value = values.get(i);
+                    if (null != value) {
+                        consumer.accept(keys.get(i), value);
+                        count++;
+                    }
+                }
+            }
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            System.out.printf("Scanned %d keys matching %s in %d round trips, %.2f s, %.0f keys/sec.%n",
+                    count, pattern, roundTrips.get(), seconds, seconds > 0 ? count / seconds : 0.0);
+            return count;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> void submit(ExecutorService executor, JedisPool pool, BatchFetcher<T> fetcher, List<String> keys,
+                                   List<List<String>> batches, List<Future<List<T>>> futures, AtomicInteger roundTrips) {
+        batches.add(keys);
+        futures.add(executor.submit(() -> {
+            try (Jedis jedis = pool.getResource()) {
+                roundTrips.incrementAndGet();
+                return fetcher.fetch(jedis, keys);
+            }
+        }));
+    }
+}
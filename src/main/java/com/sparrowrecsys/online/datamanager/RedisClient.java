@@ -1,15 +1,20 @@
 package com.sparrowrecsys.online.datamanager;
 
 import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Protocol;
 
 /**
  * RedisClient 类，提供 Redis 客户端的单例模式
  */
 public class RedisClient {
     private static volatile Jedis redisClient;
+    private static volatile JedisPool redisPool;
     final static String REDIS_END_POINT = "localhost";
     final static int REDIS_PORT = 6379;
     final static String REDIS_PASSWORD = ""; // 设置为空字符串表示无密码
+    final static int REDIS_POOL_MAX_TOTAL = 16; // 连接池的最大连接数
 
     /**
      * 获取 Jedis 客户端的单例实例
@@ -29,4 +34,23 @@ public class RedisClient {
         }
         return redisClient;
     }
-}
\ No newline at end of file
+
+    /**
+     * 获取 Jedis 连接池的单例实例，用于需要多个并行连接的批量操作
+     * @return Jedis 连接池
+     */
+    public static JedisPool getPool(){
+        if (null == redisPool){
+            synchronized (RedisClient.class){
+                if (null == redisPool){
+                    JedisPoolConfig poolConfig = new JedisPoolConfig();
+                    poolConfig.setMaxTotal(REDIS_POOL_MAX_TOTAL);
+                    poolConfig.setMaxIdle(REDIS_POOL_MAX_TOTAL);
+                    String password = (REDIS_PASSWORD != null && !REDIS_PASSWORD.isEmpty()) ? REDIS_PASSWORD : null;
+                    redisPool = new JedisPool(poolConfig, REDIS_END_POINT, REDIS_PORT, Protocol.DEFAULT_TIMEOUT, password);
+                }
+            }
+        }
+        return redisPool;
+    }
+}
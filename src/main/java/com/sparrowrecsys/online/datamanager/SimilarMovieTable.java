@@ -0,0 +1,224 @@
+package com.sparrowrecsys.online.datamanager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * SimilarMovieTable 类，离线预计算的相似电影表，每部电影保存排序后的前 N 个相似电影ID
+ * 文件以只读方式内存映射，打开时建立以电影ID为下标的行号数组，查询一部电影的相似电影是 O(1) 的。
+ *
+ * 文件布局（小端序）：
+ *   [magic][formatVersion][neighborCount][count][reserved × 2][model 20 字节][modelVersion 20 字节]  共 64 字节
+ *   [电影ID表 int32 × count，严格递增]
+ *   [相似电影ID int32 × count × neighborCount，第 i 行对应ID表的第 i 个电影，按相似度从高到低排列，不足时补 0]
+ */
+public class SimilarMovieTable {
+    // 文件魔数 "SRSM"
+    static final int MAGIC = 0x5352534D;
+    // 文件格式版本，格式变化时递增
+    static final int FORMAT_VERSION = 1;
+    // 文件头长度
+    static final int HEADER_SIZE = 64;
+    // 文件头中模型名称和模型版本各自的最大字节数
+    static final int LABEL_BYTES = 20;
+    // 相似电影表文件名的前缀和扩展名
+    public static final String FILE_PREFIX = "similarMovies_";
+    public static final String EXTENSION = ".bin";
+
+    private final String path;
+    private final String model;
+    private final String modelVersion;
+    private final int neighborCount;
+    private final int count;
+    private final IntBuffer neighbors;
+    // 电影ID到行号，不在表中的电影为 -1
+    private final int[] rowByMovieId;
+
+    private SimilarMovieTable(String path, String model, String modelVersion, int neighborCount, int count,
+                              IntBuffer neighbors, int[] rowByMovieId) {
+        this.path = path;
+        this.model = model;
+        this.modelVersion = modelVersion;
+        this.neighborCount = neighborCount;
+        this.count = count;
+        this.neighbors = neighbors;
+        this.rowByMovieId = rowByMovieId;
+    }
+
+    /**
+     * 获取相似电影表的文件名
+     * @param model 排序模型名称
+     * @param modelVersion 模型版本，与模型版本无关时为空字符串
+     * @return 文件名，例如 similarMovies_emb_STANDARD.bin、similarMovies_default.bin
+     */
+    public static String fileNameOf(String model, String modelVersion) {
+        return FILE_PREFIX + model + (modelVersion.isEmpty() ? "" : "_" + modelVersion) + EXTENSION;
+    }
+
+    /**
+     * 内存映射打开相似电影表
+     * @param path 文件路径
+     * @return 相似电影表
+     * @throws IOException 读取失败或文件格式不合法
+     */
+    public static SimilarMovieTable open(String path) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(path, "r"); FileChannel channel = file.getChannel()) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Invalid similar movie table size " + channel.size() + ": " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a similar movie table: " + path);
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Unsupported similar movie table format " + buffer.getInt(4) + ": " + path);
+        }
+        int neighborCount = buffer.getInt(8);
+        int count = buffer.getInt(12);
+        long expectedSize = HEADER_SIZE + 4L * count + 4L * count * neighborCount;
+        if (neighborCount <= 0 || count < 0 || expectedSize != buffer.capacity()) {
+            throw new IOException("Corrupted similar movie table, neighbors " + neighborCount + ", count " + count
+                    + ", size " + buffer.capacity() + ": " + path);
+        }
+        String model = readLabel(buffer, 24);
+        String modelVersion = readLabel(buffer, 24 + LABEL_BYTES);
+
+        int maxMovieId = -1;
+        for (int i = 0; i < count; i++) {
+            int movieId = buffer.getInt(HEADER_SIZE + 4 * i);
+            if (movieId <= maxMovieId) {
+                throw new IOException("Similar movie table ids are not sorted at row " + i + ": " + path);
+            }
+            maxMovieId = movieId;
+        }
+        int[] rowByMovieId = new int[maxMovieId + 1];
+        Arrays.fill(rowByMovieId, -1);
+        for (int i = 0; i < count; i++) {
+            rowByMovieId[buffer.getInt(HEADER_SIZE + 4 * i)] = i;
+        }
+        buffer.position(HEADER_SIZE + 4 * count);
+        IntBuffer neighbors = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        return new SimilarMovieTable(path, model, modelVersion, neighborCount, count, neighbors, rowByMovieId);
+    }
+
+    private static String readLabel(ByteBuffer buffer, int offset) {
+        byte[] bytes = new byte[LABEL_BYTES];
+        for (int i = 0; i < LABEL_BYTES; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        int length = 0;
+        while (length < bytes.length && bytes[length] != 0) {
+            length++;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 写入相似电影表，先写临时文件再原子替换
+     * @param path 文件路径
+     * @param model 排序模型名称，超过 20 字节时被截断
+     * @param modelVersion 模型版本，超过 20 字节时被截断
+     * @param neighborCount 每部电影保存的相似电影数量
+     * @param movieIds 严格递增的电影ID
+     * @param neighbors 按行存放的相似电影ID，第 i 行对应 movieIds[i]，不足时补 0
+     * @throws IOException 写入失败
+     * @throws IllegalArgumentException ID 未排序或数量不匹配
+     */
+    public static void write(String path, String model, String modelVersion, int neighborCount, int[] movieIds,
+                             int[] neighbors) throws IOException {
+        if ((long) movieIds.length * neighborCount != neighbors.length) {
+            throw new IllegalArgumentException("Expect " + movieIds.length + " x " + neighborCount + " ids, got " + neighbors.length);
+        }
+        for (int i = 1; i < movieIds.length; i++) {
+            if (movieIds[i] <= movieIds[i - 1]) {
+                throw new IllegalArgumentException("Movie ids are not sorted at " + i);
+            }
+        }
+        File target = new File(path);
+        File tmp = new File(path + ".tmp");
+        try (RandomAccessFile file = new RandomAccessFile(tmp, "rw"); FileChannel channel = file.getChannel()) {
+            file.setLength(0);
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 * movieIds.length + 4 * neighbors.length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(neighborCount).putInt(movieIds.length).putInt(0).putInt(0);
+            putLabel(buffer, model);
+            putLabel(buffer, modelVersion);
+            buffer.asIntBuffer().put(movieIds).put(neighbors);
+            buffer.position(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void putLabel(ByteBuffer buffer, String label) {
+        byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+        int start = buffer.position();
+        buffer.put(bytes, 0, Math.min(bytes.length, LABEL_BYTES));
+        buffer.position(start + LABEL_BYTES);
+    }
+
+    // 获取文件路径
+    public String getPath() {
+        return path;
+    }
+
+    // 获取排序模型名称
+    public String getModel() {
+        return model;
+    }
+
+    // 获取模型版本，与模型版本无关时为空字符串
+    public String getModelVersion() {
+        return modelVersion;
+    }
+
+    // 获取每部电影保存的相似电影数量
+    public int getNeighborCount() {
+        return neighborCount;
+    }
+
+    // 获取电影数量
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * 读取一部电影的相似电影ID
+     * @param movieId 电影ID
+     * @param target 结果数组，长度至少为 neighborCount
+     * @return 相似电影数量，电影不在表中时返回 -1
+     */
+    public int read(int movieId, int[] target) {
+        if (movieId < 0 || movieId >= rowByMovieId.length || rowByMovieId[movieId] < 0) {
+            return -1;
+        }
+        int base = rowByMovieId[movieId] * neighborCount;
+        int size = 0;
+        while (size < neighborCount && 0 != neighbors.get(base + size)) {
+            target[size] = neighbors.get(base + size);
+            size++;
+        }
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return path + " (" + model + (modelVersion.isEmpty() ? "" : "/" + modelVersion) + ", " + count + " x " + neighborCount + ")";
+    }
+}
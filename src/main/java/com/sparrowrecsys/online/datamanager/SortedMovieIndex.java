@@ -0,0 +1,127 @@
+package com.sparrowrecsys.online.datamanager;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * SortedMovieIndex 类，按某个排序键预先排好序的电影数组
+ * 查询前 N 部电影时直接返回数组前缀上的只读视图，不需要复制和排序。
+ * 电影的排序键变化时先用 markDirty 标记，refresh 时一次性移动所有被标记的电影：
+ * 去掉这些电影后其余电影仍然有序，把被标记的电影排序后与其余电影归并到一个新数组，代价是 O(N + k log k)，
+ * k 为被标记的电影数。新数组整体替换旧数组（写时复制），读线程始终看到一个完整有序的数组，
+ * 但在两次 refresh 之间看到的是上一次 refresh 时的顺序。
+ * 调用方需要保证 refresh 期间电影的排序键不变。
+ */
+class SortedMovieIndex {
+    // 按平均评分降序，同分时按加载顺序
+    static final Comparator<Movie> BY_RATING = (m1, m2) -> {
+        int result = Double.compare(m2.getAverageRating(), m1.getAverageRating());
+        return result != 0 ? result : Integer.compare(m1.index, m2.index);
+    };
+    // 按评分数量降序，同数量时按加载顺序
+    static final Comparator<Movie> BY_POPULARITY = (m1, m2) -> {
+        int result = Integer.compare(m2.getRatingNumber(), m1.getRatingNumber());
+        return result != 0 ? result : Integer.compare(m1.index, m2.index);
+    };
+    // 按上映年份降序，同年份时按加载顺序
+    static final Comparator<Movie> BY_RELEASE_YEAR = (m1, m2) -> {
+        int result = Integer.compare(m2.getReleaseYear(), m1.getReleaseYear());
+        return result != 0 ? result : Integer.compare(m1.index, m2.index);
+    };
+
+    private final Comparator<Movie> comparator;
+    private volatile Movie[] movies;
+    // 上次 refresh 之后排序键发生变化的电影
+    private final Set<Movie> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    SortedMovieIndex(Collection<Movie> movies, Comparator<Movie> comparator) {
+        this.comparator = comparator;
+        Movie[] sorted = movies.toArray(new Movie[0]);
+        Arrays.sort(sorted, comparator);
+        this.movies = sorted;
+    }
+
+    /**
+     * 获取排序后的前 size 部电影
+     * @param size 电影数量
+     * @return 只读的有序电影列表
+     */
+    List<Movie> top(int size) {
+        Movie[] current = this.movies;
+        return new MovieSlice(current, Math.max(0, Math.min(size, current.length)));
+    }
+
+    /**
+     * 标记排序键发生变化的电影，下次 refresh 时移动到新的有序位置
+     * @param movie 排序键发生变化的电影，必须在该索引中
+     */
+    synchronized void markDirty(Movie movie) {
+        dirty.add(movie);
+    }
+
+    /**
+     * 把被标记的电影移动到新的有序位置，没有被标记的电影时不做任何事
+     * @return 是否生成了新的有序数组
+     */
+    synchronized boolean refresh() {
+        if (dirty.isEmpty()) {
+            return false;
+        }
+        Movie[] current = this.movies;
+        Movie[] moved = dirty.toArray(new Movie[0]);
+        Arrays.sort(moved, comparator);
+
+        // 其余电影的排序键没有变化，仍然有序，与排好序的被标记电影归并
+        Movie[] updated = new Movie[current.length];
+        int size = 0;
+        int next = 0;
+        for (Movie movie : current) {
+            if (dirty.contains(movie)) {
+                continue;
+            }
+            while (next < moved.length && comparator.compare(moved[next], movie) < 0) {
+                updated[size++] = moved[next++];
+            }
+            updated[size++] = movie;
+        }
+        while (next < moved.length) {
+            updated[size++] = moved[next++];
+        }
+        dirty.clear();
+        this.movies = updated;
+        return true;
+    }
+
+    /**
+     * 有序数组前缀上的只读视图
+     */
+    private static class MovieSlice extends AbstractList<Movie> implements RandomAccess {
+        private final Movie[] movies;
+        private final int size;
+
+        MovieSlice(Movie[] movies, int size) {
+            this.movies = movies;
+            this.size = size;
+        }
+
+        @Override
+        public Movie get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return movies[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
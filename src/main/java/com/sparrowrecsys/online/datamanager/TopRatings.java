@@ -0,0 +1,188 @@
+package com.sparrowrecsys.online.datamanager;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TopRatings 类，保存一部电影评分最高的前 K 条评分
+ * 使用定长的最小堆和原始类型数组，堆顶是分数最低、同分时最新加入的评分，新评分只需和堆顶比较一次。
+ * 输出顺序与原先的有序链表一致：分数升序，同分时后加入的在前。
+ * 所有修改和读取都在对象锁内完成，可以在服务运行时并发更新。
+ */
+public class TopRatings {
+    private final int capacity;
+    private int size;
+    // 每条评分的加入顺序，用于同分时的排序
+    private long nextSequence;
+    private final float[] scores;
+    private final long[] sequences;
+    private final int[] movieIds;
+    private final int[] userIds;
+    private final long[] timestamps;
+    // 堆满时的堆顶分数，用于在不加锁的情况下快速淘汰不可能进入前 K 的评分
+    private volatile float admissionScore = Float.NEGATIVE_INFINITY;
+
+    public TopRatings(int capacity) {
+        this.capacity = capacity;
+        this.scores = new float[capacity];
+        this.sequences = new long[capacity];
+        this.movieIds = new int[capacity];
+        this.userIds = new int[capacity];
+        this.timestamps = new long[capacity];
+    }
+
+    /**
+     * 加入一条评分，堆满且分数不高于堆顶时直接丢弃
+     * @param movieId 电影ID
+     * @param userId 用户ID
+     * @param score 评分
+     * @param timestamp 时间戳
+     */
+    public void offer(int movieId, int userId, float score, long timestamp) {
+        if (score <= admissionScore) {
+            return;
+        }
+        synchronized (this) {
+            long sequence = nextSequence++;
+            if (size < capacity) {
+                int i = size++;
+                set(i, score, sequence, movieId, userId, timestamp);
+                siftUp(i);
+            } else {
+                if (score <= scores[0]) {
+                    return;
+                }
+                set(0, score, sequence, movieId, userId, timestamp);
+                siftDown(0);
+            }
+            if (size == capacity) {
+                admissionScore = scores[0];
+            }
+        }
+    }
+
+    // 获取当前条目数
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 按分数升序（同分时后加入的在前）返回评分列表
+     * @return 评分列表
+     */
+    public synchronized List<Rating> toList() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> lessThan(a, b) ? -1 : (lessThan(b, a) ? 1 : 0));
+        List<Rating> ratings = new ArrayList<>(size);
+        for (int i : order) {
+            Rating rating = new Rating();
+            rating.movieId = movieIds[i];
+            rating.userId = userIds[i];
+            rating.score = scores[i];
+            rating.timestamp = timestamps[i];
+            ratings.add(rating);
+        }
+        return ratings;
+    }
+
+    /**
+     * 按 toList 的顺序恢复评分，用于从快照加载
+     * @param ratings 分数升序（同分时后加入的在前）的评分列表
+     */
+    public synchronized void restore(List<Rating> ratings) {
+        size = 0;
+        nextSequence = 0;
+        admissionScore = Float.NEGATIVE_INFINITY;
+        // 列表越靠前的同分评分越新，所以倒序加入
+        for (int i = ratings.size() - 1; i >= 0; i--) {
+            Rating rating = ratings.get(i);
+            offer(rating.movieId, rating.userId, rating.score, rating.timestamp);
+        }
+    }
+
+    // 堆序：分数低的更小，同分时后加入的更小
+    private boolean lessThan(int a, int b) {
+        if (scores[a] != scores[b]) {
+            return scores[a] < scores[b];
+        }
+        return sequences[a] > sequences[b];
+    }
+
+    private void set(int i, float score, long sequence, int movieId, int userId, long timestamp) {
+        scores[i] = score;
+        sequences[i] = sequence;
+        movieIds[i] = movieId;
+        userIds[i] = userId;
+        timestamps[i] = timestamp;
+    }
+
+    private void swap(int a, int b) {
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+        long sequence = sequences[a];
+        sequences[a] = sequences[b];
+        sequences[b] = sequence;
+        int movieId = movieIds[a];
+        movieIds[a] = movieIds[b];
+        movieIds[b] = movieId;
+        int userId = userIds[a];
+        userIds[a] = userIds[b];
+        userIds[b] = userId;
+        long timestamp = timestamps[a];
+        timestamps[a] = timestamps[b];
+        timestamps[b] = timestamp;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!lessThan(i, parent)) {
+                break;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                break;
+            }
+            int smallest = left;
+            int right = left + 1;
+            if (right < size && lessThan(right, left)) {
+                smallest = right;
+            }
+            if (!lessThan(smallest, i)) {
+                break;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    /**
+     * 把 TopRatings 序列化为与评分列表相同的 JSON 数组
+     */
+    public static class Serializer extends JsonSerializer<TopRatings> {
+        private final RatingListSerializer listSerializer = new RatingListSerializer();
+
+        @Override
+        public void serialize(TopRatings topRatings, JsonGenerator jsonGenerator,
+                              SerializerProvider provider) throws IOException {
+            listSerializer.serialize(topRatings.toList(), jsonGenerator, provider);
+        }
+    }
+}
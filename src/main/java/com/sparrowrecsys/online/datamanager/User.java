@@ -4,7 +4,6 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.sparrowrecsys.online.model.Embedding;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -17,13 +16,12 @@ public class User {
     double highestRating = 0; // 最高评分
     double lowestRating = 5.0; // 最低评分
     int ratingCount = 0; // 评分数量
+    // 用户在DataManager中的稠密序号
+    @JsonIgnore
+    int index;
 
     @JsonSerialize(using = RatingListSerializer.class)
-    List<Rating> ratings; // 用户的评分列表
-
-    // 用户的嵌入向量
-    @JsonIgnore
-    Embedding emb;
+    List<Rating> ratings; // 用户的评分列表，是RatingStore上的只读视图
 
     // 用户特征映射
     @JsonIgnore
@@ -31,8 +29,7 @@ public class User {
 
     // 构造函数，初始化默认值
     public User() {
-        this.ratings = new ArrayList<>();
-        this.emb = null;
+        this.ratings = RatingList.EMPTY;
         this.userFeatures = null;
     }
 
@@ -56,16 +53,20 @@ public class User {
         this.ratings = ratings;
     }
 
-    // 添加评分并更新平均评分、最高评分、最低评分和评分数量
+    // 添加评分并更新平均评分、最高评分、最低评分和评分数量，评分本身由DataManager写入RatingStore
     public void addRating(Rating rating) {
-        this.ratings.add(rating);
-        this.averageRating = (this.averageRating * ratingCount + rating.getScore()) / (ratingCount + 1);
-        if (rating.getScore() > highestRating) {
-            highestRating = rating.getScore();
+        addRating(rating.getScore());
+    }
+
+    // 添加评分分数并更新统计，不需要构造Rating对象
+    public void addRating(float score) {
+        this.averageRating = (this.averageRating * ratingCount + score) / (ratingCount + 1);
+        if (score > highestRating) {
+            highestRating = score;
         }
 
-        if (rating.getScore() < lowestRating) {
-            lowestRating = rating.getScore();
+        if (score < lowestRating) {
+            lowestRating = score;
         }
 
         ratingCount++;
@@ -111,14 +112,25 @@ public class User {
         this.ratingCount = ratingCount;
     }
 
-    // 获取嵌入向量
+    // 获取当前模型版本中的嵌入向量，同一请求内需要一致的版本时使用DataManager.acquireEmbeddings
+    @JsonIgnore
     public Embedding getEmb() {
-        return emb;
+        EmbeddingTable embeddings = DataManager.getInstance().acquireEmbeddings();
+        try {
+            return embeddings.getUserEmb(this);
+        } finally {
+            embeddings.release();
+        }
     }
 
-    // 设置嵌入向量
+    // 设置当前模型版本中的嵌入向量
     public void setEmb(Embedding emb) {
-        this.emb = emb;
+        EmbeddingTable embeddings = DataManager.getInstance().acquireEmbeddings();
+        try {
+            embeddings.setUserEmb(this, emb);
+        } finally {
+            embeddings.release();
+        }
     }
 
     // 获取用户特征映射
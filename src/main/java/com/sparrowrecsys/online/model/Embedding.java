@@ -1,55 +1,197 @@
 package com.sparrowrecsys.online.model;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Embedding 类，包含嵌入向量和相关计算
+ * 向量是 float 数组 data 中从 offset 开始的 dim 个元素，可以是独立的数组，也可以是向量矩阵中的一行。
+ * 作为矩阵行的视图时不复制数据，相似度计算直接读取原始 float 数组，不装箱也不分配内存。
+ * 归一化后的向量只保存单位向量和原始的模，两个归一化向量的余弦相似度就是点积。
  */
 public class Embedding {
-    // 嵌入向量
-    ArrayList<Float> embVector;
+    // 向量所在的数组
+    float[] data;
+    // 向量在数组中的起始位置
+    int offset;
+    // 向量维度
+    int dim;
+    // 是否已经归一化为单位向量
+    boolean normalized;
+    // 归一化之前的 L2 模，只在 normalized 为 true 时有效
+    float norm;
 
     // 默认构造函数，初始化空的嵌入向量
     public Embedding(){
-        this.embVector = new ArrayList<>();
+        this.data = new float[8];
+        this.offset = 0;
+        this.dim = 0;
     }
 
     // 带参数的构造函数，使用给定的嵌入向量进行初始化
     public Embedding(ArrayList<Float> embVector){
-        this.embVector = embVector;
+        setEmbVector(embVector);
     }
 
-    // 添加一个维度到嵌入向量
+    // 使用给定的 float 数组作为向量，不复制
+    public Embedding(float[] vector){
+        this(vector, 0, vector.length);
+    }
+
+    // 创建数组 data 中从 offset 开始的 dim 维向量的视图，不复制
+    public Embedding(float[] data, int offset, int dim){
+        this.data = data;
+        this.offset = offset;
+        this.dim = dim;
+    }
+
+    // 创建已经归一化的单位向量的视图，norm 是归一化之前的模
+    public Embedding(float[] data, int offset, int dim, float norm){
+        this(data, offset, dim);
+        this.normalized = true;
+        this.norm = norm;
+    }
+
+    // 添加一个维度到嵌入向量，只用于逐个元素构造的未归一化的独立向量
     public void addDim(Float element){
-        this.embVector.add(element);
+        if (normalized){
+            throw new IllegalStateException("Cannot add dimensions to a normalized embedding");
+        }
+        if (offset + dim == data.length || offset != 0){
+            data = Arrays.copyOfRange(data, offset, offset + Math.max(8, dim * 2));
+            offset = 0;
+        }
+        data[dim++] = element;
+    }
+
+    // 获取向量维度
+    public int getDim() {
+        return dim;
+    }
+
+    // 获取第 i 维的值，归一化后是单位向量的值
+    public float get(int i) {
+        return data[offset + i];
+    }
+
+    // 判断是否已经归一化
+    public boolean isNormalized() {
+        return normalized;
+    }
+
+    // 获取原始向量的 L2 模，归一化后返回归一化之前的模
+    public float getNorm() {
+        if (normalized){
+            return norm;
+        }
+        double sum = 0;
+        for (int i = 0; i < dim; i++){
+            float x = data[offset + i];
+            sum += x * x;
+        }
+        return (float) Math.sqrt(sum);
     }
 
-    // 获取嵌入向量
+    /**
+     * 原地归一化为单位向量，并保存原始的模；模为 0 的向量保持不变
+     * 会修改 data 中的数据，矩阵行视图只应由矩阵的所有者调用
+     */
+    public void normalize(){
+        if (normalized){
+            return;
+        }
+        float originalNorm = getNorm();
+        if (originalNorm > 0){
+            double scale = 1.0 / originalNorm;
+            for (int i = 0; i < dim; i++){
+                data[offset + i] = (float) (data[offset + i] * scale);
+            }
+        }
+        this.norm = originalNorm;
+        this.normalized = true;
+    }
+
+    // 获取向量所在的数组，与 getOffset 一起用于批量计算
+    public float[] getData() {
+        return data;
+    }
+
+    // 获取向量在数组中的起始位置
+    public int getOffset() {
+        return offset;
+    }
+
+    // 把向量复制到 target 数组的 targetOffset 位置
+    public void copyTo(float[] target, int targetOffset) {
+        System.arraycopy(data, offset, target, targetOffset, dim);
+    }
+
+    // 获取向量的副本
+    public float[] toArray() {
+        return Arrays.copyOfRange(data, offset, offset + dim);
+    }
+
+    // 获取装箱的原始嵌入向量副本（归一化的向量会乘回原始的模），修改副本不影响本向量
     public ArrayList<Float> getEmbVector() {
+        ArrayList<Float> embVector = new ArrayList<>(dim);
+        float scale = normalized ? norm : 1.0f;
+        for (int i = 0; i < dim; i++){
+            embVector.add(data[offset + i] * scale);
+        }
         return embVector;
     }
 
-    // 设置嵌入向量
+    // 设置嵌入向量，复制为独立的未归一化数组
     public void setEmbVector(ArrayList<Float> embVector) {
-        this.embVector = embVector;
+        this.data = new float[Math.max(8, embVector.size())];
+        this.offset = 0;
+        this.dim = embVector.size();
+        this.normalized = false;
+        this.norm = 0;
+        for (int i = 0; i < dim; i++){
+            this.data[i] = embVector.get(i);
+        }
+    }
+
+    // 计算与另一个向量按当前存储值的点积，两个向量都归一化时就是余弦相似度
+    public double dot(Embedding otherEmb){
+        float[] a = data;
+        float[] b = otherEmb.data;
+        int offsetA = offset;
+        int offsetB = otherEmb.offset;
+        double dotProduct = 0;
+        for (int i = 0; i < dim; i++){
+            dotProduct += a[offsetA + i] * b[offsetB + i];
+        }
+        return dotProduct;
     }
 
     // 计算两个嵌入向量之间的余弦相似度
     public double calculateSimilarity(Embedding otherEmb){
         // 检查向量是否为空或长度是否不一致
-        if (null == embVector || null == otherEmb || null == otherEmb.getEmbVector()
-                || embVector.size() != otherEmb.getEmbVector().size()){
+        if (null == otherEmb || dim != otherEmb.dim){
             return -1; // 返回-1表示无法计算相似度
         }
+        // 两个单位向量的余弦相似度就是点积
+        if (normalized && otherEmb.normalized){
+            return dot(otherEmb);
+        }
+        // 余弦相似度与向量长度无关，归一化和未归一化的向量可以直接混合计算
+        float[] a = data;
+        float[] b = otherEmb.data;
+        int offsetA = offset;
+        int offsetB = otherEmb.offset;
         double dotProduct = 0; // 点积
         double denominator1 = 0; // 第一个向量的模
         double denominator2 = 0; // 第二个向量的模
-        for (int i = 0; i < embVector.size(); i++){
-            dotProduct += embVector.get(i) * otherEmb.getEmbVector().get(i); // 计算点积
-            denominator1 += embVector.get(i) * embVector.get(i); // 计算第一个向量的模的平方
-            denominator2 += otherEmb.getEmbVector().get(i) * otherEmb.getEmbVector().get(i); // 计算第二个向量的模的平方
+        for (int i = 0; i < dim; i++){
+            float x = a[offsetA + i];
+            float y = b[offsetB + i];
+            dotProduct += x * y; // 计算点积
+            denominator1 += x * x; // 计算第一个向量的模的平方
+            denominator2 += y * y; // 计算第二个向量的模的平方
         }
         // 返回余弦相似度
         return dotProduct / (Math.sqrt(denominator1) * Math.sqrt(denominator2));
     }
-}
\ No newline at end of file
+}
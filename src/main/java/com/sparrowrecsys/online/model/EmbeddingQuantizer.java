@@ -0,0 +1,73 @@
+package com.sparrowrecsys.online.model;
+
+/**
+ * EmbeddingQuantizer 类，把归一化的 float 向量压缩为定长的字节编码
+ * 编码按行连续存放在一个 byte 数组中，第 i 行从 i * getCodeSize() 开始。
+ * 打分使用非对称距离计算（ADC）：查询向量保持 float，先按量化参数预计算查询相关的查找表，
+ * 再直接用候选的编码累加得分，不需要把候选解码为 float 向量。
+ * 实现：
+ *   ScalarQuantizer  每一维独立量化为 int8，编码长度等于维度
+ *   ProductQuantizer 把向量切分为若干子空间，每个子空间用 k-means 码本中最近的中心的序号表示
+ */
+public abstract class EmbeddingQuantizer {
+
+    /**
+     * 训练指定方式的量化器
+     * @param name 量化方式，int8 或 pq
+     * @param vectors 训练向量，可以包含 null
+     * @param count 训练向量数量
+     * @param dim 向量维度
+     * @param pqSubspaceDim 乘积量化每个子空间的维度
+     * @return 量化器
+     * @throws IllegalArgumentException 未知的量化方式
+     */
+    public static EmbeddingQuantizer train(String name, Embedding[] vectors, int count, int dim, int pqSubspaceDim) {
+        switch (name) {
+            case "int8":
+                return ScalarQuantizer.train(vectors, count, dim);
+            case "pq":
+                return ProductQuantizer.train(vectors, count, dim, pqSubspaceDim);
+            default:
+                throw new IllegalArgumentException("Unknown embedding quantization: " + name);
+        }
+    }
+
+    // 获取量化方式名称
+    public abstract String getName();
+
+    // 获取向量维度
+    public abstract int getDim();
+
+    // 获取每个向量的编码字节数
+    public abstract int getCodeSize();
+
+    // 获取量化参数（码本）占用的字节数
+    public abstract long getCodebookBytes();
+
+    /**
+     * 编码一个向量
+     * @param emb 向量，维度必须等于 getDim()
+     * @param codes 编码数组
+     * @param offset 编码的起始位置
+     */
+    public abstract void encode(Embedding emb, byte[] codes, int offset);
+
+    /**
+     * 把编码还原为近似的向量
+     * @param codes 编码数组
+     * @param offset 编码的起始位置
+     * @param target 结果数组
+     * @param targetOffset 结果的起始位置
+     */
+    public abstract void decode(byte[] codes, int offset, float[] target, int targetOffset);
+
+    /**
+     * 批量计算查询向量与编码向量的近似点积
+     * @param query 查询向量，维度必须等于 getDim()
+     * @param codes 按行存放的编码
+     * @param rows 候选所在的行，小于 0 表示没有向量，得分为 -1
+     * @param count 候选数量
+     * @param scores 结果数组，scores[i] 对应 rows[i]
+     */
+    public abstract void score(Embedding query, byte[] codes, int[] rows, int count, float[] scores);
+}
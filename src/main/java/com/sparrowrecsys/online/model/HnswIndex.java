@@ -0,0 +1,522 @@
+package com.sparrowrecsys.online.model;
+
+import com.sparrowrecsys.online.util.IntObjectHashMap;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * HnswIndex 类，基于 HNSW（Hierarchical Navigable Small World）图的近似最近邻索引
+ * 每个向量是图中的一个节点，按指数分布随机分配层数，高层稀疏、第 0 层包含全部节点。
+ * 查询从最高层的入口点贪心下降，在第 0 层以 efSearch 大小的候选集做最佳优先搜索。
+ * 向量应当已经归一化，相似度就是点积。search 是近似结果，searchExact 计算全部向量，用于测量召回率。
+ * 查询之间可以并发，插入和删除持有写锁；删除只做标记，被删除的节点仍参与图的遍历，但不会出现在结果中。
+ */
+public class HnswIndex {
+    // 第 1 层及以上每个节点的最大邻居数
+    private final int m;
+    // 第 0 层每个节点的最大邻居数
+    private final int maxM0;
+    // 插入时的候选集大小
+    private final int efConstruction;
+    // 查询时的候选集大小
+    private volatile int efSearch;
+    // 层数分布的参数 1/ln(m)
+    private final double levelMultiplier;
+    // 固定种子，相同的插入顺序得到相同的图
+    private final Random random = new Random(42);
+
+    // 节点数量，包括已删除的节点
+    private int size;
+    // 已删除的节点数量
+    private int deletedCount;
+    // 每个节点的向量
+    private Embedding[] vectors;
+    // 每个节点的外部标签（如电影ID）
+    private int[] labels;
+    // 每个节点是否已删除
+    private boolean[] deleted;
+    // links[node][level] 是节点在该层的邻居，第一个元素是邻居数量
+    private int[][][] links;
+    // 外部标签到节点的映射
+    private final IntObjectHashMap<Integer> labelToNode = new IntObjectHashMap<>();
+    // 入口节点，没有节点时为-1
+    private int entryPoint = -1;
+    // 入口节点所在的最高层
+    private int maxLevel = -1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // 每个线程复用的访问标记
+    private final ThreadLocal<Visited> visited = ThreadLocal.withInitial(Visited::new);
+
+    /**
+     * 创建空索引
+     * @param m 每个节点的最大邻居数，第 0 层为 2m
+     * @param efConstruction 插入时的候选集大小，越大图的质量越高、构建越慢
+     * @param efSearch 查询时的候选集大小，越大召回率越高、查询越慢
+     * @param expectedSize 预计的节点数量
+     */
+    public HnswIndex(int m, int efConstruction, int efSearch, int expectedSize) {
+        if (m < 2) {
+            throw new IllegalArgumentException("HNSW M must be at least 2: " + m);
+        }
+        this.m = m;
+        this.maxM0 = 2 * m;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = Math.max(efSearch, 1);
+        this.levelMultiplier = 1 / Math.log(m);
+        int capacity = Math.max(expectedSize, 16);
+        this.vectors = new Embedding[capacity];
+        this.labels = new int[capacity];
+        this.deleted = new boolean[capacity];
+        this.links = new int[capacity][][];
+    }
+
+    // 获取未删除的节点数量
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 获取查询时的候选集大小
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    // 设置查询时的候选集大小
+    public void setEfSearch(int efSearch) {
+        this.efSearch = Math.max(efSearch, 1);
+    }
+
+    // 估算图的邻接表占用的字节数，不包括向量本身
+    public long estimateGraphBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (int node = 0; node < size; node++) {
+                bytes += 16 + 4L * links[node].length;
+                for (int[] levelLinks : links[node]) {
+                    bytes += 16 + 4L * levelLinks.length;
+                }
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 插入或更新一个向量
+     * 已存在的标签只替换向量，不重新连接邻居，适合增量更新中向量的小幅变化
+     * @param label 外部标签
+     * @param vector 归一化的向量
+     */
+    public void add(int label, Embedding vector) {
+        lock.writeLock().lock();
+        try {
+            Integer existing = labelToNode.get(label);
+            if (null != existing) {
+                vectors[existing] = vector;
+                if (deleted[existing]) {
+                    deleted[existing] = false;
+                    deletedCount--;
+                }
+                return;
+            }
+            insert(label, vector);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 删除一个向量，只做标记
+     * @param label 外部标签
+     * @return 标签是否存在
+     */
+    public boolean remove(int label) {
+        lock.writeLock().lock();
+        try {
+            Integer node = labelToNode.get(label);
+            if (null == node || deleted[node]) {
+                return false;
+            }
+            deleted[node] = true;
+            deletedCount++;
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 近似查询与 query 最相似的 k 个向量
+     * @param query 归一化的查询向量
+     * @param k 结果数量
+     * @param resultLabels 结果标签，长度不小于 k
+     * @param resultScores 结果相似度，长度不小于 k
+     * @return 实际的结果数量，结果按相似度从高到低排列
+     */
+    public int search(Embedding query, int k, int[] resultLabels, float[] resultScores) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || k <= 0 || query.getDim() != vectors[entryPoint].getDim()) {
+                return 0;
+            }
+            int ep = entryPoint;
+            for (int level = maxLevel; level > 0; level--) {
+                ep = greedyClosest(query, ep, level);
+            }
+            Heap results = searchLayer(query, ep, score(query, ep), Math.max(efSearch, k), 0);
+            return collect(results, k, resultLabels, resultScores);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 精确查询与 query 最相似的 k 个向量，计算全部节点，用于测量近似查询的召回率
+     * @param query 查询向量
+     * @param k 结果数量
+     * @param resultLabels 结果标签，长度不小于 k
+     * @param resultScores 结果相似度，长度不小于 k
+     * @return 实际的结果数量，结果按相似度从高到低排列
+     */
+    public int searchExact(Embedding query, int k, int[] resultLabels, float[] resultScores) {
+        lock.readLock().lock();
+        try {
+            if (k <= 0 || size == 0) {
+                return 0;
+            }
+            float[] scores = new float[size];
+            SimilarityKernel.BLOCKED.cosine(query, vectors, size, scores);
+            // 小顶堆保留最好的 k 个
+            Heap results = new Heap(k + 1);
+            for (int node = 0; node < size; node++) {
+                if (deleted[node]) {
+                    continue;
+                }
+                if (results.size < k) {
+                    results.push(-scores[node], node);
+                } else if (scores[node] > -results.topKey()) {
+                    results.pop();
+                    results.push(-scores[node], node);
+                }
+            }
+            return collect(results, k, resultLabels, resultScores);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 从小顶堆中取出未删除的节点，按相似度从高到低、相同时按标签从小到大写入结果
+    private int collect(Heap results, int k, int[] resultLabels, float[] resultScores) {
+        int count = 0;
+        int[] nodes = new int[results.size];
+        float[] scores = new float[results.size];
+        while (results.size > 0) {
+            float score = -results.topKey();
+            int node = results.pop();
+            if (!deleted[node]) {
+                nodes[count] = node;
+                scores[count] = score;
+                count++;
+            }
+        }
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> scores[a] != scores[b] ? Float.compare(scores[b], scores[a])
+                : Integer.compare(labels[nodes[a]], labels[nodes[b]]));
+        int resultCount = Math.min(count, k);
+        for (int i = 0; i < resultCount; i++) {
+            resultLabels[i] = labels[nodes[order[i]]];
+            resultScores[i] = scores[order[i]];
+        }
+        return resultCount;
+    }
+
+    private void insert(int label, Embedding vector) {
+        int node = size;
+        ensureCapacity(node + 1);
+        int level = randomLevel();
+        vectors[node] = vector;
+        labels[node] = label;
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[node][l] = new int[1 + (l == 0 ? maxM0 : m)];
+        }
+        size++;
+        labelToNode.put(label, node);
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            ep = greedyClosest(vector, ep, l);
+        }
+        float epScore = score(vector, ep);
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            Heap found = searchLayer(vector, ep, epScore, efConstruction, l);
+            // 按相似度从高到低排列候选
+            int count = found.size;
+            int[] candidates = new int[count];
+            float[] candidateScores = new float[count];
+            for (int i = count - 1; i >= 0; i--) {
+                candidateScores[i] = -found.topKey();
+                candidates[i] = found.pop();
+            }
+            int maxNeighbors = l == 0 ? maxM0 : m;
+            int[] neighbors = links[node][l];
+            neighbors[0] = selectNeighbors(candidates, candidateScores, count, maxNeighbors, neighbors);
+            for (int i = 1; i <= neighbors[0]; i++) {
+                connect(neighbors[i], node, l);
+            }
+            ep = candidates[0];
+            epScore = candidateScores[0];
+        }
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    /**
+     * 启发式选择邻居：按相似度从高到低，只保留比已选邻居更接近目标的候选，使邻居分布在不同方向上
+     * @param candidates 按相似度从高到低排列的候选节点
+     * @param candidateScores 候选与目标的相似度
+     * @param count 候选数量
+     * @param maxNeighbors 最多选择的邻居数
+     * @param target 结果写入 target[1..]
+     * @return 选择的邻居数
+     */
+    private int selectNeighbors(int[] candidates, float[] candidateScores, int count, int maxNeighbors, int[] target) {
+        int selected = 0;
+        for (int i = 0; i < count && selected < maxNeighbors; i++) {
+            int candidate = candidates[i];
+            boolean keep = true;
+            for (int j = 1; j <= selected; j++) {
+                if (score(vectors[candidate], target[j]) > candidateScores[i]) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                target[++selected] = candidate;
+            }
+        }
+        return selected;
+    }
+
+    // 把 node 加入 neighbor 在 level 层的邻居，超过上限时重新选择
+    private void connect(int neighbor, int node, int level) {
+        int[] neighborLinks = links[neighbor][level];
+        int count = neighborLinks[0];
+        if (count < neighborLinks.length - 1) {
+            neighborLinks[++count] = node;
+            neighborLinks[0] = count;
+            return;
+        }
+        int total = count + 1;
+        Heap ordered = new Heap(total);
+        Embedding base = vectors[neighbor];
+        for (int i = 1; i <= count; i++) {
+            ordered.push(score(base, neighborLinks[i]), neighborLinks[i]);
+        }
+        ordered.push(score(base, node), node);
+        int[] candidates = new int[total];
+        float[] candidateScores = new float[total];
+        for (int i = 0; i < total; i++) {
+            candidateScores[i] = ordered.topKey();
+            candidates[i] = ordered.pop();
+        }
+        neighborLinks[0] = selectNeighbors(candidates, candidateScores, total, neighborLinks.length - 1, neighborLinks);
+    }
+
+    // 在 level 层从 ep 出发贪心移动到与 query 最相似的节点
+    private int greedyClosest(Embedding query, int ep, int level) {
+        float epScore = score(query, ep);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] neighbors = links[ep][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                float s = score(query, neighbors[i]);
+                if (s > epScore) {
+                    epScore = s;
+                    ep = neighbors[i];
+                    changed = true;
+                }
+            }
+        }
+        return ep;
+    }
+
+    /**
+     * 在一层中做最佳优先搜索
+     * @return 小顶堆，键是相似度的相反数，最多 ef 个节点
+     */
+    private Heap searchLayer(Embedding query, int ep, float epScore, int ef, int level) {
+        Visited marks = visited.get();
+        marks.reset(size);
+        // 待扩展的候选，大顶堆
+        Heap candidates = new Heap(ef * 2);
+        // 当前最好的 ef 个结果，小顶堆
+        Heap results = new Heap(ef + 1);
+        marks.mark(ep);
+        candidates.push(epScore, ep);
+        results.push(-epScore, ep);
+        while (candidates.size > 0) {
+            float candidateScore = candidates.topKey();
+            if (results.size >= ef && candidateScore < -results.topKey()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            int[] neighbors = links[candidate][level];
+            for (int i = 1; i <= neighbors[0]; i++) {
+                int neighbor = neighbors[i];
+                if (!marks.mark(neighbor)) {
+                    continue;
+                }
+                float s = score(query, neighbor);
+                if (results.size < ef || s > -results.topKey()) {
+                    candidates.push(s, neighbor);
+                    results.push(-s, neighbor);
+                    if (results.size > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    private float score(Embedding query, int node) {
+        Embedding vector = vectors[node];
+        float[] a = query.data;
+        float[] b = vector.data;
+        int offsetA = query.offset;
+        int offsetB = vector.offset;
+        float sum = 0;
+        for (int d = 0; d < query.dim; d++) {
+            sum += a[offsetA + d] * b[offsetB + d];
+        }
+        return sum;
+    }
+
+    private int randomLevel() {
+        return (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= vectors.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, vectors.length * 2);
+        vectors = Arrays.copyOf(vectors, newCapacity);
+        labels = Arrays.copyOf(labels, newCapacity);
+        deleted = Arrays.copyOf(deleted, newCapacity);
+        links = Arrays.copyOf(links, newCapacity);
+    }
+
+    /**
+     * 以 float 为键的大顶堆，值是节点编号；键取相反数即为小顶堆
+     */
+    private static class Heap {
+        float[] keys;
+        int[] values;
+        int size;
+
+        Heap(int capacity) {
+            keys = new float[Math.max(capacity, 4)];
+            values = new int[keys.length];
+        }
+
+        float topKey() {
+            return keys[0];
+        }
+
+        void push(float key, int value) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] >= key) {
+                    break;
+                }
+                keys[i] = keys[parent];
+                values[i] = values[parent];
+                i = parent;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        int pop() {
+            int top = values[0];
+            size--;
+            float key = keys[size];
+            int value = values[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && keys[child + 1] > keys[child]) {
+                    child++;
+                }
+                if (keys[child] <= key) {
+                    break;
+                }
+                keys[i] = keys[child];
+                values[i] = values[child];
+                i = child;
+            }
+            keys[i] = key;
+            values[i] = value;
+            return top;
+        }
+    }
+
+    /**
+     * 访问标记，用递增的代数代替每次查询清空数组
+     */
+    private static class Visited {
+        int[] marks = new int[0];
+        int generation;
+
+        void reset(int capacity) {
+            if (marks.length < capacity) {
+                marks = new int[Math.max(capacity, marks.length * 2)];
+                generation = 0;
+            }
+            generation++;
+            if (generation == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                generation = 1;
+            }
+        }
+
+        // 标记节点，已经标记过时返回 false
+        boolean mark(int node) {
+            if (marks[node] == generation) {
+                return false;
+            }
+            marks[node] = generation;
+            return true;
+        }
+    }
+}
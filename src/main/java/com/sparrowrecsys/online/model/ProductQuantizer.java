@@ -0,0 +1,235 @@
+package com.sparrowrecsys.online.model;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * ProductQuantizer 类，乘积量化
+ * 向量被切分为若干个连续的子空间，每个子空间用 k-means 训练最多 256 个中心，
+ * 编码是每个子空间中最近的中心的序号，每个子空间一个字节。
+ * 打分时先计算查询向量每个子空间与全部中心的点积（查找表），候选的得分是各子空间查表结果之和。
+ */
+public class ProductQuantizer extends EmbeddingQuantizer {
+    // 每个子空间的最大中心数，保证序号能放进一个字节
+    private static final int MAX_CENTROIDS = 256;
+    // k-means 迭代次数
+    private static final int ITERATIONS = 12;
+    // 参与训练的最大向量数
+    private static final int MAX_TRAINING_VECTORS = 50000;
+
+    private final int dim;
+    // 子空间数量
+    private final int subspaces;
+    // 每个子空间的中心数
+    private final int centroidCount;
+    // 第 s 个子空间的起始维度，subspaceStart[subspaces] == dim
+    private final int[] subspaceStart;
+    // centroids[s] 按行存放第 s 个子空间的中心
+    private final float[][] centroids;
+
+    private ProductQuantizer(int dim, int[] subspaceStart, int centroidCount, float[][] centroids) {
+        this.dim = dim;
+        this.subspaces = subspaceStart.length - 1;
+        this.subspaceStart = subspaceStart;
+        this.centroidCount = centroidCount;
+        this.centroids = centroids;
+    }
+
+    /**
+     * 用 k-means 训练每个子空间的码本
+     * @param vectors 训练向量，可以包含 null
+     * @param count 训练向量数量
+     * @param dim 向量维度
+     * @param subspaceDim 每个子空间的维度，最后一个子空间可能更小
+     * @return 量化器
+     * @throws IllegalArgumentException 没有非空的训练向量
+     */
+    public static ProductQuantizer train(Embedding[] vectors, int count, int dim, int subspaceDim) {
+        subspaceDim = Math.max(1, Math.min(subspaceDim, dim));
+        int subspaces = (dim + subspaceDim - 1) / subspaceDim;
+        int[] subspaceStart = new int[subspaces + 1];
+        for (int s = 0; s < subspaces; s++) {
+            subspaceStart[s] = s * subspaceDim;
+        }
+        subspaceStart[subspaces] = dim;
+
+        // 固定种子抽样，相同的输入得到相同的码本
+        Random random = new Random(42);
+        Embedding[] samples = sample(vectors, count, random);
+        if (samples.length == 0) {
+            throw new IllegalArgumentException("Cannot train pq quantizer without training vectors");
+        }
+        int centroidCount = Math.max(1, Math.min(MAX_CENTROIDS, samples.length));
+        float[][] centroids = new float[subspaces][];
+        for (int s = 0; s < subspaces; s++) {
+            centroids[s] = kMeans(samples, subspaceStart[s], subspaceStart[s + 1] - subspaceStart[s],
+                    centroidCount, random);
+        }
+        return new ProductQuantizer(dim, subspaceStart, centroidCount, centroids);
+    }
+
+    // 取出非空的向量，超过上限时随机抽样
+    private static Embedding[] sample(Embedding[] vectors, int count, Random random) {
+        int nonNull = 0;
+        for (int i = 0; i < count; i++) {
+            if (null != vectors[i]) {
+                nonNull++;
+            }
+        }
+        Embedding[] all = new Embedding[nonNull];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (null != vectors[i]) {
+                all[n++] = vectors[i];
+            }
+        }
+        if (all.length <= MAX_TRAINING_VECTORS) {
+            return all;
+        }
+        // 部分 Fisher-Yates 洗牌
+        for (int i = 0; i < MAX_TRAINING_VECTORS; i++) {
+            int j = i + random.nextInt(all.length - i);
+            Embedding tmp = all[i];
+            all[i] = all[j];
+            all[j] = tmp;
+        }
+        return Arrays.copyOf(all, MAX_TRAINING_VECTORS);
+    }
+
+    // 在 [start, start + subDim) 维上做 k-means，返回按行存放的中心
+    private static float[] kMeans(Embedding[] samples, int start, int subDim, int k, Random random) {
+        float[] centers = new float[k * subDim];
+        // 用随机选择的不同样本初始化中心
+        int[] order = new int[samples.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        for (int c = 0; c < k; c++) {
+            int j = c + random.nextInt(order.length - c);
+            int tmp = order[c];
+            order[c] = order[j];
+            order[j] = tmp;
+            for (int d = 0; d < subDim; d++) {
+                centers[c * subDim + d] = samples[order[c]].get(start + d);
+            }
+        }
+        float[] sums = new float[k * subDim];
+        int[] sizes = new int[k];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            Arrays.fill(sums, 0);
+            Arrays.fill(sizes, 0);
+            for (int i = 0; i < samples.length; i++) {
+                int c = nearest(centers, k, subDim, samples[i], start);
+                sizes[c]++;
+                for (int d = 0; d < subDim; d++) {
+                    sums[c * subDim + d] += samples[i].get(start + d);
+                }
+            }
+            for (int c = 0; c < k; c++) {
+                if (sizes[c] == 0) {
+                    // 空的中心重新取一个随机样本
+                    Embedding emb = samples[random.nextInt(samples.length)];
+                    for (int d = 0; d < subDim; d++) {
+                        centers[c * subDim + d] = emb.get(start + d);
+                    }
+                    continue;
+                }
+                for (int d = 0; d < subDim; d++) {
+                    centers[c * subDim + d] = sums[c * subDim + d] / sizes[c];
+                }
+            }
+        }
+        return centers;
+    }
+
+    // 找到与向量在 [start, start + subDim) 维上欧氏距离最近的中心
+    private static int nearest(float[] centers, int k, int subDim, Embedding emb, int start) {
+        int best = 0;
+        float bestDistance = Float.MAX_VALUE;
+        for (int c = 0; c < k; c++) {
+            float distance = 0;
+            for (int d = 0; d < subDim; d++) {
+                float diff = emb.get(start + d) - centers[c * subDim + d];
+                distance += diff * diff;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public String getName() {
+        return "pq";
+    }
+
+    @Override
+    public int getDim() {
+        return dim;
+    }
+
+    @Override
+    public int getCodeSize() {
+        return subspaces;
+    }
+
+    // 获取每个子空间的中心数
+    public int getCentroidCount() {
+        return centroidCount;
+    }
+
+    @Override
+    public long getCodebookBytes() {
+        return 4L * centroidCount * dim;
+    }
+
+    @Override
+    public void encode(Embedding emb, byte[] codes, int offset) {
+        for (int s = 0; s < subspaces; s++) {
+            int subDim = subspaceStart[s + 1] - subspaceStart[s];
+            codes[offset + s] = (byte) nearest(centroids[s], centroidCount, subDim, emb, subspaceStart[s]);
+        }
+    }
+
+    @Override
+    public void decode(byte[] codes, int offset, float[] target, int targetOffset) {
+        for (int s = 0; s < subspaces; s++) {
+            int subDim = subspaceStart[s + 1] - subspaceStart[s];
+            int c = codes[offset + s] & 0xFF;
+            System.arraycopy(centroids[s], c * subDim, target, targetOffset + subspaceStart[s], subDim);
+        }
+    }
+
+    @Override
+    public void score(Embedding query, byte[] codes, int[] rows, int count, float[] scores) {
+        // table[s * centroidCount + c] 是查询向量第 s 个子空间与第 c 个中心的点积
+        float[] table = new float[subspaces * centroidCount];
+        for (int s = 0; s < subspaces; s++) {
+            int start = subspaceStart[s];
+            int subDim = subspaceStart[s + 1] - start;
+            float[] centers = centroids[s];
+            for (int c = 0; c < centroidCount; c++) {
+                float dot = 0;
+                for (int d = 0; d < subDim; d++) {
+                    dot += query.get(start + d) * centers[c * subDim + d];
+                }
+                table[s * centroidCount + c] = dot;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            if (row < 0) {
+                scores[i] = -1;
+                continue;
+            }
+            int offset = row * subspaces;
+            float sum = 0;
+            for (int s = 0; s < subspaces; s++) {
+                sum += table[s * centroidCount + (codes[offset + s] & 0xFF)];
+            }
+            scores[i] = sum;
+        }
+    }
+}
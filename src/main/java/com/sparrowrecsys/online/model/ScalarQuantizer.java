@@ -0,0 +1,122 @@
+package com.sparrowrecsys.online.model;
+
+import java.util.Arrays;
+
+/**
+ * ScalarQuantizer 类，按维度的 int8 标量量化
+ * 每一维用训练向量在该维上的最小值和最大值把取值线性映射到 0..255，x ≈ min[d] + scale[d] * code。
+ * 点积 Σ q[d] * x[d] ≈ Σ q[d] * min[d] + Σ (q[d] * scale[d]) * code[d]，
+ * 前一项和 q[d] * scale[d] 每个查询只计算一次，候选只需要一次整数到浮点的乘加。
+ */
+public class ScalarQuantizer extends EmbeddingQuantizer {
+    private final int dim;
+    // 每一维的最小值
+    private final float[] min;
+    // 每一维的量化步长
+    private final float[] scale;
+
+    private ScalarQuantizer(float[] min, float[] scale) {
+        this.dim = min.length;
+        this.min = min;
+        this.scale = scale;
+    }
+
+    /**
+     * 根据训练向量每一维的取值范围创建量化器
+     * @param vectors 训练向量，可以包含 null
+     * @param count 训练向量数量
+     * @param dim 向量维度
+     * @return 量化器
+     * @throws IllegalArgumentException 没有非空的训练向量
+     */
+    public static ScalarQuantizer train(Embedding[] vectors, int count, int dim) {
+        int samples = 0;
+        for (int i = 0; i < count; i++) {
+            if (null != vectors[i]) {
+                samples++;
+            }
+        }
+        if (samples == 0) {
+            throw new IllegalArgumentException("Cannot train int8 quantizer without training vectors");
+        }
+        float[] min = new float[dim];
+        float[] max = new float[dim];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        for (int i = 0; i < count; i++) {
+            Embedding emb = vectors[i];
+            if (null == emb) {
+                continue;
+            }
+            for (int d = 0; d < dim; d++) {
+                float x = emb.get(d);
+                min[d] = Math.min(min[d], x);
+                max[d] = Math.max(max[d], x);
+            }
+        }
+        float[] scale = new float[dim];
+        for (int d = 0; d < dim; d++) {
+            scale[d] = (max[d] - min[d]) / 255;
+        }
+        return new ScalarQuantizer(min, scale);
+    }
+
+    @Override
+    public String getName() {
+        return "int8";
+    }
+
+    @Override
+    public int getDim() {
+        return dim;
+    }
+
+    @Override
+    public int getCodeSize() {
+        return dim;
+    }
+
+    @Override
+    public long getCodebookBytes() {
+        return 8L * dim;
+    }
+
+    @Override
+    public void encode(Embedding emb, byte[] codes, int offset) {
+        for (int d = 0; d < dim; d++) {
+            int code = scale[d] > 0 ? Math.round((emb.get(d) - min[d]) / scale[d]) : 0;
+            codes[offset + d] = (byte) Math.max(0, Math.min(255, code));
+        }
+    }
+
+    @Override
+    public void decode(byte[] codes, int offset, float[] target, int targetOffset) {
+        for (int d = 0; d < dim; d++) {
+            target[targetOffset + d] = min[d] + scale[d] * (codes[offset + d] & 0xFF);
+        }
+    }
+
+    @Override
+    public void score(Embedding query, byte[] codes, int[] rows, int count, float[] scores) {
+        float[] weights = new float[dim];
+        float bias = 0;
+        for (int d = 0; d < dim; d++) {
+            float q = query.get(d);
+            weights[d] = q * scale[d];
+            bias += q * min[d];
+        }
+        for (int i = 0; i < count; i++) {
+            int row = rows[i];
+            if (row < 0) {
+                scores[i] = -1;
+                continue;
+            }
+            int offset = row * dim;
+            float sum = bias;
+            for (int d = 0; d < dim; d++) {
+                sum += weights[d] * (codes[offset + d] & 0xFF);
+            }
+            scores[i] = sum;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.sparrowrecsys.online.model;
+
+/**
+ * SimilarityKernel 类，一个查询向量与一批候选向量的批量相似度计算
+ * 候选向量通常是同一个向量矩阵中的行视图，结果写入调用方提供的 float 数组，计算过程不分配内存。
+ * 提供两种实现，通过 Config.SIMILARITY_KERNEL 在运行时选择：
+ *   scalar  逐个候选、逐维相乘并以 double 累加，结果与 Embedding.calculateSimilarity 完全一致
+ *   blocked 每次同时计算四个候选，查询向量的每一维只读取一次，四个累加器互不依赖，便于 JIT 流水执行
+ */
+public abstract class SimilarityKernel {
+    // 逐个候选计算的实现
+    public static final SimilarityKernel SCALAR = new ScalarKernel();
+    // 四个候选一组计算的实现
+    public static final SimilarityKernel BLOCKED = new BlockedKernel();
+
+    /**
+     * 根据名称获取实现，未知的名称返回 BLOCKED
+     * @param name 实现名称，scalar 或 blocked
+     * @return 相似度计算实现
+     */
+    public static SimilarityKernel forName(String name) {
+        return "scalar".equals(name) ? SCALAR : BLOCKED;
+    }
+
+    // 获取实现名称
+    public abstract String getName();
+
+    /**
+     * 计算查询向量与 candidates[0, count) 的点积
+     * @param query 查询向量
+     * @param candidates 候选向量，不能包含 null，维度必须与查询向量相同
+     * @param count 候选数量
+     * @param scores 结果数组，scores[i] 是与 candidates[i] 的点积
+     */
+    public void dot(Embedding query, Embedding[] candidates, int count, float[] scores) {
+        dot(query.data, query.offset, query.dim, candidates, 0, count, scores);
+    }
+
+    /**
+     * 计算查询向量与 candidates[0, count) 的余弦相似度
+     * 查询或候选为 null 或维度不一致时得分为 -1；两个向量都已归一化时只计算点积
+     * @param query 查询向量，可以为 null
+     * @param candidates 候选向量，可以包含 null
+     * @param count 候选数量
+     * @param scores 结果数组，scores[i] 是与 candidates[i] 的余弦相似度
+     */
+    public void cosine(Embedding query, Embedding[] candidates, int count, float[] scores) {
+        if (null == query) {
+            for (int i = 0; i < count; i++) {
+                scores[i] = -1;
+            }
+            return;
+        }
+        if (!query.normalized) {
+            for (int i = 0; i < count; i++) {
+                scores[i] = (float) query.calculateSimilarity(candidates[i]);
+            }
+            return;
+        }
+        int dim = query.dim;
+        int i = 0;
+        while (i < count) {
+            // 连续的已归一化候选一起计算点积，其余的单独处理
+            int end = i;
+            while (end < count && isNormalized(candidates[end], dim)) {
+                end++;
+            }
+            if (end > i) {
+                dot(query.data, query.offset, dim, candidates, i, end, scores);
+                i = end;
+            } else {
+                scores[i] = (float) query.calculateSimilarity(candidates[i]);
+                i++;
+            }
+        }
+    }
+
+    private static boolean isNormalized(Embedding candidate, int dim) {
+        return null != candidate && candidate.normalized && candidate.dim == dim;
+    }
+
+    /**
+     * 计算查询向量与 candidates[from, to) 的点积
+     * @param query 查询向量所在的数组
+     * @param queryOffset 查询向量的起始位置
+     * @param dim 维度，所有候选的维度都与之相同
+     * @param candidates 候选向量，不能包含 null
+     * @param from 第一个候选的位置
+     * @param to 最后一个候选之后的位置
+     * @param scores 结果数组，scores[i] 对应 candidates[i]
+     */
+    abstract void dot(float[] query, int queryOffset, int dim, Embedding[] candidates, int from, int to, float[] scores);
+
+    /**
+     * 逐个候选计算，以 double 累加
+     */
+    private static class ScalarKernel extends SimilarityKernel {
+        @Override
+        public String getName() {
+            return "scalar";
+        }
+
+        @Override
+        void dot(float[] query, int queryOffset, int dim, Embedding[] candidates, int from, int to, float[] scores) {
+            for (int i = from; i < to; i++) {
+                float[] data = candidates[i].data;
+                int offset = candidates[i].offset;
+                double sum = 0;
+                for (int d = 0; d < dim; d++) {
+                    sum += query[queryOffset + d] * data[offset + d];
+                }
+                scores[i] = (float) sum;
+            }
+        }
+    }
+
+    /**
+     * 四个候选一组计算，每个候选各自以 float 顺序累加，结果与分组方式无关
+     */
+    private static class BlockedKernel extends SimilarityKernel {
+        @Override
+        public String getName() {
+            return "blocked";
+        }
+
+        @Override
+        void dot(float[] query, int queryOffset, int dim, Embedding[] candidates, int from, int to, float[] scores) {
+            int i = from;
+            for (; i + 3 < to; i += 4) {
+                float[] data0 = candidates[i].data;
+                float[] data1 = candidates[i + 1].data;
+                float[] data2 = candidates[i + 2].data;
+                float[] data3 = candidates[i + 3].data;
+                int offset0 = candidates[i].offset;
+                int offset1 = candidates[i + 1].offset;
+                int offset2 = candidates[i + 2].offset;
+                int offset3 = candidates[i + 3].offset;
+                float s0 = 0;
+                float s1 = 0;
+                float s2 = 0;
+                float s3 = 0;
+                for (int d = 0; d < dim; d++) {
+                    float q = query[queryOffset + d];
+                    s0 += q * data0[offset0 + d];
+                    s1 += q * data1[offset1 + d];
+                    s2 += q * data2[offset2 + d];
+                    s3 += q * data3[offset3 + d];
+                }
+                scores[i] = s0;
+                scores[i + 1] = s1;
+                scores[i + 2] = s2;
+                scores[i + 3] = s3;
+            }
+            for (; i < to; i++) {
+                float[] data = candidates[i].data;
+                int offset = candidates[i].offset;
+                float sum = 0;
+                for (int d = 0; d < dim; d++) {
+                    sum += query[queryOffset + d] * data[offset + d];
+                }
+                scores[i] = sum;
+            }
+        }
+    }
+}
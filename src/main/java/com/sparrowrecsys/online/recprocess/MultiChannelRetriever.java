@@ -0,0 +1,145 @@
+package com.sparrowrecsys.online.recprocess;
+
+import com.sparrowrecsys.online.datamanager.Movie;
+import com.sparrowrecsys.online.util.Config;
+import com.sparrowrecsys.online.util.IntObjectHashMap;
+import com.sparrowrecsys.online.util.Metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * MultiChannelRetriever 类，并发执行多路召回通道并合并结果
+ * 所有通道在专用线程池中同时开始，请求线程按各通道的时限等待结果：超时的通道被取消并丢弃，不阻塞其他通道；
+ * 线程池已满时通道直接被丢弃。合并时按通道顺序去重，先出现的通道获得该候选的贡献。
+ * 每个通道输出以下指标：
+ *   retrieval.{通道}.latency     通道按时完成的耗时
+ *   retrieval.{通道}.candidates  通道按时返回的候选数
+ *   retrieval.{通道}.contributed 去重后由该通道贡献的候选数
+ *   retrieval.{通道}.timeouts / errors / rejected  超时、异常、线程池已满而被丢弃的次数
+ */
+public class MultiChannelRetriever {
+    // 等待提交的通道任务上限，超过时新的通道被拒绝
+    static final int QUEUE_CAPACITY = 1024;
+
+    private static class ExecutorHolder {
+        static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
+        private static ThreadPoolExecutor createExecutor() {
+            int threads = Math.max(1, Config.RETRIEVAL_THREADS);
+            AtomicInteger threadNumber = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+                        Thread thread = new Thread(runnable, "retrieval-worker-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            Metrics.gauge("retrieval.executor.active", executor::getActiveCount);
+            Metrics.gauge("retrieval.executor.queued", () -> executor.getQueue().size());
+            return executor;
+        }
+    }
+
+    /**
+     * 默认的召回通道：类型、热门、新片、向量和物品协同过滤，使用默认的配额和时限
+     * @return 召回通道列表
+     */
+    public static List<RetrievalChannel> defaultChannels() {
+        int quota = Config.RETRIEVAL_CHANNEL_QUOTA;
+        long deadline = Config.RETRIEVAL_CHANNEL_DEADLINE_MS;
+        return Arrays.asList(
+                RetrievalChannel.genre(quota, deadline),
+                RetrievalChannel.popularity(quota, deadline),
+                RetrievalChannel.recency(quota, deadline),
+                RetrievalChannel.embedding(quota, deadline),
+                RetrievalChannel.itemCf(quota, deadline));
+    }
+
+    /**
+     * 并发执行召回通道，合并去重后返回候选
+     * @param seed 种子电影
+     * @param channels 召回通道，合并时按列表顺序去重
+     * @return 去重后的候选电影，不包括种子电影本身
+     */
+    public static Movie[] retrieve(Movie seed, List<RetrievalChannel> channels) {
+        long startTime = System.nanoTime();
+        List<Future<List<Movie>>> futures = new ArrayList<>(channels.size());
+        for (RetrievalChannel channel : channels) {
+            Future<List<Movie>> future = null;
+            try {
+                future = ExecutorHolder.EXECUTOR.submit(() -> {
+                    List<Movie> candidates = channel.retrieve(seed, channel.getQuota());
+                    Metrics.timer("retrieval." + channel.getName() + ".latency").recordSince(startTime);
+                    return candidates;
+                });
+            } catch (RejectedExecutionException e) {
+                Metrics.counter("retrieval." + channel.getName() + ".rejected").increment();
+            }
+            futures.add(future);
+        }
+
+        IntObjectHashMap<Movie> candidateMap = new IntObjectHashMap<>();
+        candidateMap.put(seed.getMovieId(), seed);
+        for (int i = 0; i < channels.size(); i++) {
+            RetrievalChannel channel = channels.get(i);
+            Future<List<Movie>> future = futures.get(i);
+            if (null == future) {
+                continue;
+            }
+            List<Movie> candidates;
+            try {
+                // 各通道的时限都从请求开始计算，等待前面的通道不会推迟后面通道的时限
+                long remainingNanos = startTime + TimeUnit.MILLISECONDS.toNanos(channel.getDeadlineMillis()) - System.nanoTime();
+                candidates = future.get(Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                Metrics.counter("retrieval." + channel.getName() + ".timeouts").increment();
+                continue;
+            } catch (ExecutionException e) {
+                Metrics.counter("retrieval." + channel.getName() + ".errors").increment();
+                continue;
+            } catch (InterruptedException e) {
+                // 请求线程被中断时放弃尚未完成的通道
+                Thread.currentThread().interrupt();
+                for (int j = i; j < futures.size(); j++) {
+                    if (null != futures.get(j)) {
+                        futures.get(j).cancel(true);
+                    }
+                }
+                break;
+            }
+            if (null == candidates) {
+                continue;
+            }
+            int limit = Math.min(candidates.size(), channel.getQuota());
+            int contributed = 0;
+            for (int j = 0; j < limit; j++) {
+                Movie candidate = candidates.get(j);
+                if (!candidateMap.containsKey(candidate.getMovieId())) {
+                    candidateMap.put(candidate.getMovieId(), candidate);
+                    contributed++;
+                }
+            }
+            Metrics.counter("retrieval." + channel.getName() + ".candidates").add(limit);
+            Metrics.counter("retrieval." + channel.getName() + ".contributed").add(contributed);
+        }
+
+        // 第0个条目是种子电影本身
+        Movie[] result = new Movie[candidateMap.size() - 1];
+        for (int i = 1; i < candidateMap.size(); i++) {
+            result[i - 1] = candidateMap.valueAt(i);
+        }
+        Metrics.timer("retrieval.latency").recordSince(startTime);
+        return result;
+    }
+}
@@ -1,17 +1,26 @@
 package com.sparrowrecsys.online.recprocess;
 
 import com.sparrowrecsys.online.datamanager.DataManager;
+import com.sparrowrecsys.online.datamanager.EmbeddingTable;
 import com.sparrowrecsys.online.datamanager.Movie;
 import com.sparrowrecsys.online.datamanager.RedisClient;
 import com.sparrowrecsys.online.datamanager.User;
+import com.sparrowrecsys.online.model.Embedding;
+import com.sparrowrecsys.online.model.SimilarityKernel;
+import com.sparrowrecsys.online.util.CircuitBreaker;
 import com.sparrowrecsys.online.util.Config;
-import com.sparrowrecsys.online.util.Utility;
-import org.json.JSONArray;
-import org.json.JSONObject;
+import com.sparrowrecsys.online.util.EmbeddingParser;
+import com.sparrowrecsys.online.util.Metrics;
+import com.sparrowrecsys.online.util.ParallelScorer;
+import com.sparrowrecsys.online.util.PredictionBatcher;
+import com.sparrowrecsys.online.util.PredictionCodec;
+import redis.clients.jedis.util.SafeEncoder;
 
 import java.util.*;
-
-import static com.sparrowrecsys.online.util.HttpClient.asyncSinglePostRequest;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * 推荐相似电影的处理类
@@ -35,12 +44,13 @@ public class RecForYouProcess {
         // 获取候选电影列表
         List<Movie> candidates = DataManager.getInstance().getMovies(CANDIDATE_SIZE, "rating");
 
-        // 如果数据源是Redis，从Redis加载用户嵌入向量
+        // 如果数据源是Redis，从Redis加载用户嵌入向量，排序前写入本次请求持有的向量表
+        Embedding redisUserEmb = null;
         if (Config.EMB_DATA_SOURCE.equals(Config.DATA_SOURCE_REDIS)){
-            String userEmbKey = "uEmb:" + userId;
-            String userEmb = RedisClient.getInstance().get(userEmbKey);
+            // 直接解析 Redis 返回的原始字节，不先解码为字符串
+            byte[] userEmb = RedisClient.getInstance().get(SafeEncoder.encode("uEmb:" + userId));
             if (null != userEmb){
-                user.setEmb(Utility.parseEmbStr(userEmb));
+                redisUserEmb = EmbeddingParser.parse(userEmb, 0, userEmb.length, EmbeddingParser.isStrict());
             }
         }
 
@@ -53,16 +63,65 @@ public class RecForYouProcess {
             }
         }
 
-        // 对候选电影进行排序
-        List<Movie> rankedList = ranker(user, candidates, model);
+        // 对候选电影进行排序，排序期间持有同一版本的嵌入向量，不受模型切换影响
+        List<Movie> rankedList;
+        EmbeddingTable embeddings = DataManager.getInstance().acquireEmbeddings();
+        try {
+            if (null != redisUserEmb){
+                embeddings.setUserEmb(user, redisUserEmb);
+            }
+            rankedList = cascadeRanker(embeddings, user, candidates, model, size);
+        } finally {
+            embeddings.release();
+        }
+        return rankedList;
+    }
 
-        // 返回前size个推荐电影
-        if (rankedList.size() > size){
-            return rankedList.subList(0, size);
+    /**
+     * 两阶段排序：精排模型在 Config.RANKING_CASCADE_MODELS 中时，先用 Config.RANKING_PRERANK_MODEL 把候选截取为前
+     * Config.RANKING_PRERANK_SIZE 个，只对这些候选调用精排模型；其他模型直接对全部候选排序
+     * 各阶段的耗时和候选数输出到 ranking.prerank.latency / candidates 和 ranking.{模型}.latency / candidates
+     * @param embeddings 嵌入向量表
+     * @param user 输入的用户
+     * @param candidates 候选电影列表
+     * @param model 用于排序的模型名称
+     * @param size 返回的电影数量
+     * @return 按得分从高到低排列的电影列表
+     */
+    public static List<Movie> cascadeRanker(EmbeddingTable embeddings, User user, List<Movie> candidates, String model, int size){
+        long startTime = System.nanoTime();
+        List<Movie> rankCandidates = candidates;
+        int prerankSize = Math.max(size, Config.RANKING_PRERANK_SIZE);
+        if (isCascadeModel(model) && candidates.size() > prerankSize){
+            rankCandidates = ranker(embeddings, user, candidates, Config.RANKING_PRERANK_MODEL, prerankSize);
+            Metrics.timer("ranking.prerank.latency").recordSince(startTime);
+            Metrics.counter("ranking.prerank.candidates").add(candidates.size());
+            startTime = System.nanoTime();
         }
+        List<Movie> rankedList = ranker(embeddings, user, rankCandidates, model, size);
+        // 未知的模型名称都按默认模型统计，避免请求参数产生任意多的指标
+        String metricModel = METRIC_MODELS.contains(model) ? model : "default";
+        Metrics.timer("ranking." + metricModel + ".latency").recordSince(startTime);
+        Metrics.counter("ranking." + metricModel + ".candidates").add(rankCandidates.size());
         return rankedList;
     }
 
+    // 单独输出排序指标的模型
+    private static final Set<String> METRIC_MODELS = new HashSet<>(Arrays.asList("emb", "nerualcf", "popularity"));
+
+    // 判断模型是否先预排序
+    private static boolean isCascadeModel(String model){
+        if (null == Config.RANKING_PRERANK_MODEL || Config.RANKING_PRERANK_MODEL.isEmpty()){
+            return false;
+        }
+        for (String cascadeModel : Config.RANKING_CASCADE_MODELS.split(",")){
+            if (cascadeModel.trim().equals(model)){
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * 对候选电影进行排序
      * @param user 输入的用户
@@ -71,31 +130,74 @@ public class RecForYouProcess {
      * @return 排序后的电影列表
      */
     public static List<Movie> ranker(User user, List<Movie> candidates, String model){
-        HashMap<Movie, Double> candidateScoreMap = new HashMap<>();
+        EmbeddingTable embeddings = DataManager.getInstance().acquireEmbeddings();
+        try {
+            return ranker(embeddings, user, candidates, model);
+        } finally {
+            embeddings.release();
+        }
+    }
 
+    /**
+     * 使用指定版本的嵌入向量对候选电影进行排序
+     * @param embeddings 嵌入向量表
+     * @param user 输入的用户
+     * @param candidates 候选电影列表
+     * @param model 用于排序的模型名称
+     * @return 排序后的电影列表
+     */
+    public static List<Movie> ranker(EmbeddingTable embeddings, User user, List<Movie> candidates, String model){
+        return ranker(embeddings, user, candidates, model, candidates.size());
+    }
+
+    /**
+     * 使用指定版本的嵌入向量对候选电影打分，只返回得分最高的 size 个
+     * @param embeddings 嵌入向量表
+     * @param user 输入的用户
+     * @param candidates 候选电影列表
+     * @param model 用于排序的模型名称
+     * @param size 返回的电影数量
+     * @return 按得分从高到低排列的电影列表，得分相同时保持候选集中的顺序
+     */
+    public static List<Movie> ranker(EmbeddingTable embeddings, User user, List<Movie> candidates, String model, int size){
+        ParallelScorer.ChunkScorer scorer;
         switch (model){
             case "emb":
-                // 使用嵌入向量计算相似度
-                for (Movie candidate : candidates){
-                    double similarity = calculateEmbSimilarScore(user, candidate);
-                    candidateScoreMap.put(candidate, similarity);
-                }
+                // 使用嵌入向量批量计算相似度
+                Embedding userEmb = embeddings.getUserEmb(user);
+                SimilarityKernel kernel = SimilarityKernel.forName(Config.SIMILARITY_KERNEL);
+                scorer = (from, to, scores) ->
+                        embeddings.movieSimilarities(userEmb, candidates.subList(from, to), kernel, scores);
                 break;
             case "nerualcf":
-                // 调用神经协同过滤模型进行排序
-                callNeuralCFTFServing(user, candidates, candidateScoreMap);
+                // 调用神经协同过滤模型进行排序，远程模型超时、失败或熔断时退回到进程内的emb模型
+                float[] predictions = new float[candidates.size()];
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Config.RANKING_DEADLINE_MS);
+                if (!callNeuralCFTFServing(user, candidates, predictions, deadline)){
+                    Metrics.counter("ranking.nerualcf.fallbacks").increment();
+                    return ranker(embeddings, user, candidates, "emb", size);
+                }
+                scorer = (from, to, scores) -> System.arraycopy(predictions, from, scores, 0, to - from);
+                break;
+            case "popularity":
+                // 按评分人数排序，不需要用户信息
+                scorer = (from, to, scores) -> {
+                    for (int i = from; i < to; i++){
+                        scores[i - from] = candidates.get(i).getRatingNumber();
+                    }
+                };
                 break;
             default:
                 // 默认按候选集中的顺序排序
-                for (int i = 0 ; i < candidates.size(); i++){
-                    candidateScoreMap.put(candidates.get(i), (double)(candidates.size() - i));
-                }
+                scorer = (from, to, scores) -> {
+                    for (int i = from; i < to; i++){
+                        scores[i - from] = candidates.size() - i;
+                    }
+                };
         }
 
-        // 将候选电影按得分排序
-        List<Movie> rankedList = new ArrayList<>();
-        candidateScoreMap.entrySet().stream().sorted(Map.Entry.comparingByValue(Comparator.reverseOrder())).forEach(m -> rankedList.add(m.getKey()));
-        return rankedList;
+        // 选出得分最高的size个候选电影
+        return SimilarMovieProcess.topMovies(candidates, size, scorer);
     }
 
     /**
@@ -105,44 +207,128 @@ public class RecForYouProcess {
      * @return 相似度得分
      */
     public static double calculateEmbSimilarScore(User user, Movie candidate){
-        if (null == user || null == candidate || null == user.getEmb()){
-            return -1;
+        EmbeddingTable embeddings = DataManager.getInstance().acquireEmbeddings();
+        try {
+            return calculateEmbSimilarScore(embeddings, user, candidate);
+        } finally {
+            embeddings.release();
         }
-        return user.getEmb().calculateSimilarity(candidate.getEmb());
     }
 
     /**
-     * 调用TensorFlow Serving获取神经协同过滤模型的推理结果
+     * 根据指定版本的嵌入向量计算相似度得分
+     * @param embeddings 嵌入向量表
      * @param user 输入的用户
-     * @param candidates 候选电影列表
-     * @param candidateScoreMap 保存预测得分的映射
+     * @param candidate 候选电影
+     * @return 相似度得分
      */
-    public static void callNeuralCFTFServing(User user, List<Movie> candidates, HashMap<Movie, Double> candidateScoreMap){
-        if (null == user || null == candidates || candidates.size() == 0){
-            return;
+    public static double calculateEmbSimilarScore(EmbeddingTable embeddings, User user, Movie candidate){
+        if (null == user || null == candidate){
+            return -1;
+        }
+        Embedding userEmb = embeddings.getUserEmb(user);
+        if (null == userEmb){
+            return -1;
         }
+        return userEmb.calculateSimilarity(embeddings.getMovieEmb(candidate));
+    }
+
+    // 合并并发预测请求的批处理器，首次使用时创建
+    private static class BatcherHolder {
+        static final PredictionBatcher BATCHER = new PredictionBatcher(Config.TF_SERVING_PREDICT_URL,
+                Config.NEURALCF_BATCH_WINDOW_MS, Config.NEURALCF_BATCH_MAX_INSTANCES);
+    }
+
+    // TF Serving 的熔断器，首次使用时创建
+    private static class BreakerHolder {
+        static final CircuitBreaker BREAKER = new CircuitBreaker("tfserving",
+                Config.TF_SERVING_BREAKER_FAILURE_THRESHOLD, Config.TF_SERVING_BREAKER_OPEN_MS);
+    }
 
-        // 构建请求的JSON对象
-        JSONArray instances = new JSONArray();
-        for (Movie m : candidates){
-            JSONObject instance = new JSONObject();
-            instance.put("userId", user.getUserId());
-            instance.put("movieId", m.getMovieId());
-            instances.put(instance);
+    /**
+     * 调用TensorFlow Serving预测，启用批处理时与其他并发请求合并为一次调用
+     * @param userIds 用户ID
+     * @param movieIds 电影ID，movieIds[i] 与 userIds[i] 组成一个实例
+     * @param deadline 等待结果的截止时间（System.nanoTime）
+     * @return 按实例顺序排列的得分，失败或超过截止时间时返回null
+     */
+    static float[] predict(int[] userIds, int[] movieIds, long deadline){
+        long remainingNanos = deadline - System.nanoTime();
+        if (remainingNanos <= 0){
+            return null;
+        }
+        if (Config.NEURALCF_BATCH_WINDOW_MS <= 0){
+            return PredictionCodec.predict(Config.TF_SERVING_PREDICT_URL, userIds, movieIds, movieIds.length,
+                    TimeUnit.NANOSECONDS.toMillis(remainingNanos));
         }
+        CompletableFuture<float[]> future = BatcherHolder.BATCHER.submit(userIds, movieIds, deadline);
+        try {
+            return future.get(remainingNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            return null;
+        } catch (ExecutionException | TimeoutException e){
+            // 放弃等待时取消，尚未发送的实例不再发送
+            future.cancel(false);
+            System.out.println("TF Serving prediction failed: " + e);
+            return null;
+        }
+    }
 
-        JSONObject instancesRoot = new JSONObject();
-        instancesRoot.put("instances", instances);
+    /**
+     * 调用TensorFlow Serving获取神经协同过滤模型的推理结果，最多等待 Config.RANKING_DEADLINE_MS
+     * @param user 输入的用户
+     * @param candidates 候选电影列表
+     * @param scores 保存预测得分的数组，scores[i] 对应 candidates.get(i)
+     * @return 是否得到了预测结果
+     */
+    public static boolean callNeuralCFTFServing(User user, List<Movie> candidates, float[] scores){
+        return callNeuralCFTFServing(user, candidates, scores,
+                System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Config.RANKING_DEADLINE_MS));
+    }
 
-        // 需要确认TensorFlow Serving的端点
-        String predictionScores = asyncSinglePostRequest("http://localhost:8501/v1/models/recmodel:predict", instancesRoot.toString());
-        System.out.println("send user" + user.getUserId() + " request to tf serving.");
+    /**
+     * 调用TensorFlow Serving获取神经协同过滤模型的推理结果，熔断期间不发起调用
+     * @param user 输入的用户
+     * @param candidates 候选电影列表
+     * @param scores 保存预测得分的数组，scores[i] 对应 candidates.get(i)
+     * @param deadline 等待结果的截止时间（System.nanoTime）
+     * @return 是否按时得到了预测结果
+     */
+    public static boolean callNeuralCFTFServing(User user, List<Movie> candidates, float[] scores, long deadline){
+        if (null == user || null == candidates || candidates.size() == 0){
+            return false;
+        }
+        // 构建列格式的请求实例
+        int[] userIds = new int[candidates.size()];
+        int[] movieIds = new int[candidates.size()];
+        Arrays.fill(userIds, user.getUserId());
+        for (int i = 0; i < candidates.size(); i++){
+            movieIds[i] = candidates.get(i).getMovieId();
+        }
 
-        // 解析预测结果
-        JSONObject predictionsObject = new JSONObject(predictionScores);
-        JSONArray scores = predictionsObject.getJSONArray("predictions");
-        for (int i = 0 ; i < candidates.size(); i++){
-            candidateScoreMap.put(candidates.get(i), scores.getJSONArray(i).getDouble(0));
+        CircuitBreaker breaker = BreakerHolder.BREAKER;
+        if (!breaker.allowRequest()){
+            return false;
+        }
+        // 调用模型预测，超时、失败和异常都计入熔断器，每次放行的调用恰好报告一次结果，半开状态不会一直等待试探结果
+        boolean success = false;
+        float[] predictions;
+        try {
+            predictions = predict(userIds, movieIds, deadline);
+            success = null != predictions && predictions.length == candidates.size();
+        } finally {
+            if (success){
+                breaker.recordSuccess();
+            } else {
+                breaker.recordFailure();
+            }
+        }
+        if (!success){
+            return false;
         }
+        System.arraycopy(predictions, 0, scores, 0, candidates.size());
+        return true;
     }
 }
\ No newline at end of file
@@ -0,0 +1,188 @@
+package com.sparrowrecsys.online.recprocess;
+
+import com.sparrowrecsys.online.datamanager.DataManager;
+import com.sparrowrecsys.online.datamanager.EmbeddingTable;
+import com.sparrowrecsys.online.datamanager.Movie;
+import com.sparrowrecsys.online.datamanager.Rating;
+import com.sparrowrecsys.online.datamanager.RatingList;
+import com.sparrowrecsys.online.datamanager.RatingStore;
+import com.sparrowrecsys.online.datamanager.User;
+import com.sparrowrecsys.online.util.IntObjectHashMap;
+import com.sparrowrecsys.online.util.TopKSelector;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * RetrievalChannel 类，多路召回中的一路召回通道
+ * 每个通道根据种子电影独立生成候选，带有自己的配额（最多贡献的候选数）和时限，由 MultiChannelRetriever 并发执行。
+ * 通道会在召回线程中运行，实现必须是线程安全的；超时的通道会被中断，耗时较长的实现应检查中断状态。
+ */
+public abstract class RetrievalChannel {
+    // 高评分的阈值，物品协同过滤只统计高评分
+    static final float ITEM_CF_MIN_SCORE = 4.0f;
+    // 物品协同过滤最多遍历的种子电影评分用户数
+    static final int ITEM_CF_MAX_USERS = 200;
+
+    private final String name;
+    private final int quota;
+    private final long deadlineMillis;
+
+    protected RetrievalChannel(String name, int quota, long deadlineMillis) {
+        this.name = name;
+        this.quota = quota;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    // 获取通道名称，用于指标命名
+    public String getName() {
+        return name;
+    }
+
+    // 获取通道的配额
+    public int getQuota() {
+        return quota;
+    }
+
+    // 获取通道的时限，单位为毫秒，从请求开始计算
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * 根据种子电影召回候选
+     * @param seed 种子电影
+     * @param quota 最多返回的候选数量
+     * @return 按通道内的优先级排列的候选电影，可以包含种子电影本身
+     */
+    public abstract List<Movie> retrieve(Movie seed, int quota);
+
+    /**
+     * 类型通道：种子电影每个类型中评分最高的电影，配额在各个类型间平分
+     */
+    public static RetrievalChannel genre(int quota, long deadlineMillis) {
+        return new RetrievalChannel("genre", quota, deadlineMillis) {
+            @Override
+            public List<Movie> retrieve(Movie seed, int quota) {
+                HashSet<String> genres = new HashSet<>(seed.getGenres());
+                List<Movie> candidates = new ArrayList<>();
+                if (genres.isEmpty()) {
+                    return candidates;
+                }
+                int perGenre = (quota + genres.size() - 1) / genres.size();
+                for (String genre : genres) {
+                    candidates.addAll(DataManager.getInstance().getMoviesByGenre(genre, perGenre, "rating"));
+                }
+                return candidates;
+            }
+        };
+    }
+
+    /**
+     * 热门通道：全站评分最高的电影
+     */
+    public static RetrievalChannel popularity(int quota, long deadlineMillis) {
+        return new RetrievalChannel("popularity", quota, deadlineMillis) {
+            @Override
+            public List<Movie> retrieve(Movie seed, int quota) {
+                return DataManager.getInstance().getMovies(quota, "rating");
+            }
+        };
+    }
+
+    /**
+     * 新片通道：上映年份最新的电影
+     */
+    public static RetrievalChannel recency(int quota, long deadlineMillis) {
+        return new RetrievalChannel("recency", quota, deadlineMillis) {
+            @Override
+            public List<Movie> retrieve(Movie seed, int quota) {
+                return DataManager.getInstance().getMovies(quota, "releaseYear");
+            }
+        };
+    }
+
+    /**
+     * 向量通道：与种子电影嵌入向量最相似的电影，有HNSW索引时使用近似最近邻检索
+     * 通道自己持有嵌入向量表的引用，超时后仍在运行时不会读取已释放的版本
+     */
+    public static RetrievalChannel embedding(int quota, long deadlineMillis) {
+        return new RetrievalChannel("embedding", quota, deadlineMillis) {
+            @Override
+            public List<Movie> retrieve(Movie seed, int quota) {
+                EmbeddingTable embeddings = DataManager.getInstance().acquireEmbeddings();
+                try {
+                    List<Movie> candidates = SimilarMovieProcess.retrievalCandidatesByEmbedding(embeddings, seed, quota);
+                    return null == candidates ? new ArrayList<>() : candidates;
+                } finally {
+                    embeddings.release();
+                }
+            }
+        };
+    }
+
+    /**
+     * 物品协同过滤通道：给种子电影打出高评分的用户，同样打出高评分次数最多的电影
+     * 最多遍历 ITEM_CF_MAX_USERS 个用户，共现次数相同时电影ID小的在前
+     */
+    public static RetrievalChannel itemCf(int quota, long deadlineMillis) {
+        return new RetrievalChannel("itemcf", quota, deadlineMillis) {
+            @Override
+            public List<Movie> retrieve(Movie seed, int quota) {
+                List<Movie> candidates = new ArrayList<>();
+                List<Rating> seedRatings = seed.getRatings();
+                if (!(seedRatings instanceof RatingList)) {
+                    return candidates;
+                }
+                RatingList seedList = (RatingList) seedRatings;
+                RatingStore store = seedList.getStore();
+                // 电影ID到共现次数，使用单元素数组避免装箱
+                IntObjectHashMap<int[]> coCounts = new IntObjectHashMap<>();
+                int users = 0;
+                for (int i = 0; i < seedList.size() && users < ITEM_CF_MAX_USERS; i++) {
+                    int seedRow = seedList.rowAt(i);
+                    if (store.getScore(seedRow) < ITEM_CF_MIN_SCORE) {
+                        continue;
+                    }
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                    User user = DataManager.getInstance().getUserById(store.getUserId(seedRow));
+                    if (null == user || !(user.getRatings() instanceof RatingList)) {
+                        continue;
+                    }
+                    users++;
+                    RatingList userList = (RatingList) user.getRatings();
+                    RatingStore userStore = userList.getStore();
+                    for (int j = 0; j < userList.size(); j++) {
+                        int row = userList.rowAt(j);
+                        int movieId = userStore.getMovieId(row);
+                        if (userStore.getScore(row) < ITEM_CF_MIN_SCORE || movieId == seed.getMovieId()) {
+                            continue;
+                        }
+                        int[] count = coCounts.get(movieId);
+                        if (null == count) {
+                            coCounts.put(movieId, new int[]{1});
+                        } else {
+                            count[0]++;
+                        }
+                    }
+                }
+
+                TopKSelector selector = new TopKSelector(quota);
+                for (int i = 0; i < coCounts.size(); i++) {
+                    selector.offer(coCounts.keyAt(i), coCounts.valueAt(i)[0]);
+                }
+                int count = selector.sort();
+                for (int rank = 0; rank < count; rank++) {
+                    Movie candidate = DataManager.getInstance().getMovieById(selector.getId(rank));
+                    if (null != candidate) {
+                        candidates.add(candidate);
+                    }
+                }
+                return candidates;
+            }
+        };
+    }
+}
@@ -1,7 +1,17 @@
 package com.sparrowrecsys.online.recprocess;
 
 import com.sparrowrecsys.online.datamanager.DataManager;
+import com.sparrowrecsys.online.datamanager.EmbeddingTable;
 import com.sparrowrecsys.online.datamanager.Movie;
+import com.sparrowrecsys.online.datamanager.SimilarMovieTable;
+import com.sparrowrecsys.online.model.Embedding;
+import com.sparrowrecsys.online.model.HnswIndex;
+import com.sparrowrecsys.online.model.SimilarityKernel;
+import com.sparrowrecsys.online.util.Config;
+import com.sparrowrecsys.online.util.IntObjectHashMap;
+import com.sparrowrecsys.online.util.Metrics;
+import com.sparrowrecsys.online.util.ParallelScorer;
+import com.sparrowrecsys.online.util.TopKSelector;
 
 import java.util.*;
 
@@ -23,16 +33,77 @@ public class SimilarMovieProcess {
         if (null == movie){
             return new ArrayList<>();
         }
+        // 排序期间持有同一版本的嵌入向量，不受模型切换影响
+        EmbeddingTable embeddings = DataManager.getInstance().acquireEmbeddings();
+        try {
+            // 优先使用离线预计算的相似电影表
+            if (Config.IS_ENABLE_SIMILAR_MOVIE_TABLE){
+                List<Movie> precomputed = precomputedRecList(embeddings, movie, size, model);
+                if (null != precomputed){
+                    Metrics.counter("similarmovie.table.hits").increment();
+                    return precomputed;
+                }
+                Metrics.counter("similarmovie.table.misses").increment();
+            }
+            return computeRecList(embeddings, movie, size, model);
+        } finally {
+            embeddings.release();
+        }
+    }
+
+    /**
+     * 在线生成候选集并排序，得到相似电影列表
+     * @param embeddings 嵌入向量表
+     * @param movie 输入的电影对象
+     * @param size 推荐电影的数量
+     * @param model 用于计算相似度的模型
+     * @return 相似电影列表
+     */
+    public static List<Movie> computeRecList(EmbeddingTable embeddings, Movie movie, int size, String model){
         // 生成候选电影列表
         List<Movie> candidates = candidateGenerator(movie);
         // 对候选电影进行排序
-        List<Movie> rankedList = ranker(movie, candidates, model);
+        return ranker(embeddings, movie, candidates, model, size);
+    }
 
-        // 返回前size个推荐电影
-        if (rankedList.size() > size){
-            return rankedList.subList(0, size);
+    /**
+     * 从离线预计算的相似电影表中读取相似电影列表
+     * @param embeddings 当前的嵌入向量表，emb 模型只使用同一版本向量计算的表
+     * @param movie 输入的电影对象
+     * @param size 推荐电影的数量
+     * @param model 用于计算相似度的模型
+     * @return 相似电影列表，没有可用的表、表中没有该电影或保存的可用相似电影不足 size 个时返回null
+     */
+    static List<Movie> precomputedRecList(EmbeddingTable embeddings, Movie movie, int size, String model){
+        SimilarMovieTable table = DataManager.getInstance().getSimilarMovieTable(model, tableVersionOf(embeddings, model));
+        if (null == table || size > table.getNeighborCount()){
+            return null;
         }
-        return rankedList;
+        int[] movieIds = new int[table.getNeighborCount()];
+        int count = table.read(movie.getMovieId(), movieIds);
+        if (count < size){
+            // 表中没有该电影（count 为 -1）或保存的相似电影不足，在线计算
+            return null;
+        }
+        List<Movie> rankedList = new ArrayList<>(size);
+        for (int i = 0; i < count && rankedList.size() < size; i++){
+            Movie candidate = DataManager.getInstance().getMovieById(movieIds[i]);
+            if (null != candidate){
+                rankedList.add(candidate);
+            }
+        }
+        // 部分相似电影已不在电影库中时同样不足 size
+        return rankedList.size() < size ? null : rankedList;
+    }
+
+    /**
+     * 获取模型对应的相似电影表版本，emb 模型的表与嵌入向量版本绑定，其他模型与版本无关
+     * @param embeddings 嵌入向量表
+     * @param model 用于计算相似度的模型
+     * @return 表的模型版本，与版本无关时为空字符串
+     */
+    public static String tableVersionOf(EmbeddingTable embeddings, String model){
+        return "emb".equals(model) ? embeddings.getVersion() : "";
     }
 
     /**
@@ -41,7 +112,7 @@ public class SimilarMovieProcess {
      * @return 候选电影列表
      */
     public static List<Movie> candidateGenerator(Movie movie){
-        HashMap<Integer, Movie> candidateMap = new HashMap<>();
+        IntObjectHashMap<Movie> candidateMap = new IntObjectHashMap<>();
         // 根据电影类型生成候选集
         for (String genre : movie.getGenres()){
             List<Movie> oneCandidates = DataManager.getInstance().getMoviesByGenre(genre, 100, "rating");
@@ -55,41 +126,15 @@ public class SimilarMovieProcess {
     }
 
     /**
-     * 多重检索候选集生成方法
+     * 多重检索候选集生成方法，类型、热门、新片、向量和物品协同过滤各路召回并发执行，超时的通道被丢弃
      * @param movie 输入的电影对象
-     * @return 候选电影列表
+     * @return 去重后的候选电影列表
      */
     public static List<Movie> multipleRetrievalCandidates(Movie movie){
         if (null == movie){
             return null;
         }
-
-        HashSet<String> genres = new HashSet<>(movie.getGenres());
-
-        HashMap<Integer, Movie> candidateMap = new HashMap<>();
-        // 根据电影类型生成候选集
-        for (String genre : genres){
-            List<Movie> oneCandidates = DataManager.getInstance().getMoviesByGenre(genre, 20, "rating");
-            for (Movie candidate : oneCandidates){
-                candidateMap.put(candidate.getMovieId(), candidate);
-            }
-        }
-
-        // 获取高评分电影作为候选集
-        List<Movie> highRatingCandidates = DataManager.getInstance().getMovies(100, "rating");
-        for (Movie candidate : highRatingCandidates){
-            candidateMap.put(candidate.getMovieId(), candidate);
-        }
-
-        // 获取最新电影作为候选集
-        List<Movie> latestCandidates = DataManager.getInstance().getMovies(100, "releaseYear");
-        for (Movie candidate : latestCandidates){
-            candidateMap.put(candidate.getMovieId(), candidate);
-        }
-
-        // 移除输入的电影本身
-        candidateMap.remove(movie.getMovieId());
-        return new ArrayList<>(candidateMap.values());
+        return new ArrayList<>(Arrays.asList(MultiChannelRetriever.retrieve(movie, MultiChannelRetriever.defaultChannels())));
     }
 
     /**
@@ -99,28 +144,54 @@ public class SimilarMovieProcess {
      * @return 候选电影列表
      */
     public static List<Movie> retrievalCandidatesByEmbedding(Movie movie, int size){
-        if (null == movie || null == movie.getEmb()){
-            return null;
+        EmbeddingTable embeddings = DataManager.getInstance().acquireEmbeddings();
+        try {
+            return retrievalCandidatesByEmbedding(embeddings, movie, size);
+        } finally {
+            embeddings.release();
         }
+    }
 
-        // 获取所有电影并计算相似度
-        List<Movie> allCandidates = DataManager.getInstance().getMovies(10000, "rating");
-        HashMap<Movie,Double> movieScoreMap = new HashMap<>();
-        for (Movie candidate : allCandidates){
-            double similarity = calculateEmbSimilarScore(movie, candidate);
-            movieScoreMap.put(candidate, similarity);
+    /**
+     * 基于指定版本嵌入向量的候选集生成方法
+     * 有HNSW索引时在全部电影中检索最相似的电影，否则精确计算评分最高的10000部电影
+     * @param embeddings 嵌入向量表
+     * @param movie 输入的电影对象
+     * @param size 候选集的大小
+     * @return 按相似度从高到低排列的候选电影列表，不包括输入的电影本身
+     */
+    public static List<Movie> retrievalCandidatesByEmbedding(EmbeddingTable embeddings, Movie movie, int size){
+        Embedding movieEmb = null == movie ? null : embeddings.getMovieEmb(movie);
+        if (null == movieEmb){
+            return null;
         }
 
-        // 对候选电影按相似度排序
-        List<Map.Entry<Movie,Double>> movieScoreList = new ArrayList<>(movieScoreMap.entrySet());
-        movieScoreList.sort(Map.Entry.comparingByValue());
-
-        List<Movie> candidates = new ArrayList<>();
-        for (Map.Entry<Movie,Double> movieScoreEntry : movieScoreList){
-            candidates.add(movieScoreEntry.getKey());
+        HnswIndex index = embeddings.getMovieIndex();
+        if (null != index){
+            // 多取一个，结果中可能包含输入的电影本身
+            int[] movieIds = new int[size + 1];
+            float[] scores = new float[size + 1];
+            int count = Config.EMB_RETRIEVAL_EXACT.equals(Config.EMB_RETRIEVAL_MODE)
+                    ? index.searchExact(movieEmb, size + 1, movieIds, scores)
+                    : index.search(movieEmb, size + 1, movieIds, scores);
+            List<Movie> candidates = new ArrayList<>(size);
+            for (int i = 0; i < count && candidates.size() < size; i++){
+                Movie candidate = DataManager.getInstance().getMovieById(movieIds[i]);
+                if (null != candidate && candidate.getMovieId() != movie.getMovieId()){
+                    candidates.add(candidate);
+                }
+            }
+            return candidates;
         }
 
-        return candidates.subList(0, Math.min(candidates.size(), size));
+        // 获取评分最高的电影并批量计算相似度
+        List<Movie> allCandidates = DataManager.getInstance().getMovies(10000, "rating");
+        SimilarityKernel kernel = SimilarityKernel.forName(Config.SIMILARITY_KERNEL);
+        // 选出相似度最高的电影，多取一个以便移除输入的电影本身
+        List<Movie> candidates = topMovies(allCandidates, size + 1, (from, to, scores) ->
+                embeddings.movieSimilarities(movieEmb, allCandidates.subList(from, to), kernel, scores));
+        candidates.remove(movie);
+        return candidates.size() > size ? candidates.subList(0, size) : candidates;
     }
 
     /**
@@ -131,23 +202,71 @@ public class SimilarMovieProcess {
      * @return 排序后的电影列表
      */
     public static List<Movie> ranker(Movie movie, List<Movie> candidates, String model){
-        HashMap<Movie, Double> candidateScoreMap = new HashMap<>();
-        for (Movie candidate : candidates){
-            double similarity;
-            switch (model){
-                case "emb":
-                    // 使用嵌入向量计算相似度
-                    similarity = calculateEmbSimilarScore(movie, candidate);
-                    break;
-                default:
-                    // 使用默认方法计算相似度
-                    similarity = calculateSimilarScore(movie, candidate);
-            }
-            candidateScoreMap.put(candidate, similarity);
+        EmbeddingTable embeddings = DataManager.getInstance().acquireEmbeddings();
+        try {
+            return ranker(embeddings, movie, candidates, model);
+        } finally {
+            embeddings.release();
+        }
+    }
+
+    /**
+     * 使用指定版本的嵌入向量对候选电影进行排序
+     * @param embeddings 嵌入向量表
+     * @param movie 输入的电影对象
+     * @param candidates 候选电影列表
+     * @param model 用于排序的模型名称
+     * @return 排序后的电影列表
+     */
+    public static List<Movie> ranker(EmbeddingTable embeddings, Movie movie, List<Movie> candidates, String model){
+        return ranker(embeddings, movie, candidates, model, candidates.size());
+    }
+
+    /**
+     * 使用指定版本的嵌入向量对候选电影打分，只返回得分最高的 size 个
+     * @param embeddings 嵌入向量表
+     * @param movie 输入的电影对象
+     * @param candidates 候选电影列表
+     * @param model 用于排序的模型名称
+     * @param size 返回的电影数量
+     * @return 按得分从高到低排列的电影列表，得分相同时保持候选集中的顺序
+     */
+    public static List<Movie> ranker(EmbeddingTable embeddings, Movie movie, List<Movie> candidates, String model, int size){
+        ParallelScorer.ChunkScorer scorer;
+        switch (model){
+            case "emb":
+                // 使用嵌入向量批量计算相似度
+                Embedding movieEmb = embeddings.getMovieEmb(movie);
+                SimilarityKernel kernel = SimilarityKernel.forName(Config.SIMILARITY_KERNEL);
+                scorer = (from, to, scores) ->
+                        embeddings.movieSimilarities(movieEmb, candidates.subList(from, to), kernel, scores);
+                break;
+            default:
+                // 使用默认方法计算相似度
+                scorer = (from, to, scores) -> {
+                    for (int i = from; i < to; i++){
+                        scores[i - from] = (float) calculateSimilarScore(movie, candidates.get(i));
+                    }
+                };
+        }
+        // 选出得分最高的size个候选电影
+        return topMovies(candidates, size, scorer);
+    }
+
+    /**
+     * 对候选电影打分并选出得分最高的 size 个，候选较多时并行打分
+     * @param candidates 候选电影列表
+     * @param size 返回的电影数量
+     * @param scorer 分块打分方法，第 i 个得分对应 candidates.get(i)
+     * @return 按得分从高到低排列的电影列表，得分相同时保持候选集中的顺序
+     */
+    static List<Movie> topMovies(List<Movie> candidates, int size, ParallelScorer.ChunkScorer scorer){
+        TopKSelector selector = ParallelScorer.topK(candidates.size(), size, scorer);
+        int count = selector.size();
+        List<Movie> rankedList = new ArrayList<>(count);
+        for (int rank = 0; rank < count; rank++){
+            rankedList.add(candidates.get(selector.getId(rank)));
         }
-        // 对候选电影按相似度排序
-        List<Movie> rankedList = new ArrayList<>();
-        candidateScoreMap.entrySet().stream().sorted(Map.Entry.comparingByValue(Comparator.reverseOrder())).forEach(m -> rankedList.add(m.getKey()));
         return rankedList;
     }
 
@@ -184,9 +303,29 @@ public class SimilarMovieProcess {
      * @return 相似度得分
      */
     public static double calculateEmbSimilarScore(Movie movie, Movie candidate){
+        EmbeddingTable embeddings = DataManager.getInstance().acquireEmbeddings();
+        try {
+            return calculateEmbSimilarScore(embeddings, movie, candidate);
+        } finally {
+            embeddings.release();
+        }
+    }
+
+    /**
+     * 基于指定版本的嵌入向量计算相似度得分
+     * @param embeddings 嵌入向量表
+     * @param movie 输入的电影对象
+     * @param candidate 候选电影
+     * @return 相似度得分
+     */
+    public static double calculateEmbSimilarScore(EmbeddingTable embeddings, Movie movie, Movie candidate){
         if (null == movie || null == candidate){
             return -1;
         }
-        return movie.getEmb().calculateSimilarity(candidate.getEmb());
+        Embedding movieEmb = embeddings.getMovieEmb(movie);
+        if (null == movieEmb){
+            return -1;
+        }
+        return movieEmb.calculateSimilarity(embeddings.getMovieEmb(candidate));
     }
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+package com.sparrowrecsys.online.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sparrowrecsys.online.util.Metrics;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * MetricsService 类，以JSON格式返回进程内的所有指标
+ */
+public class MetricsService extends HttpServlet {
+    @Override
+    protected void doGet(HttpServletRequest request,
+                         HttpServletResponse response) throws IOException {
+        try {
+            // 设置响应内容类型为JSON
+            response.setContentType("application/json");
+            // 设置响应状态为200 OK
+            response.setStatus(HttpServletResponse.SC_OK);
+            // 设置响应字符编码为UTF-8
+            response.setCharacterEncoding("UTF-8");
+            // 设置允许跨域访问
+            response.setHeader("Access-Control-Allow-Origin", "*");
+
+            ObjectMapper mapper = new ObjectMapper();
+            response.getWriter().println(mapper.writeValueAsString(Metrics.snapshot()));
+        } catch (Exception e) {
+            e.printStackTrace();
+            response.getWriter().println("");
+        }
+    }
+}
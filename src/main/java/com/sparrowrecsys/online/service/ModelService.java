@@ -2,6 +2,8 @@ package com.sparrowrecsys.online.service;
 
 import com.sparrowrecsys.online.config.ModelConfig;
 import com.sparrowrecsys.online.datamanager.DataManager;
+import com.sparrowrecsys.online.datamanager.EmbeddingReloadJob;
+import com.sparrowrecsys.online.datamanager.EmbeddingTable;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
@@ -62,19 +64,19 @@ public class ModelService extends HttpServlet {
                         }
                         String modelDataPath = webRoot + "modeldata/";
 
-                        // 重新加载embedding
-                        DataManager.getInstance().reloadEmbeddings(
+                        // 在后台加载新版本的embedding，校验通过后原子替换，切换完成后再更新当前模型版本
+                        EmbeddingReloadJob job = DataManager.getInstance().submitEmbeddingReload(
                                 modelDataPath,
                                 newVersion.getItemEmbFile(),
-                                newVersion.getUserEmbFile()
+                                newVersion.getUserEmbFile(),
+                                newVersion.name(),
+                                () -> ModelConfig.setCurrentModelVersion(newVersion)
                         );
 
-                        // 更新当前模型版本
-                        ModelConfig.setCurrentModelVersion(newVersion);
-
                         responseJson.put("success", true);
-                        responseJson.put("message", "成功切换到" + newVersion.getDisplayName());
-                        responseJson.put("currentModel", newVersion.name());
+                        responseJson.put("message", "正在切换到" + newVersion.getDisplayName());
+                        responseJson.put("jobId", job.getJobId());
+                        responseJson.put("currentModel", ModelConfig.getCurrentModelVersion().name());
 
                     } catch (Exception e) {
                         responseJson.put("success", false);
@@ -85,6 +87,45 @@ public class ModelService extends HttpServlet {
                     responseJson.put("message", "未指定模型版本");
                 }
 
+            } else if ("status".equals(action)) {
+                // 查询模型切换任务的进度，未指定任务ID时返回最近的任务
+                String jobId = request.getParameter("jobId");
+                EmbeddingReloadJob job = null == jobId
+                        ? DataManager.getInstance().getLatestEmbeddingReloadJob()
+                        : DataManager.getInstance().getEmbeddingReloadJob(jobId);
+                if (null != jobId && null == job) {
+                    responseJson.put("success", false);
+                    responseJson.put("message", "未知的任务: " + jobId);
+                } else {
+                    // 持有引用读取，避免读到模型切换后已清空的旧版本
+                    EmbeddingTable embeddings = DataManager.getInstance().acquireEmbeddings();
+                    try {
+                        responseJson.put("success", true);
+                        responseJson.put("currentModel", ModelConfig.getCurrentModelVersion().name());
+                        responseJson.put("embeddingVersion", embeddings.getVersion());
+                        responseJson.put("embeddingLoadedAt", embeddings.getLoadedAt());
+                        responseJson.put("movieEmbCount", embeddings.getMovieEmbCount());
+                        responseJson.put("userEmbCount", embeddings.getUserEmbCount());
+                        responseJson.put("embeddingQuantization", embeddings.getQuantization());
+                        responseJson.put("embeddingStorageBytes", embeddings.getStorageBytes());
+                    } finally {
+                        embeddings.release();
+                    }
+                    if (null != job) {
+                        JSONObject jobJson = new JSONObject();
+                        jobJson.put("jobId", job.getJobId());
+                        jobJson.put("version", job.getVersion());
+                        jobJson.put("state", job.getState().name());
+                        jobJson.put("done", job.isDone());
+                        jobJson.put("movieEmbCount", job.getMovieEmbCount());
+                        jobJson.put("userEmbCount", job.getUserEmbCount());
+                        jobJson.put("submittedAt", job.getSubmittedAt());
+                        jobJson.put("finishedAt", job.getFinishedAt());
+                        jobJson.put("message", job.getMessage());
+                        responseJson.put("job", jobJson);
+                    }
+                }
+
             } else {
                 responseJson.put("success", false);
                 responseJson.put("message", "无效的操作: " + action);
@@ -0,0 +1,52 @@
+package com.sparrowrecsys.online.service;
+
+import com.sparrowrecsys.online.datamanager.DataManager;
+import org.json.JSONObject;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * RatingService 类，接收用户的新评分，在线更新电影的平均评分、评分数量和有序索引
+ * POST 参数：userId、movieId、rating（0 到 5），timestamp（秒，可选，默认当前时间）
+ */
+public class RatingService extends HttpServlet {
+    @Override
+    protected void doPost(HttpServletRequest request,
+                          HttpServletResponse response) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Access-Control-Allow-Origin", "*");
+
+        JSONObject responseJson = new JSONObject();
+        try {
+            int userId = Integer.parseInt(request.getParameter("userId"));
+            int movieId = Integer.parseInt(request.getParameter("movieId"));
+            float score = Float.parseFloat(request.getParameter("rating"));
+            String timestampParam = request.getParameter("timestamp");
+            long timestamp = null == timestampParam ? System.currentTimeMillis() / 1000 : Long.parseLong(timestampParam);
+
+            if (!(score >= 0 && score <= 5)) {
+                response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                responseJson.put("success", false);
+                responseJson.put("message", "评分超出范围: " + score);
+            } else if (!DataManager.getInstance().addRating(userId, movieId, score, timestamp)) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                responseJson.put("success", false);
+                responseJson.put("message", "未知的电影: " + movieId);
+            } else {
+                response.setStatus(HttpServletResponse.SC_OK);
+                responseJson.put("success", true);
+            }
+        } catch (NumberFormatException | NullPointerException e) {
+            // 缺少参数时 parseInt 抛出 NumberFormatException，parseFloat 抛出 NullPointerException
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            responseJson.put("success", false);
+            responseJson.put("message", "参数不合法: " + e.getMessage());
+        }
+
+        response.getWriter().println(responseJson.toString());
+    }
+}
@@ -0,0 +1,79 @@
+package com.sparrowrecsys.online.util;
+
+/**
+ * CircuitBreaker 类，远程调用的熔断器
+ * 连续失败 failureThreshold 次后打开，打开期间不再发起调用；openMillis 之后进入半开状态，只放行一次试探调用，
+ * 试探成功则关闭，失败则重新打开。
+ * 指标：{名称}.breaker.state（0 关闭，1 打开，2 半开）、{名称}.breaker.opened（打开次数）、
+ * {名称}.breaker.rejected（因熔断而未发起的调用数）。
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    // 半开状态下是否已经放行了试探调用
+    private boolean probing;
+
+    /**
+     * 创建熔断器并注册状态指标
+     * @param name 指标名称前缀
+     * @param failureThreshold 打开熔断器的连续失败次数
+     * @param openMillis 熔断器打开后到允许试探调用的时间（毫秒）
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = openMillis * 1_000_000L;
+        Metrics.gauge(name + ".breaker.state", () -> getState().ordinal());
+    }
+
+    /**
+     * 判断是否允许发起调用，允许时调用方必须随后报告 recordSuccess 或 recordFailure
+     * @return 是否允许调用
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.HALF_OPEN && !probing) {
+            probing = true;
+            return true;
+        }
+        Metrics.counter(name + ".breaker.rejected").increment();
+        return false;
+    }
+
+    // 报告调用成功，关闭熔断器
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+        probing = false;
+    }
+
+    // 报告调用失败，连续失败达到阈值或试探调用失败时打开熔断器
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            probing = false;
+            Metrics.counter(name + ".breaker.opened").increment();
+        }
+    }
+
+    // 获取当前状态
+    public synchronized State getState() {
+        return state;
+    }
+}
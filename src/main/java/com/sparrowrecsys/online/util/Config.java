@@ -18,4 +18,123 @@ public class Config {
 
     // 是否启用A/B测试，默认是false
     public static boolean IS_ENABLE_AB_TEST = false;
-}
\ No newline at end of file
+
+    // 评分数据加载模式常量：Scanner逐行解析
+    public static final String RATING_LOAD_MODE_SCANNER = "scanner";
+    // 评分数据加载模式常量：内存映射并行解析
+    public static final String RATING_LOAD_MODE_MMAP = "mmap";
+
+    // 评分数据的加载模式，默认是内存映射并行解析
+    public static String RATING_LOAD_MODE = Config.RATING_LOAD_MODE_MMAP;
+    // 并行加载评分数据的线程数，默认等于CPU核数
+    public static int RATING_LOAD_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    // 在线评分引起的电影有序索引更新的合并间隔（毫秒），间隔内的评分只标记电影，为0时每条评分立即更新索引
+    public static long SORTED_MOVIE_INDEX_REFRESH_MS = 1000;
+
+    // 是否启用DataManager二进制快照，默认是true
+    public static boolean IS_ENABLE_DATA_SNAPSHOT = true;
+    // 运行时生成的数据（如DataManager二进制快照）的目录，不能放在 webroot 下，否则会被静态资源服务公开下载；
+    // 可以用系统属性 sparrowrecsys.dataDir 指定，默认是工作目录下的 data/
+    public static String DATA_DIR = System.getProperty("sparrowrecsys.dataDir", "data");
+
+    // 从Redis批量加载时每次SCAN和MGET/HGETALL的键数量
+    public static int REDIS_SCAN_BATCH_SIZE = 1000;
+    // 从Redis批量加载时的并行连接数
+    public static int REDIS_LOAD_PARALLELISM = 4;
+
+    // 模型切换时新版本中有嵌入向量的电影的最小比例，低于该比例时放弃切换
+    public static double EMB_MIN_MOVIE_COVERAGE = 0.5;
+
+    // 嵌入向量文本解析模式常量：与原先的 split 加 Float.parseFloat 一致，格式不合法时抛出异常
+    public static final String EMB_PARSE_MODE_STRICT = "strict";
+    // 嵌入向量文本解析模式常量：允许多个空白或逗号分隔，格式不合法的向量被跳过
+    public static final String EMB_PARSE_MODE_LENIENT = "lenient";
+
+    // 嵌入向量文本的解析模式，默认是strict
+    public static String EMB_PARSE_MODE = Config.EMB_PARSE_MODE_STRICT;
+
+    // 加载文本向量文件时，同目录下有不早于它的同名 .bin 二进制向量文件时改为内存映射加载该文件
+    public static boolean IS_ENABLE_BINARY_EMB_FILE = true;
+
+    // 是否使用模型目录中离线预计算的相似电影表（similarMovies_*.bin），表中没有的电影仍然在线计算
+    public static boolean IS_ENABLE_SIMILAR_MOVIE_TABLE = true;
+
+    // 是否监听模型目录中的增量向量文件（*.delta）并在线应用
+    public static boolean IS_ENABLE_EMB_DELTA_WATCHER = true;
+
+    // 批量计算嵌入向量相似度的实现：scalar 逐个候选计算，blocked 四个候选一组计算
+    public static String SIMILARITY_KERNEL = "blocked";
+
+    // 排序阶段并行打分的最小候选数量，少于该数量时在请求线程中串行打分
+    public static int RANKING_PARALLEL_THRESHOLD = 8192;
+    // 并行打分时每个分块的候选数量
+    public static int RANKING_CHUNK_SIZE = 2048;
+    // 并行打分线程池的线程数（包括请求线程），默认等于CPU核数，为1时不并行
+    public static int RANKING_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    // 多路召回线程池的线程数
+    public static int RETRIEVAL_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+    // 多路召回每个通道的默认配额，即最多贡献的候选数
+    public static int RETRIEVAL_CHANNEL_QUOTA = 100;
+    // 多路召回每个通道的默认时限（毫秒），从请求开始计算，超时的通道被丢弃
+    public static long RETRIEVAL_CHANNEL_DEADLINE_MS = 50;
+
+    // 嵌入向量检索方式常量：HNSW近似最近邻索引
+    public static final String EMB_RETRIEVAL_HNSW = "hnsw";
+    // 嵌入向量检索方式常量：精确计算全部电影向量，用于测量召回率
+    public static final String EMB_RETRIEVAL_EXACT = "exact";
+
+    // 基于嵌入向量的候选集检索方式，默认是HNSW索引
+    public static String EMB_RETRIEVAL_MODE = Config.EMB_RETRIEVAL_HNSW;
+    // HNSW每个节点的最大邻居数，第0层为两倍
+    public static int HNSW_M = 16;
+    // HNSW构建索引时的候选集大小
+    public static int HNSW_EF_CONSTRUCTION = 100;
+    // HNSW查询时的候选集大小，越大召回率越高
+    public static int HNSW_EF_SEARCH = 50;
+
+    // 嵌入向量量化方式常量：不量化，保存float矩阵
+    public static final String EMB_QUANTIZATION_NONE = "none";
+    // 嵌入向量量化方式常量：按维度的int8标量量化
+    public static final String EMB_QUANTIZATION_INT8 = "int8";
+    // 嵌入向量量化方式常量：乘积量化
+    public static final String EMB_QUANTIZATION_PQ = "pq";
+
+    // 嵌入向量的存储方式，默认不量化；量化后不构建HNSW索引
+    public static String EMB_QUANTIZATION = Config.EMB_QUANTIZATION_NONE;
+    // 乘积量化每个子空间的维度，每个子空间编码为一个字节
+    public static int EMB_PQ_SUBSPACE_DIM = 2;
+
+    // 异步HTTP客户端（TF Serving 调用）的连接池总连接数
+    public static int HTTP_MAX_CONNECTIONS = 64;
+    // 异步HTTP客户端每个主机的最大连接数
+    public static int HTTP_MAX_CONNECTIONS_PER_ROUTE = 32;
+    // 异步HTTP客户端的建立连接和等待空闲连接的超时（毫秒）
+    public static int HTTP_CONNECT_TIMEOUT_MS = 200;
+    // 异步HTTP客户端等待响应的超时（毫秒）
+    public static int HTTP_RESPONSE_TIMEOUT_MS = 1000;
+    // 服务端没有指定时，空闲连接保持复用的时间（毫秒）
+    public static long HTTP_KEEP_ALIVE_MS = 30000;
+    // 异步HTTP客户端的IO线程数
+    public static int HTTP_IO_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    // TensorFlow Serving 神经协同过滤模型的 :predict 地址
+    public static String TF_SERVING_PREDICT_URL = "http://localhost:8501/v1/models/recmodel:predict";
+    // 合并并发 nerualcf 预测请求的时间窗（毫秒），为0时每个请求单独调用
+    public static double NEURALCF_BATCH_WINDOW_MS = 2;
+    // 合并后一次预测请求的实例数上限
+    public static int NEURALCF_BATCH_MAX_INSTANCES = 8000;
+    // 排序阶段调用远程模型的时间预算（毫秒），超时时退回到进程内的 emb 模型排序
+    public static long RANKING_DEADLINE_MS = 200;
+    // TF Serving 连续失败多少次后熔断，熔断期间直接使用 emb 模型排序
+    public static int TF_SERVING_BREAKER_FAILURE_THRESHOLD = 5;
+    // TF Serving 熔断后到下一次试探调用的时间（毫秒）
+    public static long TF_SERVING_BREAKER_OPEN_MS = 10000;
+    // 级联排序的预排序模型（emb 或 popularity），为空时不预排序
+    public static String RANKING_PRERANK_MODEL = "emb";
+    // 预排序保留的候选数量，只有这些候选进入精排模型
+    public static int RANKING_PRERANK_SIZE = 200;
+    // 先预排序再精排的模型，逗号分隔
+    public static String RANKING_CASCADE_MODELS = "nerualcf";
+}
@@ -0,0 +1,104 @@
+package com.sparrowrecsys.online.util;
+
+import com.sparrowrecsys.online.config.ModelConfig;
+import com.sparrowrecsys.online.datamanager.EmbeddingFile;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 嵌入向量文件转换工具
+ * 把 id:v1 v2 ... 格式的文本向量文件（item2vecEmb.csv、userEmb.csv 等）转换为可以内存映射加载的二进制向量文件
+ * 用法：EmbeddingFileConverter [输入文件 [输出文件] [模型版本]]
+ *   不带参数时转换 modeldata 目录下所有模型版本的向量文件，输出到同目录的同名 .bin 文件
+ */
+public class EmbeddingFileConverter {
+    static final String MODEL_DATA_PATH = "src/main/resources/webroot/modeldata/";
+
+    /**
+     * 转换一个文本向量文件，同一个ID出现多次时以最后一行为准，与文本加载一致
+     * @param textPath 文本向量文件路径
+     * @param binaryPath 二进制向量文件路径
+     * @param modelVersion 写入文件头的模型版本
+     * @return 转换的向量数量
+     * @throws IOException 读写失败，或向量格式不合法、维度不一致
+     */
+    public static int convert(String textPath, String binaryPath, String modelVersion) throws IOException {
+        Map<Integer, float[]> vectors = new HashMap<>();
+        int dim = -1;
+        int lineNumber = 0;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(textPath), StandardCharsets.UTF_8)) {
+            String line;
+            while (null != (line = reader.readLine())) {
+                lineNumber++;
+                int colon = line.indexOf(':');
+                if (colon <= 0 || colon == line.length() - 1 || line.indexOf(':', colon + 1) >= 0) {
+                    continue;
+                }
+                // 支持两种用户ID格式: 纯数字或 "user_数字"
+                int id = Integer.parseInt(line.startsWith("user_") ? line.substring(5, colon) : line.substring(0, colon));
+                float[] vector = new float[Math.max(dim, 1)];
+                int size = EmbeddingParser.parse(line, colon + 1, line.length(), true, vector, 0, vector.length);
+                if (dim < 0) {
+                    dim = size;
+                    vector = new float[dim];
+                    EmbeddingParser.parse(line, colon + 1, line.length(), true, vector, 0, dim);
+                } else if (size != dim) {
+                    throw new IOException("Inconsistent embedding dimension at line " + lineNumber + " of " + textPath
+                            + ": " + size + " vs " + dim);
+                }
+                vectors.put(id, vector);
+            }
+        }
+        if (dim < 0) {
+            throw new IOException("No embeddings in " + textPath);
+        }
+        int[] ids = new int[vectors.size()];
+        int n = 0;
+        for (int id : vectors.keySet()) {
+            ids[n++] = id;
+        }
+        Arrays.sort(ids);
+        float[] matrix = new float[ids.length * dim];
+        for (int i = 0; i < ids.length; i++) {
+            System.arraycopy(vectors.get(ids[i]), 0, matrix, i * dim, dim);
+        }
+        EmbeddingFile.write(binaryPath, modelVersion, dim, ids, matrix);
+        return ids.length;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0) {
+            String textPath = args[0];
+            String binaryPath = args.length > 1 ? args[1] : EmbeddingFile.binaryPathOf(textPath);
+            String modelVersion = args.length > 2 ? args[2] : new File(textPath).getName();
+            convertAndReport(textPath, binaryPath, modelVersion);
+            return;
+        }
+        for (ModelConfig.ModelVersion version : ModelConfig.getAllModelVersions()) {
+            for (String embFile : new String[]{version.getItemEmbFile(), version.getUserEmbFile()}) {
+                String textPath = MODEL_DATA_PATH + embFile;
+                if (!new File(textPath).isFile()) {
+                    System.out.println("Skip missing embedding file " + textPath);
+                    continue;
+                }
+                convertAndReport(textPath, EmbeddingFile.binaryPathOf(textPath), version.name());
+            }
+        }
+    }
+
+    private static void convertAndReport(String textPath, String binaryPath, String modelVersion) throws IOException {
+        long startTime = System.nanoTime();
+        int count = convert(textPath, binaryPath, modelVersion);
+        System.out.printf("Converted %d embeddings from %s to %s (%.1f MB -> %.1f MB), %.2f s.%n", count, textPath,
+                binaryPath, new File(textPath).length() / 1e6, new File(binaryPath).length() / 1e6,
+                (System.nanoTime() - startTime) / 1e9);
+    }
+}
@@ -0,0 +1,320 @@
+package com.sparrowrecsys.online.util;
+
+import com.sparrowrecsys.online.model.Embedding;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * EmbeddingParser 类，把 "v1 v2 v3 ..." 格式的嵌入向量文本直接解析到 float 数组中
+ * 逐个字符扫描 CharSequence 或 byte[]（ASCII），不切分字符串、不装箱，形如 -0.123456 的十进制数值不产生任何对象；
+ * 科学计数法、超过 15 位数字等少见格式以及可能二次舍入的数值退回 Float.parseFloat，解析结果与 Float.parseFloat 逐位一致。
+ * 两种错误处理模式：
+ *   strict  与原先的 split("\\s") 加 Float.parseFloat 一致：元素之间只能有一个空白字符，允许末尾的空白，
+ *           格式不合法时抛出 NumberFormatException
+ *   lenient 元素之间可以是任意多个空白或逗号，忽略首尾的分隔符，格式不合法或没有元素时返回 -1（或 null），不抛异常
+ */
+public class EmbeddingParser {
+    // 快速路径的最大数字位数，尾数不超过 2^53，10 的幂次也能被 double 精确表示
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = new double[MAX_FAST_DIGITS + 1];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    // 按 Config.EMB_PARSE_MODE 判断是否使用 strict 模式
+    public static boolean isStrict() {
+        return !Config.EMB_PARSE_MODE_LENIENT.equals(Config.EMB_PARSE_MODE);
+    }
+
+    /**
+     * 解析 text 中 [start, end) 区间的向量，写入 target 数组
+     * @param text 向量文本
+     * @param start 起始位置
+     * @param end 结束位置（不包含）
+     * @param strict 是否使用 strict 模式
+     * @param target 结果数组
+     * @param offset 结果的起始位置
+     * @param capacity 最多写入的元素个数，超出的元素只校验不写入
+     * @return 文本中的元素个数，可能大于 capacity；lenient 模式下格式不合法时返回 -1
+     * @throws NumberFormatException strict 模式下格式不合法
+     */
+    public static int parse(CharSequence text, int start, int end, boolean strict, float[] target, int offset, int capacity) {
+        int count = 0;
+        int i = start;
+        while (true) {
+            if (!strict) {
+                while (i < end && isLenientSeparator(text.charAt(i))) {
+                    i++;
+                }
+                if (i == end) {
+                    return count > 0 ? count : -1;
+                }
+            } else if (i == end) {
+                if (count == 0) {
+                    throw new NumberFormatException("Empty embedding");
+                }
+                return count;
+            } else if (isWhitespace(text.charAt(i))) {
+                // 只有 strict 模式会出现空元素：开头的分隔符或连续的分隔符
+                throw new NumberFormatException("Empty embedding value at position " + i);
+            }
+            try {
+                i = parseValue(text, i, end, strict, target, count < capacity ? offset + count : -1);
+            } catch (NumberFormatException e) {
+                if (strict) {
+                    throw e;
+                }
+                return -1;
+            }
+            count++;
+            if (strict && i < end) {
+                // 跳过一个分隔符，末尾的空白与 split 一样被忽略
+                i++;
+                if (isTrailingWhitespace(text, i, end)) {
+                    return count;
+                }
+            }
+        }
+    }
+
+    /**
+     * 解析 ASCII 字节数组中 [start, end) 区间的向量，写入 target 数组，用于直接处理 Redis 返回的原始字节
+     * 参数和返回值与 parse(CharSequence, ...) 相同
+     */
+    public static int parse(byte[] text, int start, int end, boolean strict, float[] target, int offset, int capacity) {
+        int count = 0;
+        int i = start;
+        while (true) {
+            if (!strict) {
+                while (i < end && isLenientSeparator((char) text[i])) {
+                    i++;
+                }
+                if (i == end) {
+                    return count > 0 ? count : -1;
+                }
+            } else if (i == end) {
+                if (count == 0) {
+                    throw new NumberFormatException("Empty embedding");
+                }
+                return count;
+            } else if (isWhitespace((char) text[i])) {
+                throw new NumberFormatException("Empty embedding value at position " + i);
+            }
+            try {
+                i = parseValue(text, i, end, strict, target, count < capacity ? offset + count : -1);
+            } catch (NumberFormatException e) {
+                if (strict) {
+                    throw e;
+                }
+                return -1;
+            }
+            count++;
+            if (strict && i < end) {
+                i++;
+                if (isTrailingWhitespace(text, i, end)) {
+                    return count;
+                }
+            }
+        }
+    }
+
+    /**
+     * 解析 text 中 [start, end) 区间的向量为一个新的 Embedding
+     * @return 解析结果；lenient 模式下格式不合法时返回 null
+     * @throws NumberFormatException strict 模式下格式不合法
+     */
+    public static Embedding parse(CharSequence text, int start, int end, boolean strict) {
+        float[] vector = new float[16];
+        int dim = parse(text, start, end, strict, vector, 0, vector.length);
+        if (dim > vector.length) {
+            vector = new float[dim];
+            parse(text, start, end, strict, vector, 0, vector.length);
+        }
+        return dim < 0 ? null : new Embedding(vector, 0, dim);
+    }
+
+    /**
+     * 解析 ASCII 字节数组中 [start, end) 区间的向量为一个新的 Embedding
+     * @return 解析结果；lenient 模式下格式不合法时返回 null
+     * @throws NumberFormatException strict 模式下格式不合法
+     */
+    public static Embedding parse(byte[] text, int start, int end, boolean strict) {
+        float[] vector = new float[16];
+        int dim = parse(text, start, end, strict, vector, 0, vector.length);
+        if (dim > vector.length) {
+            vector = new float[dim];
+            parse(text, start, end, strict, vector, 0, vector.length);
+        }
+        return dim < 0 ? null : new Embedding(vector, 0, dim);
+    }
+
+    // 解析整个字符串为一个新的 Embedding，模式由 Config.EMB_PARSE_MODE 决定
+    public static Embedding parse(CharSequence text) {
+        return parse(text, 0, text.length(), isStrict());
+    }
+
+    // 与 \s 一致的空白字符
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isLenientSeparator(char c) {
+        return c == ',' || isWhitespace(c);
+    }
+
+    private static boolean isSeparator(char c, boolean strict) {
+        return strict ? isWhitespace(c) : isLenientSeparator(c);
+    }
+
+    private static boolean isTrailingWhitespace(CharSequence text, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (!isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isTrailingWhitespace(byte[] text, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (!isWhitespace((char) text[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 从 i 开始解析一个数值，快速路径只处理符号、整数部分和小数部分，指数等其他格式退回 Float.parseFloat
+     * 方法保持足够小以便被 JIT 内联到解析循环中
+     * @param index 结果在 target 中的位置，小于 0 时不写入
+     * @return 数值之后的位置，即分隔符或 end
+     */
+    private static int parseValue(CharSequence text, int i, int end, boolean strict, float[] target, int index) {
+        int start = i;
+        char c = text.charAt(i);
+        if (c == '-' || c == '+') {
+            i++;
+        }
+        // 整数部分和小数部分分开扫描，循环里只有数字判断
+        long mantissa = 0;
+        int digitStart = i;
+        for (; i < end; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            mantissa = mantissa * 10 + digit;
+        }
+        int digits = i - digitStart;
+        int fractionDigits = 0;
+        if (i < end && text.charAt(i) == '.') {
+            int fractionStart = ++i;
+            for (; i < end; i++) {
+                int digit = text.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                mantissa = mantissa * 10 + digit;
+            }
+            fractionDigits = i - fractionStart;
+            digits += fractionDigits;
+        }
+        if (digits == 0 || digits > MAX_FAST_DIGITS || i < end && !isSeparator(text.charAt(i), strict)) {
+            return parseSlow(text, start, end, strict, target, index);
+        }
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        if (isFloatMidpoint(value)) {
+            return parseSlow(text, start, end, strict, target, index);
+        }
+        if (index >= 0) {
+            target[index] = (float) (c == '-' ? -value : value);
+        }
+        return i;
+    }
+
+    private static int parseValue(byte[] text, int i, int end, boolean strict, float[] target, int index) {
+        int start = i;
+        byte c = text[i];
+        if (c == '-' || c == '+') {
+            i++;
+        }
+        long mantissa = 0;
+        int digitStart = i;
+        for (; i < end; i++) {
+            int digit = text[i] - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            mantissa = mantissa * 10 + digit;
+        }
+        int digits = i - digitStart;
+        int fractionDigits = 0;
+        if (i < end && text[i] == '.') {
+            int fractionStart = ++i;
+            for (; i < end; i++) {
+                int digit = text[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                mantissa = mantissa * 10 + digit;
+            }
+            fractionDigits = i - fractionStart;
+            digits += fractionDigits;
+        }
+        if (digits == 0 || digits > MAX_FAST_DIGITS || i < end && !isSeparator((char) text[i], strict)) {
+            return parseSlow(text, start, end, strict, target, index);
+        }
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        if (isFloatMidpoint(value)) {
+            return parseSlow(text, start, end, strict, target, index);
+        }
+        if (index >= 0) {
+            target[index] = (float) (c == '-' ? -value : value);
+        }
+        return i;
+    }
+
+    // 退回 Float.parseFloat 解析到下一个分隔符为止的数值，格式不合法时抛出 NumberFormatException
+    private static int parseSlow(CharSequence text, int i, int end, boolean strict, float[] target, int index) {
+        int start = i;
+        while (i < end && !isSeparator(text.charAt(i), strict)) {
+            i++;
+        }
+        float value = Float.parseFloat(text.subSequence(start, i).toString());
+        if (index >= 0) {
+            target[index] = value;
+        }
+        return i;
+    }
+
+    private static int parseSlow(byte[] text, int i, int end, boolean strict, float[] target, int index) {
+        int start = i;
+        while (i < end && !isSeparator((char) text[i], strict)) {
+            i++;
+        }
+        float value = Float.parseFloat(asString(text, start, i));
+        if (index >= 0) {
+            target[index] = value;
+        }
+        return i;
+    }
+
+    /**
+     * 判断 double 是否恰好落在两个相邻 float 的中点上
+     * 快速路径先把十进制数正确舍入为 double（尾数和 10 的幂次都能被 double 精确表示，商是正确舍入的），再转为 float。
+     * float 的中点都能被 double 精确表示，十进制数与其最近的 double 位于每个中点的同一侧，
+     * 只有 double 恰好等于中点时第二次舍入可能与直接舍入为 float 不同，这时退回 Float.parseFloat。
+     * 快速路径的数值不小于 1e-15，都是 float 的规格化数，中点的 double 尾数低 29 位为 1 后跟 28 个 0
+     */
+    private static boolean isFloatMidpoint(double value) {
+        return (Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) == 0x10000000L;
+    }
+
+    private static String asString(byte[] text, int start, int end) {
+        return new String(text, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -2,62 +2,199 @@ package com.sparrowrecsys.online.util;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * HttpClient 类，提供异步HTTP请求的功能
+ * 所有请求共用一个长期运行的异步客户端，连接池限制总连接数和每个主机的连接数，连接在响应之后保持复用。
+ * 客户端在 RecSysServer 启动时通过 start 创建、停止时通过 shutdown 关闭，没有显式启动时在第一次请求时创建。
+ * 连接池的状态通过 /getmetrics 输出：http.pool.leased（使用中）、http.pool.pending（等待连接的请求）、
+ * http.pool.available（空闲可复用）和 http.pool.max（连接上限）。
  */
 public class HttpClient {
+    // 共用的异步客户端和它的连接池，未启动时为 null；请求路径上无锁读取，只有启动和关闭持有类锁
+    private static volatile CloseableHttpAsyncClient client;
+    private static volatile PoolingNHttpClientConnectionManager connectionManager;
 
     /**
-     * 发送异步POST请求
+     * 启动共用的异步客户端，已经启动时直接返回
+     * 连接池大小、超时和连接保持时间取自 Config 中的 HTTP_* 配置
+     */
+    public static synchronized void start() {
+        if (null != client) {
+            return;
+        }
+        try {
+            IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                    .setConnectTimeout(Config.HTTP_CONNECT_TIMEOUT_MS)
+                    .setSoTimeout(Config.HTTP_RESPONSE_TIMEOUT_MS)
+                    .setIoThreadCount(Math.max(1, Config.HTTP_IO_THREADS))
+                    .setTcpNoDelay(true)
+                    .build();
+            PoolingNHttpClientConnectionManager manager =
+                    new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactorConfig));
+            manager.setMaxTotal(Config.HTTP_MAX_CONNECTIONS);
+            manager.setDefaultMaxPerRoute(Config.HTTP_MAX_CONNECTIONS_PER_ROUTE);
+            RequestConfig requestConfig = RequestConfig.custom()
+                    .setConnectTimeout(Config.HTTP_CONNECT_TIMEOUT_MS)
+                    .setSocketTimeout(Config.HTTP_RESPONSE_TIMEOUT_MS)
+                    .setConnectionRequestTimeout(Config.HTTP_CONNECT_TIMEOUT_MS)
+                    .build();
+            CloseableHttpAsyncClient asyncClient = HttpAsyncClients.custom()
+                    .setConnectionManager(manager)
+                    .setDefaultRequestConfig(requestConfig)
+                    .setKeepAliveStrategy((response, context) -> {
+                        // 服务端指定了保持时间时使用服务端的值，否则使用配置的保持时间
+                        long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                        return keepAlive > 0 ? keepAlive : Config.HTTP_KEEP_ALIVE_MS;
+                    })
+                    .build();
+            asyncClient.start();
+            connectionManager = manager;
+            client = asyncClient;
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("Failed to start async http client: " + e.getMessage(), e);
+        }
+        Metrics.gauge("http.pool.leased", () -> poolStats().getLeased());
+        Metrics.gauge("http.pool.pending", () -> poolStats().getPending());
+        Metrics.gauge("http.pool.available", () -> poolStats().getAvailable());
+        Metrics.gauge("http.pool.max", () -> poolStats().getMax());
+    }
+
+    /**
+     * 关闭共用的异步客户端和全部连接，之后的请求会重新启动客户端
+     */
+    public static synchronized void shutdown() {
+        CloseableHttpAsyncClient closing = client;
+        if (null == closing) {
+            return;
+        }
+        // 先清空引用，之后的请求重新启动客户端，不再拿到正在关闭的客户端
+        client = null;
+        connectionManager = null;
+        try {
+            closing.close();
+        } catch (IOException e) {
+            System.out.println("Failed to close async http client: " + e.getMessage());
+        }
+    }
+
+    // 获取共用的异步客户端，已启动时不加锁，未启动时在类锁内再次检查后启动
+    private static CloseableHttpAsyncClient client() {
+        CloseableHttpAsyncClient current = client;
+        if (null == current) {
+            synchronized (HttpClient.class) {
+                start();
+                current = client;
+            }
+        }
+        return current;
+    }
+
+    // 获取连接池的当前状态，客户端未启动时全部为0，不加锁
+    private static PoolStats poolStats() {
+        PoolingNHttpClientConnectionManager manager = connectionManager;
+        return null == manager ? new PoolStats(0, 0, 0, 0) : manager.getTotalStats();
+    }
+
+    /**
+     * 发送异步POST请求，最多等待 Config.HTTP_RESPONSE_TIMEOUT_MS
      * @param host 请求的主机地址
      * @param body 请求的内容
-     * @return 响应内容
+     * @return 响应内容，请求失败或超时时返回null
      */
     public static String asyncSinglePostRequest(String host, String body){
+        return asyncSinglePostRequest(host, body, Config.HTTP_RESPONSE_TIMEOUT_MS);
+    }
+
+    /**
+     * 发送异步POST请求，最多等待 timeoutMillis
+     * @param host 请求的主机地址
+     * @param body 请求的内容
+     * @param timeoutMillis 等待响应的时间（毫秒）
+     * @return 响应内容，请求失败或超时时返回null
+     */
+    public static String asyncSinglePostRequest(String host, String body, long timeoutMillis){
         if (null == body || body.isEmpty()){
             return null; // 如果请求内容为空，返回null
         }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        return asyncPostRequest(host, bytes, bytes.length, timeoutMillis, HttpClient::getRespondContent);
+    }
+
+    /**
+     * 响应的读取方式，在请求线程中调用
+     * @param <T> 读取结果的类型
+     */
+    public interface ResponseReader<T> {
+        T read(HttpResponse response) throws Exception;
+    }
 
+    /**
+     * 发送异步POST请求，最多等待 timeoutMillis，由 reader 直接读取响应内容
+     * 请求超时后 body 可能仍在被IO线程发送，调用方不能立即复用它
+     * @param host 请求的主机地址
+     * @param body 请求内容的缓冲
+     * @param length 请求内容的字节数
+     * @param timeoutMillis 等待响应的时间（毫秒）
+     * @param reader 响应的读取方式
+     * @param <T> 读取结果的类型
+     * @return 读取结果，请求失败、超时或读取失败时返回null
+     */
+    public static <T> T asyncPostRequest(String host, byte[] body, int length, long timeoutMillis, ResponseReader<T> reader){
+        long startTime = System.nanoTime();
+        Future<HttpResponse> future = null;
         try {
-            // 创建异步HTTP客户端
-            final CloseableHttpAsyncClient client = HttpAsyncClients.createDefault();
-            client.start(); // 启动客户端
-            // 将请求内容转换为HttpEntity
-            HttpEntity bodyEntity = new ByteArrayEntity(body.getBytes(StandardCharsets.UTF_8));
             // 创建POST请求
             HttpPost request = new HttpPost(host);
-            request.setEntity(bodyEntity); // 设置请求内容
-            // 发送请求并获取响应
-            final Future<HttpResponse> future = client.execute(request, null);
-            final HttpResponse response = future.get();
-            client.close(); // 关闭客户端
-            return getRespondContent(response); // 返回响应内容
+            request.setEntity(new ByteArrayEntity(body, 0, length)); // 设置请求内容
+            // 发送请求并等待响应
+            future = client().execute(request, null);
+            final HttpResponse response = future.get(Math.max(0, timeoutMillis), TimeUnit.MILLISECONDS);
+            T content = reader.read(response); // 读取响应内容，连接随后归还连接池
+            Metrics.timer("http.latency").recordSince(startTime);
+            return content;
+        }catch (TimeoutException e){
+            future.cancel(true);
+            Metrics.counter("http.timeouts").increment();
+            System.out.println("Http request to " + host + " timed out after " + timeoutMillis + " ms.");
+            return null;
         }catch (Exception e){
-            e.printStackTrace();
-            return "";
+            Metrics.counter("http.errors").increment();
+            System.out.println("Http request to " + host + " failed: " + e);
+            return null;
         }
     }
 
     /**
-     * 发送多个异步POST请求
+     * 发送多个异步POST请求，所有请求共用 Config.HTTP_RESPONSE_TIMEOUT_MS 的等待时间
      * @param host 请求的主机地址
      * @param bodyMap 请求内容的映射
-     * @return 响应内容的映射
+     * @return 响应内容的映射，失败或超时的请求不在结果中
      * @throws Exception 如果发生异常
      */
     public static Map<String, String> asyncMapPostRequest(String host, Map<String, String> bodyMap) throws Exception {
@@ -65,34 +202,31 @@ public class HttpClient {
             return null; // 如果请求内容映射为空，返回null
         }
 
-        try {
-            // 创建异步HTTP客户端
-            final CloseableHttpAsyncClient client = HttpAsyncClients.createDefault();
-            client.start(); // 启动客户端
-
-            // 存储Future对象的映射
-            HashMap<String, Future<HttpResponse>> futures = new HashMap<>();
-            for (Map.Entry<String, String> bodyEntry : bodyMap.entrySet()) {
-                String body = bodyEntry.getValue();
-                HttpEntity bodyEntity = new ByteArrayEntity(body.getBytes(StandardCharsets.UTF_8));
-                HttpPost request = new HttpPost(host);
-                request.setEntity(bodyEntity);
-                futures.put(bodyEntry.getKey(), client.execute(request, null));
-            }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Config.HTTP_RESPONSE_TIMEOUT_MS);
+        // 存储Future对象的映射
+        HashMap<String, Future<HttpResponse>> futures = new HashMap<>();
+        for (Map.Entry<String, String> bodyEntry : bodyMap.entrySet()) {
+            String body = bodyEntry.getValue();
+            HttpEntity bodyEntity = new ByteArrayEntity(body.getBytes(StandardCharsets.UTF_8));
+            HttpPost request = new HttpPost(host);
+            request.setEntity(bodyEntity);
+            futures.put(bodyEntry.getKey(), client().execute(request, null));
+        }
 
-            // 存储响应内容的映射
-            HashMap<String, String> responds = new HashMap<>();
-            for (Map.Entry<String, Future<HttpResponse>> future : futures.entrySet()) {
-                final HttpResponse response = future.getValue().get();
+        // 存储响应内容的映射
+        HashMap<String, String> responds = new HashMap<>();
+        for (Map.Entry<String, Future<HttpResponse>> future : futures.entrySet()) {
+            try {
+                final HttpResponse response = future.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
                 responds.put(future.getKey(), getRespondContent(response));
+            } catch (TimeoutException e) {
+                future.getValue().cancel(true);
+                Metrics.counter("http.timeouts").increment();
+            } catch (ExecutionException e) {
+                Metrics.counter("http.errors").increment();
             }
-
-            client.close(); // 关闭客户端
-            return responds; // 返回响应内容的映射
-        }catch (Exception e){
-            e.printStackTrace();
-            return null;
         }
+        return responds; // 返回响应内容的映射
     }
 
     /**
@@ -137,5 +271,6 @@ public class HttpClient {
 
         // 发送异步POST请求并打印响应内容
         System.out.println(asyncSinglePostRequest("http://localhost:8501/v1/models/recmodel:predict", instancesRoot.toString()));
+        shutdown();
     }
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+package com.sparrowrecsys.online.util;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * IntObjectHashMap 类，以 int 为键的开放寻址哈希表，避免 HashMap&lt;Integer, V&gt; 的装箱和节点开销
+ * 键值对按插入顺序紧凑存放在 keys/values 数组中，哈希槽 slots 只保存条目位置，线性探测解决冲突。
+ * 迭代顺序即插入顺序；删除时把最后一个条目移到被删除的位置。
+ * 非线程安全，填充完成后可以被多个线程并发读取。
+ * @param <V> 值类型
+ */
+public class IntObjectHashMap<V> {
+    // 哈希槽的最大装载因子
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // 按插入顺序存放的键
+    private int[] keys;
+    // 按插入顺序存放的值
+    private Object[] values;
+    // 哈希槽，保存条目位置加一，0 表示空槽
+    private int[] slots;
+    private int mask;
+    private int size;
+
+    // 默认构造函数
+    public IntObjectHashMap() {
+        this(16);
+    }
+
+    // 带初始容量的构造函数
+    public IntObjectHashMap(int expectedSize) {
+        int capacity = Math.max(4, expectedSize);
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+        int slotCount = tableSizeFor((int) Math.ceil(capacity / LOAD_FACTOR));
+        this.slots = new int[slotCount];
+        this.mask = slotCount - 1;
+        this.size = 0;
+    }
+
+    // 获取键对应的值，不存在时返回 null
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int[] slots = this.slots;
+        int mask = this.mask;
+        int index = hash(key) & mask;
+        while (true) {
+            int position = slots[index];
+            if (position == 0) {
+                return null;
+            }
+            if (keys[position - 1] == key) {
+                return (V) values[position - 1];
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    // 判断是否包含指定的键
+    public boolean containsKey(int key) {
+        return findSlot(key) >= 0;
+    }
+
+    /**
+     * 插入或替换键值对
+     * @param key 键
+     * @param value 值，不能为 null
+     * @return 被替换的旧值，新插入时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (null == value) {
+            throw new IllegalArgumentException("Null values are not supported");
+        }
+        int index = hash(key) & mask;
+        while (true) {
+            int position = slots[index];
+            if (position == 0) {
+                break;
+            }
+            if (keys[position - 1] == key) {
+                V old = (V) values[position - 1];
+                values[position - 1] = value;
+                return old;
+            }
+            index = (index + 1) & mask;
+        }
+        if (size == keys.length) {
+            int newCapacity = size + (size >> 1) + 1;
+            keys = Arrays.copyOf(keys, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+        if (size > (int) (slots.length * LOAD_FACTOR)) {
+            rehash(slots.length << 1);
+        } else {
+            slots[index] = size;
+        }
+        return null;
+    }
+
+    /**
+     * 删除键值对，最后一个条目会被移动到被删除的位置
+     * @param key 键
+     * @return 被删除的值，不存在时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return null;
+        }
+        int position = slots[slot] - 1;
+        V old = (V) values[position];
+        deleteSlot(slot);
+
+        int last = size - 1;
+        if (position != last) {
+            // 把最后一个条目移到空出的位置，并修正它的哈希槽
+            int lastSlot = findSlot(keys[last]);
+            keys[position] = keys[last];
+            values[position] = values[last];
+            slots[lastSlot] = position + 1;
+        }
+        values[last] = null;
+        size--;
+        return old;
+    }
+
+    // 获取条目数量
+    public int size() {
+        return size;
+    }
+
+    // 判断是否为空
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // 清空所有条目
+    public void clear() {
+        Arrays.fill(values, 0, size, null);
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+
+    // 获取第 i 个条目的键，i 的范围为 [0, size)
+    public int keyAt(int i) {
+        return keys[i];
+    }
+
+    // 获取第 i 个条目的值，i 的范围为 [0, size)
+    @SuppressWarnings("unchecked")
+    public V valueAt(int i) {
+        return (V) values[i];
+    }
+
+    // 获取按插入顺序排列的只读值视图
+    public List<V> values() {
+        return new ValueView();
+    }
+
+    // 估算本结构占用的堆内存字节数，不含值对象本身
+    public long estimateMemoryBytes() {
+        return 16L + 4L * keys.length + 4L * values.length + 4L * slots.length + 48;
+    }
+
+    private int findSlot(int key) {
+        int index = hash(key) & mask;
+        while (true) {
+            int position = slots[index];
+            if (position == 0) {
+                return -1;
+            }
+            if (keys[position - 1] == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    // 删除哈希槽，并把后续同一探测链上的槽向前移动，保证查找不会中断
+    private void deleteSlot(int slot) {
+        int hole = slot;
+        int index = (slot + 1) & mask;
+        while (slots[index] != 0) {
+            int ideal = hash(keys[slots[index] - 1]) & mask;
+            // ideal 不在 (hole, index] 循环区间内时，条目可以移动到空洞位置
+            boolean movable = hole <= index ? (ideal <= hole || ideal > index) : (ideal <= hole && ideal > index);
+            if (movable) {
+                slots[hole] = slots[index];
+                hole = index;
+            }
+            index = (index + 1) & mask;
+        }
+        slots[hole] = 0;
+    }
+
+    private void rehash(int slotCount) {
+        int[] newSlots = new int[slotCount];
+        int newMask = slotCount - 1;
+        for (int i = 0; i < size; i++) {
+            int index = hash(keys[i]) & newMask;
+            while (newSlots[index] != 0) {
+                index = (index + 1) & newMask;
+            }
+            newSlots[index] = i + 1;
+        }
+        this.slots = newSlots;
+        this.mask = newMask;
+    }
+
+    // 使用乘法散列打散连续的 ID
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int n = Integer.highestOneBit(Math.max(4, capacity - 1)) << 1;
+        return n < 0 ? 1 << 30 : n;
+    }
+
+    /**
+     * 值的只读视图
+     */
+    private class ValueView extends AbstractList<V> implements RandomAccess {
+        @Override
+        public V get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return valueAt(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.sparrowrecsys.online.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Metrics 类，进程内的指标注册表，包括计数器、耗时统计和按需取值的指标
+ * 指标按名称注册，同名指标只创建一次，可以在任意线程中并发更新，由 /getmetrics 接口统一输出
+ */
+public class Metrics {
+    private static final ConcurrentHashMap<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Timer> TIMERS = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Supplier<?>> GAUGES = new ConcurrentHashMap<>();
+
+    /**
+     * 获取计数器，不存在时创建
+     * @param name 指标名称
+     * @return 计数器
+     */
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * 获取耗时统计，不存在时创建
+     * @param name 指标名称
+     * @return 耗时统计
+     */
+    public static Timer timer(String name) {
+        return TIMERS.computeIfAbsent(name, key -> new Timer());
+    }
+
+    /**
+     * 注册按需取值的指标，同名指标会被替换
+     * @param name 指标名称
+     * @param supplier 输出指标时调用的取值函数
+     */
+    public static void gauge(String name, Supplier<?> supplier) {
+        GAUGES.put(name, supplier);
+    }
+
+    /**
+     * 获取所有指标的当前值，按名称排序
+     * @return 指标名称到值的映射，耗时统计的值是包含次数、平均值和最大值的映射
+     */
+    public static Map<String, Object> snapshot() {
+        TreeMap<String, Object> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : COUNTERS.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        for (Map.Entry<String, Timer> entry : TIMERS.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toMap());
+        }
+        for (Map.Entry<String, Supplier<?>> entry : GAUGES.entrySet()) {
+            try {
+                result.put(entry.getKey(), entry.getValue().get());
+            } catch (RuntimeException e) {
+                result.put(entry.getKey(), "error: " + e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 耗时统计，记录次数、总耗时和最大耗时，单位为毫秒
+     */
+    public static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalMicros = new LongAdder();
+        private final AtomicLong maxMicros = new AtomicLong();
+
+        /**
+         * 记录一次耗时
+         * @param millis 耗时，单位为毫秒
+         */
+        public void record(double millis) {
+            long micros = (long) (millis * 1000);
+            count.increment();
+            totalMicros.add(micros);
+            long max;
+            while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+                // 其他线程同时更新了最大值，重新比较
+            }
+        }
+
+        /**
+         * 记录从 startNanos 到现在的耗时
+         * @param startNanos System.nanoTime() 的起始值
+         */
+        public void recordSince(long startNanos) {
+            record((System.nanoTime() - startNanos) / 1e6);
+        }
+
+        // 获取记录次数
+        public long getCount() {
+            return count.sum();
+        }
+
+        // 获取平均耗时，单位为毫秒
+        public double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalMicros.sum() / 1000.0 / n;
+        }
+
+        // 获取最大耗时，单位为毫秒
+        public double getMaxMillis() {
+            return maxMicros.get() / 1000.0;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", getCount());
+            map.put("meanMs", getMeanMillis());
+            map.put("maxMs", getMaxMillis());
+            return map;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.sparrowrecsys.online.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelScorer 类，对候选集分块打分并选出得分最高的 k 个
+ * 候选数量达到 Config.RANKING_PARALLEL_THRESHOLD 时，按 Config.RANKING_CHUNK_SIZE 分块，在专用的 ForkJoinPool 上
+ * 并行打分，每个分块各自维护一个 TopKSelector，最后合并；否则在调用线程中串行打分。
+ * 分块由调用线程和线程池中的辅助任务共同认领，调用线程从不空等排队中的任务：线程池忙时请求退化为串行执行，
+ * 高并发下不会因为线程池排队而饿死。得分相同的候选按位置排序，结果与是否并行、分块方式无关。
+ */
+public class ParallelScorer {
+
+    /**
+     * 分块打分接口
+     */
+    public interface ChunkScorer {
+        /**
+         * 计算候选 [from, to) 的得分
+         * @param from 起始位置（包含）
+         * @param to 结束位置（不包含）
+         * @param scores 结果数组，scores[i] 是第 from + i 个候选的得分，长度可能大于 to - from
+         */
+        void score(int from, int to, float[] scores);
+    }
+
+    // 并行打分的线程池，首次使用时创建，请求线程也参与打分，所以线程数比并行度少一个
+    private static class PoolHolder {
+        static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, Config.RANKING_PARALLELISM - 1), pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("ranking-worker-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, true);
+    }
+
+    /**
+     * 对 count 个候选打分并选出得分最高的 k 个
+     * @param count 候选数量
+     * @param k 最多选出的个数
+     * @param scorer 分块打分方法，并行时会在多个线程中同时调用
+     * @return 已按排名顺序排列的选择结果，id 是候选的位置
+     */
+    public static TopKSelector topK(int count, int k, ChunkScorer scorer) {
+        int chunkSize = Math.max(1, Config.RANKING_CHUNK_SIZE);
+        int chunks = (count + chunkSize - 1) / chunkSize;
+        int helpers = Math.min(chunks - 1, Config.RANKING_PARALLELISM - 1);
+        if (count < Config.RANKING_PARALLEL_THRESHOLD || helpers <= 0) {
+            float[] scores = new float[count];
+            scorer.score(0, count, scores);
+            TopKSelector selector = new TopKSelector(Math.min(k, count));
+            for (int i = 0; i < count; i++) {
+                selector.offer(i, scores[i]);
+            }
+            selector.sort();
+            return selector;
+        }
+
+        Job job = new Job(count, k, chunkSize, chunks, scorer);
+        ForkJoinPool pool = PoolHolder.POOL;
+        // 线程池中积压的任务越多，提交的辅助任务越少，积压满时完全由调用线程执行
+        int submitted = Math.min(helpers, pool.getParallelism() - pool.getQueuedSubmissionCount());
+        for (int i = 0; i < submitted; i++) {
+            pool.execute(job);
+        }
+        job.run();
+        job.await();
+
+        // 合并各分块的结果，得分相同时按位置排序，与合并顺序无关
+        TopKSelector selector = new TopKSelector(Math.min(k, count));
+        for (TopKSelector chunk : job.results) {
+            for (int i = 0; i < chunk.size(); i++) {
+                selector.offer(chunk.getId(i), chunk.getScore(i));
+            }
+        }
+        selector.sort();
+        return selector;
+    }
+
+    // 一次请求的并行打分任务，调用线程和辅助任务都执行 run，依次认领未处理的分块
+    private static final class Job implements Runnable {
+        private final int count;
+        private final int k;
+        private final int chunkSize;
+        private final int chunks;
+        private final ChunkScorer scorer;
+        private final AtomicInteger nextChunk = new AtomicInteger();
+        private final CountDownLatch completed;
+        private final TopKSelector[] results;
+        private volatile Throwable error;
+
+        Job(int count, int k, int chunkSize, int chunks, ChunkScorer scorer) {
+            this.count = count;
+            this.k = k;
+            this.chunkSize = chunkSize;
+            this.chunks = chunks;
+            this.scorer = scorer;
+            this.completed = new CountDownLatch(chunks);
+            this.results = new TopKSelector[chunks];
+        }
+
+        @Override
+        public void run() {
+            float[] scores = null;
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                try {
+                    if (null != error) {
+                        continue;
+                    }
+                    int from = chunk * chunkSize;
+                    int to = Math.min(count, from + chunkSize);
+                    if (null == scores) {
+                        scores = new float[chunkSize];
+                    }
+                    scorer.score(from, to, scores);
+                    TopKSelector selector = new TopKSelector(Math.min(k, to - from));
+                    for (int i = from; i < to; i++) {
+                        selector.offer(i, scores[i - from]);
+                    }
+                    results[chunk] = selector;
+                } catch (Throwable e) {
+                    error = e;
+                } finally {
+                    completed.countDown();
+                }
+            }
+        }
+
+        // 等待其他线程认领的分块完成，有分块失败时抛出其异常
+        void await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    completed.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            Throwable e = error;
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+            if (null != e) {
+                throw new IllegalStateException("Parallel scoring failed: " + e.getMessage(), e);
+            }
+        }
+    }
+}
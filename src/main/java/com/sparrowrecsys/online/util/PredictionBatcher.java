@@ -0,0 +1,186 @@
+package com.sparrowrecsys.online.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PredictionBatcher 类，把并发请求的 TF Serving 预测实例合并为一次 :predict 调用，请求用 PredictionCodec 编解码
+ * 第一个实例到达后最多等待 windowMillis，或者累计到 maxInstances 个实例时发送，响应中的得分按顺序拆分给各个调用方。
+ * 单个调用方的实例总在同一批中，超过 maxInstances 时单独成批。发送在独立的线程中进行，发送期间继续收集下一批。
+ * 每个调用方带有自己的截止时间：时间窗不超过批内最早的截止时间，发送时跳过已经结束或超时的调用，
+ * 并以剩余调用中最早的截止时间作为请求的超时，发送线程不会比调用方等待得更久。
+ * 指标：neuralcf.batch.count（批次数）、neuralcf.batch.instances（实例数）、neuralcf.batch.callers（调用方数）、
+ * neuralcf.batch.failures（失败的批次数）、neuralcf.batch.expired（发送前已结束或超时而跳过的调用数）、
+ * neuralcf.batch.latency（一批的请求耗时）。
+ */
+public class PredictionBatcher {
+    // 发送线程数和等待发送的批次上限，都占满时在收集线程中直接发送
+    static final int MAX_IN_FLIGHT_BATCHES = 16;
+
+    private final String url;
+    private final long windowNanos;
+    private final int maxInstances;
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ThreadPoolExecutor sender;
+    private final Thread collector;
+    // 上一批放不下、留给下一批的调用
+    private Pending carry;
+
+    // 一个调用方提交的实例和它等待的结果
+    private static final class Pending {
+        final int[] userIds;
+        final int[] movieIds;
+        // 调用方等待结果的截止时间（System.nanoTime）
+        final long deadline;
+        final CompletableFuture<float[]> future = new CompletableFuture<>();
+
+        Pending(int[] userIds, int[] movieIds, long deadline) {
+            this.userIds = userIds;
+            this.movieIds = movieIds;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * 创建批处理器并启动收集线程
+     * @param url TF Serving 的 :predict 地址
+     * @param windowMillis 第一个实例到达后的最长等待时间（毫秒）
+     * @param maxInstances 一批的实例数上限
+     */
+    public PredictionBatcher(String url, double windowMillis, int maxInstances) {
+        this.url = url;
+        this.windowNanos = (long) (windowMillis * 1e6);
+        this.maxInstances = Math.max(1, maxInstances);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.sender = new ThreadPoolExecutor(MAX_IN_FLIGHT_BATCHES, MAX_IN_FLIGHT_BATCHES, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_IN_FLIGHT_BATCHES), runnable -> {
+                    Thread thread = new Thread(runnable, "prediction-sender-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        this.sender.allowCoreThreadTimeOut(true);
+        this.collector = new Thread(this::collectLoop, "prediction-batcher");
+        this.collector.setDaemon(true);
+        this.collector.start();
+    }
+
+    /**
+     * 停止收集线程和发送线程，尚未发送的调用不再处理
+     */
+    public void close() {
+        collector.interrupt();
+        sender.shutdown();
+    }
+
+    /**
+     * 提交一个调用方的预测实例
+     * @param userIds 用户ID
+     * @param movieIds 电影ID，movieIds[i] 与 userIds[i] 组成一个实例
+     * @param deadline 等待结果的截止时间（System.nanoTime），超过时不再发送；调用方放弃等待时应取消返回的 future
+     * @return 按实例顺序排列的得分，请求失败或超过截止时间时以异常结束
+     */
+    public CompletableFuture<float[]> submit(int[] userIds, int[] movieIds, long deadline) {
+        if (userIds.length != movieIds.length) {
+            throw new IllegalArgumentException("Expect " + movieIds.length + " user ids, got " + userIds.length);
+        }
+        Pending pending = new Pending(userIds, movieIds, deadline);
+        if (movieIds.length == 0) {
+            pending.future.complete(new float[0]);
+        } else {
+            queue.add(pending);
+        }
+        return pending.future;
+    }
+
+    // 收集线程：取到第一个调用后在时间窗内继续收集，达到时间、批内最早的截止时间或实例上限时发送
+    private void collectLoop() {
+        while (true) {
+            try {
+                Pending first = null != carry ? carry : queue.take();
+                carry = null;
+                List<Pending> batch = new ArrayList<>();
+                batch.add(first);
+                int instanceCount = first.movieIds.length;
+                long windowEnd = Math.min(System.nanoTime() + windowNanos, first.deadline);
+                while (instanceCount < maxInstances) {
+                    long remaining = windowEnd - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (null == next) {
+                        break;
+                    }
+                    if (instanceCount + next.movieIds.length > maxInstances) {
+                        carry = next;
+                        break;
+                    }
+                    batch.add(next);
+                    instanceCount += next.movieIds.length;
+                    windowEnd = Math.min(windowEnd, next.deadline);
+                }
+                // 发送线程都在忙时由收集线程自己发送，相当于对新请求施加背压
+                sender.execute(() -> send(batch));
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // 合并一批调用的实例发送一次请求，把得分按顺序拆分给各个调用方，已结束或超时的调用不再发送
+    private void send(List<Pending> candidates) {
+        long startTime = System.nanoTime();
+        List<Pending> batch = new ArrayList<>(candidates.size());
+        long deadline = Long.MAX_VALUE;
+        int count = 0;
+        for (Pending pending : candidates) {
+            if (pending.future.isDone()) {
+                Metrics.counter("neuralcf.batch.expired").increment();
+            } else if (pending.deadline - startTime <= 0) {
+                Metrics.counter("neuralcf.batch.expired").increment();
+                pending.future.completeExceptionally(new TimeoutException("Prediction deadline passed before sending"));
+            } else {
+                batch.add(pending);
+                deadline = batch.size() == 1 ? pending.deadline : Math.min(deadline, pending.deadline);
+                count += pending.movieIds.length;
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        // 向上取整到毫秒，避免剩余不足 1 毫秒时超时为 0
+        long timeoutMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - startTime + 999_999));
+        int[] userIds = new int[count];
+        int[] movieIds = new int[count];
+        int offset = 0;
+        for (Pending pending : batch) {
+            System.arraycopy(pending.userIds, 0, userIds, offset, pending.userIds.length);
+            System.arraycopy(pending.movieIds, 0, movieIds, offset, pending.movieIds.length);
+            offset += pending.movieIds.length;
+        }
+        Metrics.counter("neuralcf.batch.count").increment();
+        Metrics.counter("neuralcf.batch.instances").add(count);
+        Metrics.counter("neuralcf.batch.callers").add(batch.size());
+
+        float[] predictions = PredictionCodec.predict(url, userIds, movieIds, count, timeoutMillis);
+        if (null == predictions) {
+            Metrics.counter("neuralcf.batch.failures").increment();
+            IllegalStateException failure = new IllegalStateException("Prediction request to " + url + " failed");
+            for (Pending pending : batch) {
+                pending.future.completeExceptionally(failure);
+            }
+            return;
+        }
+        offset = 0;
+        for (Pending pending : batch) {
+            pending.future.complete(Arrays.copyOfRange(predictions, offset, offset + pending.movieIds.length));
+            offset += pending.movieIds.length;
+        }
+        Metrics.timer("neuralcf.batch.latency").recordSince(startTime);
+    }
+}
@@ -0,0 +1,213 @@
+package com.sparrowrecsys.online.util;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * PredictionCodec 类，TF Serving :predict 请求和响应的流式编解码
+ * 请求使用列格式 {"inputs":{"userId":[...],"movieId":[...]}}，用 Jackson 流式生成器直接写入线程复用的字节缓冲，
+ * 不为每个实例创建 JSON 对象；响应用流式解析器直接读入 float[]，不生成中间字符串和 JSON 数组。
+ * 列格式请求的响应字段是 "outputs"，行格式是 "predictions"，两者都可以解析，每个得分可以是数字或只含一个数字的数组。
+ */
+public class PredictionCodec {
+    private static final JsonFactory FACTORY = new JsonFactory();
+    // 每个线程复用的请求缓冲
+    private static final ThreadLocal<RequestBuffer> BUFFER = ThreadLocal.withInitial(RequestBuffer::new);
+
+    /**
+     * 请求内容的缓冲，array() 的前 size() 个字节是请求内容
+     */
+    public static final class RequestBuffer extends ByteArrayOutputStream {
+        RequestBuffer() {
+            super(16 * 1024);
+        }
+
+        // 获取底层数组，不复制
+        public byte[] array() {
+            return buf;
+        }
+    }
+
+    /**
+     * 把 (userId, movieId) 对编码为列格式的请求，写入当前线程的请求缓冲
+     * 缓冲在当前线程下一次编码时被覆盖，请求没有正常结束时应调用 discardBuffer
+     * @param userIds 用户ID
+     * @param movieIds 电影ID，movieIds[i] 与 userIds[i] 组成一个实例
+     * @param count 实例数
+     * @return 当前线程的请求缓冲
+     * @throws IOException 编码失败
+     */
+    public static RequestBuffer encode(int[] userIds, int[] movieIds, int count) throws IOException {
+        RequestBuffer buffer = BUFFER.get();
+        buffer.reset();
+        try (JsonGenerator generator = FACTORY.createGenerator(buffer, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("inputs");
+            writeColumn(generator, "userId", userIds, count);
+            writeColumn(generator, "movieId", movieIds, count);
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+        return buffer;
+    }
+
+    // 写入一列实例特征
+    private static void writeColumn(JsonGenerator generator, String name, int[] values, int count) throws IOException {
+        generator.writeArrayFieldStart(name);
+        for (int i = 0; i < count; i++) {
+            generator.writeNumber(values[i]);
+        }
+        generator.writeEndArray();
+    }
+
+    /**
+     * 丢弃当前线程的请求缓冲，超时的请求可能仍在被IO线程发送，之后的编码使用新的缓冲
+     */
+    public static void discardBuffer() {
+        BUFFER.remove();
+    }
+
+    /**
+     * 用列格式调用 TF Serving :predict
+     * @param url :predict 地址
+     * @param userIds 用户ID
+     * @param movieIds 电影ID，movieIds[i] 与 userIds[i] 组成一个实例
+     * @param count 实例数
+     * @param timeoutMillis 等待响应的时间（毫秒）
+     * @return 按实例顺序排列的得分，请求失败、超时或响应不合法时返回null
+     */
+    public static float[] predict(String url, int[] userIds, int[] movieIds, int count, long timeoutMillis) {
+        RequestBuffer body;
+        try {
+            body = encode(userIds, movieIds, count);
+        } catch (IOException e) {
+            System.out.println("Failed to encode prediction request: " + e.getMessage());
+            return null;
+        }
+        float[] scores = HttpClient.asyncPostRequest(url, body.array(), body.size(), timeoutMillis,
+                response -> decode(response.getEntity().getContent(), count));
+        if (null == scores) {
+            discardBuffer();
+        }
+        return scores;
+    }
+
+    /**
+     * 流式解析 :predict 的响应
+     * @param content 响应内容，解析后关闭
+     * @param expected 期望的得分数量
+     * @return 按实例顺序排列的得分
+     * @throws IOException 响应不合法、是错误信息或得分数量不符
+     */
+    public static float[] decode(InputStream content, int expected) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(content)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Prediction response is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("predictions".equals(field) || "outputs".equals(field)) {
+                    if (value != JsonToken.START_ARRAY) {
+                        throw new IOException("Field " + field + " is not an array");
+                    }
+                    float[] scores = readScores(parser, expected);
+                    if (scores.length != expected) {
+                        throw new IOException("Expect " + expected + " predictions, got " + scores.length);
+                    }
+                    return scores;
+                }
+                if ("error".equals(field)) {
+                    throw new IOException("TF Serving error: " + parser.getText());
+                }
+                parser.skipChildren();
+            }
+            throw new IOException("No predictions in response");
+        }
+    }
+
+    // 读取得分数组的元素，解析器位于数组开始处
+    private static float[] readScores(JsonParser parser, int expected) throws IOException {
+        float[] scores = new float[Math.max(expected, 1)];
+        int size = 0;
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            float score;
+            if (token == JsonToken.START_ARRAY) {
+                // 输出维度为 1 时每个得分是 [s]
+                if (!parser.nextToken().isNumeric()) {
+                    throw new IOException("Prediction " + size + " is not a number");
+                }
+                score = readFloat(parser);
+                if (parser.nextToken() != JsonToken.END_ARRAY) {
+                    throw new IOException("Prediction " + size + " has more than one value");
+                }
+            } else if (token != null && token.isNumeric()) {
+                score = readFloat(parser);
+            } else {
+                throw new IOException("Prediction " + size + " is not a number");
+            }
+            if (size == scores.length) {
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            scores[size++] = score;
+        }
+        return size == scores.length ? scores : Arrays.copyOf(scores, size);
+    }
+
+    // 精确表示的 10 的幂，用于快速解析
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * 读取当前的数字，结果与 (float) Double.parseDouble 相同
+     * Jackson 2.6 解析浮点数时先为每个数字创建字符串，这里对常见的短小数直接从解析器的字符缓冲计算，
+     * 有效数字不超过 15 位且十进制指数不超过 22 时，尾数和 10 的幂都能用 double 精确表示，一次除法或乘法的结果是正确舍入的
+     */
+    private static float readFloat(JsonParser parser) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_NUMBER_FLOAT) {
+            char[] text = parser.getTextCharacters();
+            int offset = parser.getTextOffset();
+            int end = offset + parser.getTextLength();
+            int i = offset;
+            boolean negative = i < end && text[i] == '-';
+            if (negative) {
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int scale = 0;
+            boolean fraction = false;
+            for (; i < end; i++) {
+                char c = text[i];
+                if (c >= '0' && c <= '9') {
+                    if (mantissa != 0 || c != '0') {
+                        digits++;
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (fraction) {
+                        scale++;
+                    }
+                } else if (c == '.' && !fraction) {
+                    fraction = true;
+                } else {
+                    break;
+                }
+            }
+            if (i == end && digits <= 15 && scale < POWERS_OF_TEN.length) {
+                double value = mantissa / POWERS_OF_TEN[scale];
+                return (float) (negative ? -value : value);
+            }
+        }
+        return parser.getFloatValue();
+    }
+}
@@ -0,0 +1,93 @@
+package com.sparrowrecsys.online.util;
+
+import com.sparrowrecsys.online.config.ModelConfig;
+import com.sparrowrecsys.online.datamanager.DataManager;
+import com.sparrowrecsys.online.datamanager.EmbeddingTable;
+import com.sparrowrecsys.online.datamanager.Movie;
+import com.sparrowrecsys.online.datamanager.SimilarMovieTable;
+import com.sparrowrecsys.online.recprocess.SimilarMovieProcess;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * 相似电影表离线计算工具
+ * 对每部电影执行与 /getsimilarmovie 相同的候选生成和排序，把前 N 个相似电影写入模型目录中的相似电影表：
+ *   similarMovies_default.bin          默认模型（类型和评分），与嵌入向量版本无关
+ *   similarMovies_emb_{模型版本}.bin    emb 模型，每个有电影向量文件的模型版本各一个
+ * 嵌入向量或评分数据更新后需要重新运行，服务启动时加载，表中没有的电影仍然在线计算。
+ * 用法：SimilarMovieTableBuilder [webroot 目录] [每部电影的相似电影数量]，默认 src/main/resources/webroot/ 和 50
+ */
+public class SimilarMovieTableBuilder {
+    static final String WEBROOT_PATH = "src/main/resources/webroot/";
+    static final int DEFAULT_NEIGHBOR_COUNT = 50;
+
+    public static void main(String[] args) throws Exception {
+        String webRootPath = args.length > 0 ? args[0] : WEBROOT_PATH;
+        int neighborCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_NEIGHBOR_COUNT;
+        String modelDataPath = webRootPath + "modeldata/";
+        Config.EMB_DATA_SOURCE = Config.DATA_SOURCE_FILE;
+        Config.IS_LOAD_ITEM_FEATURE_FROM_REDIS = false;
+        Config.IS_LOAD_USER_FEATURE_FROM_REDIS = false;
+
+        ModelConfig.ModelVersion loadedVersion = ModelConfig.getCurrentModelVersion();
+        DataManager dataManager = DataManager.getInstance();
+        dataManager.loadData(webRootPath + "sampledata/movies.csv", webRootPath + "sampledata/links.csv",
+                webRootPath + "sampledata/ratings.csv", modelDataPath + loadedVersion.getItemEmbFile(),
+                modelDataPath + loadedVersion.getUserEmbFile(), "i2vEmb", "uEmb");
+        List<Movie> movies = new ArrayList<>(dataManager.getMovies(Integer.MAX_VALUE, "rating"));
+        movies.sort(Comparator.comparingInt(Movie::getMovieId));
+
+        build(dataManager, movies, "default", modelDataPath, neighborCount);
+        for (ModelConfig.ModelVersion version : ModelConfig.getAllModelVersions()) {
+            if (!new File(modelDataPath + version.getItemEmbFile()).isFile()) {
+                System.out.println("Skip model version " + version.name() + ", missing " + version.getItemEmbFile());
+                continue;
+            }
+            if (version != loadedVersion) {
+                dataManager.reloadEmbeddings(modelDataPath, version.getItemEmbFile(), version.getUserEmbFile(), version.name());
+            }
+            build(dataManager, movies, "emb", modelDataPath, neighborCount);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * 使用当前版本的嵌入向量计算一个模型的相似电影表
+     * @param dataManager 已加载数据的数据管理器
+     * @param movies 按ID排序的全部电影
+     * @param model 排序模型名称
+     * @param modelDataPath 模型数据目录
+     * @param neighborCount 每部电影的相似电影数量
+     * @throws IOException 写入失败
+     */
+    static void build(DataManager dataManager, List<Movie> movies, String model, String modelDataPath,
+                      int neighborCount) throws IOException {
+        long startTime = System.nanoTime();
+        int[] movieIds = new int[movies.size()];
+        int[] neighbors = new int[movies.size() * neighborCount];
+        EmbeddingTable embeddings = dataManager.acquireEmbeddings();
+        String modelVersion;
+        try {
+            modelVersion = SimilarMovieProcess.tableVersionOf(embeddings, model);
+            IntStream.range(0, movies.size()).parallel().forEach(row -> {
+                Movie movie = movies.get(row);
+                movieIds[row] = movie.getMovieId();
+                List<Movie> rankedList = SimilarMovieProcess.computeRecList(embeddings, movie, neighborCount, model);
+                for (int i = 0; i < rankedList.size() && i < neighborCount; i++) {
+                    neighbors[row * neighborCount + i] = rankedList.get(i).getMovieId();
+                }
+            });
+        } finally {
+            embeddings.release();
+        }
+        String path = modelDataPath + SimilarMovieTable.fileNameOf(model, modelVersion);
+        SimilarMovieTable.write(path, model, modelVersion, neighborCount, movieIds, neighbors);
+        System.out.printf("Built similar movie table %s: %d movies x %d, %.1f MB, %.2f s.%n", path, movieIds.length,
+                neighborCount, new File(path).length() / 1e6, (System.nanoTime() - startTime) / 1e9);
+    }
+}
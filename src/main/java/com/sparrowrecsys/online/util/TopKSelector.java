@@ -0,0 +1,133 @@
+package com.sparrowrecsys.online.util;
+
+/**
+ * TopKSelector 类，从 (int id, float score) 序列中选出得分最高的 k 个，不装箱、不排序全部元素
+ * 内部是容量为 k 的小顶堆，堆顶是当前 k 个中最差的元素，新元素只需要与堆顶比较，复杂度 O(n log k)。
+ * 排名顺序：得分从高到低，得分相同时 id 小的在前，结果与输入顺序无关；NaN 按负无穷处理。
+ * 调用方通常用候选在列表中的位置作为 id，得分相同的候选保持原有顺序。
+ * 非线程安全，可以 reset 后重复使用。
+ */
+public class TopKSelector {
+    private final int k;
+    // 堆数组，sort 之后按排名顺序存放
+    private final int[] ids;
+    private final float[] scores;
+    private int size;
+
+    public TopKSelector(int k) {
+        this.k = Math.max(0, k);
+        this.ids = new int[this.k];
+        this.scores = new float[this.k];
+    }
+
+    /**
+     * 选出得分最高的 k 个位置
+     * @param scores 得分，位置即 id
+     * @param count 参与选择的得分个数
+     * @param k 最多选出的个数
+     * @return 按排名顺序排列的位置，长度为 min(k, count)
+     */
+    public static int[] select(float[] scores, int count, int k) {
+        TopKSelector selector = new TopKSelector(Math.min(k, count));
+        for (int i = 0; i < count; i++) {
+            selector.offer(i, scores[i]);
+        }
+        int n = selector.sort();
+        int[] result = new int[n];
+        System.arraycopy(selector.ids, 0, result, 0, n);
+        return result;
+    }
+
+    // 清空已选的元素
+    public void reset() {
+        size = 0;
+    }
+
+    // 获取已选的元素个数
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 加入一个元素，排名低于当前第 k 名时直接丢弃
+     * @param id 元素 id
+     * @param score 得分
+     */
+    public void offer(int id, float score) {
+        if (score != score) {
+            score = Float.NEGATIVE_INFINITY;
+        }
+        if (size < k) {
+            siftUp(size++, id, score);
+        } else if (k > 0 && better(id, score, ids[0], scores[0])) {
+            siftDown(0, size, id, score);
+        }
+    }
+
+    /**
+     * 把已选的元素按排名顺序排列（原地堆排序），之后可以用 getId/getScore 按名次读取，再次 offer 之前需要 reset
+     * @return 已选的元素个数
+     */
+    public int sort() {
+        for (int end = size - 1; end > 0; end--) {
+            // 堆顶是最差的元素，放到末尾
+            int id = ids[end];
+            float score = scores[end];
+            ids[end] = ids[0];
+            scores[end] = scores[0];
+            siftDown(0, end, id, score);
+        }
+        return size;
+    }
+
+    // 获取 sort 之后第 rank 名（从0开始）的 id
+    public int getId(int rank) {
+        return ids[rank];
+    }
+
+    // 获取 sort 之后第 rank 名（从0开始）的得分
+    public float getScore(int rank) {
+        return scores[rank];
+    }
+
+    // a 的排名是否高于 b
+    private static boolean better(int idA, float scoreA, int idB, float scoreB) {
+        return scoreA != scoreB ? scoreA > scoreB : idA < idB;
+    }
+
+    // 小顶堆上浮：比父节点差的元素向上移动
+    private void siftUp(int i, int id, float score) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!better(ids[parent], scores[parent], id, score)) {
+                break;
+            }
+            ids[i] = ids[parent];
+            scores[i] = scores[parent];
+            i = parent;
+        }
+        ids[i] = id;
+        scores[i] = score;
+    }
+
+    // 小顶堆下沉：在 [0, end) 范围内把元素放到比它差的子节点之上
+    private void siftDown(int i, int end, int id, float score) {
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= end) {
+                break;
+            }
+            if (child + 1 < end && better(ids[child], scores[child], ids[child + 1], scores[child + 1])) {
+                child++;
+            }
+            if (!better(id, score, ids[child], scores[child])) {
+                break;
+            }
+            ids[i] = ids[child];
+            scores[i] = scores[child];
+            i = child;
+        }
+        ids[i] = id;
+        scores[i] = score;
+    }
+}
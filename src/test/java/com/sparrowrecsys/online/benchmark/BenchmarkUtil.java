@@ -0,0 +1,65 @@
+package com.sparrowrecsys.online.benchmark;
+
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * BenchmarkUtil 类，基准测试共用的计时和内存测量工具
+ * 基准测试位于测试源码目录，不打包进服务端，用测试类路径运行：
+ *   mvn test-compile exec:java@benchmark -Dexec.mainClass=com.sparrowrecsys.online.benchmark.类名 -Dexec.args="参数"
+ */
+public class BenchmarkUtil {
+    // 防止 JIT 消除无副作用计算的汇聚变量
+    public static volatile long blackhole;
+
+    /**
+     * 测量一个操作的平均耗时，先预热再计时
+     * @param warmupRounds 预热轮数
+     * @param measureRounds 计时轮数
+     * @param task 每轮执行的操作
+     * @return 每轮的平均耗时（纳秒）
+     */
+    public static double measureNanos(int warmupRounds, int measureRounds, Runnable task) {
+        for (int i = 0; i < warmupRounds; i++) {
+            task.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < measureRounds; i++) {
+            task.run();
+        }
+        return (double) (System.nanoTime() - start) / measureRounds;
+    }
+
+    /**
+     * 获取 GC 之后已使用的堆内存字节数
+     * @return 已使用的堆内存
+     */
+    public static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // 多次 GC 取最小值，降低并发回收带来的噪声
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * 获取当前线程累计分配的字节数，JVM 不支持时返回 -1
+     * @return 已分配字节数
+     */
+    public static long threadAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof ThreadMXBean) {
+            return ((ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
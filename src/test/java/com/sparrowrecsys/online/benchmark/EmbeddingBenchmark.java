@@ -0,0 +1,100 @@
+package com.sparrowrecsys.online.benchmark;
+
+import com.sparrowrecsys.online.model.Embedding;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * EmbeddingBenchmark 类，比较装箱的 ArrayList&lt;Float&gt; 向量和矩阵行视图向量的内存占用与相似度计算耗时
+ * 模拟一次相似电影检索：一个查询向量和全部电影向量逐一计算余弦相似度
+ * 用法：EmbeddingBenchmark [电影数量] [维度]，默认 62423 部电影（ML-25M）、10 维
+ */
+public class EmbeddingBenchmark {
+    static final int ROUNDS = 20;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 62423;
+        int dim = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        Random random = new Random(42);
+        float[][] vectors = new float[count][dim];
+        for (float[] vector : vectors) {
+            for (int d = 0; d < dim; d++) {
+                vector[d] = (float) random.nextGaussian();
+            }
+        }
+
+        long before = BenchmarkUtil.usedHeapAfterGc();
+        BoxedEmbedding[] boxed = new BoxedEmbedding[count];
+        for (int i = 0; i < count; i++) {
+            ArrayList<Float> vector = new ArrayList<>();
+            for (float value : vectors[i]) {
+                vector.add(value);
+            }
+            boxed[i] = new BoxedEmbedding(vector);
+        }
+        long boxedBytes = BenchmarkUtil.usedHeapAfterGc() - before;
+
+        before = BenchmarkUtil.usedHeapAfterGc();
+        float[] matrix = new float[count * dim];
+        Embedding[] views = new Embedding[count];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(vectors[i], 0, matrix, i * dim, dim);
+            views[i] = new Embedding(matrix, i * dim, dim);
+        }
+        long viewBytes = BenchmarkUtil.usedHeapAfterGc() - before;
+
+        BoxedEmbedding boxedQuery = boxed[0];
+        Embedding viewQuery = views[0];
+        double[] checksums = new double[2];
+        double boxedNanos = BenchmarkUtil.measureNanos(5, ROUNDS, () -> {
+            double sum = 0;
+            for (BoxedEmbedding candidate : boxed) {
+                sum += boxedQuery.calculateSimilarity(candidate);
+            }
+            checksums[0] = sum;
+        });
+        long allocationBefore = BenchmarkUtil.threadAllocatedBytes();
+        double viewNanos = BenchmarkUtil.measureNanos(5, ROUNDS, () -> {
+            double sum = 0;
+            for (Embedding candidate : views) {
+                sum += viewQuery.calculateSimilarity(candidate);
+            }
+            checksums[1] = sum;
+        });
+        long viewAllocated = BenchmarkUtil.threadAllocatedBytes() - allocationBefore;
+        BenchmarkUtil.blackhole += (long) (checksums[0] + checksums[1]);
+
+        System.out.printf("embeddings=%d dim=%d (checksum %.6f vs %.6f)%n", count, dim, checksums[0], checksums[1]);
+        System.out.printf("  ArrayList<Float> : %8.1f KB, %8.3f ms/query, %6.2f ns/pair%n",
+                boxedBytes / 1024.0, boxedNanos / 1e6, boxedNanos / count);
+        System.out.printf("  float[] view     : %8.1f KB, %8.3f ms/query, %6.2f ns/pair, %d bytes allocated in %d queries%n",
+                viewBytes / 1024.0, viewNanos / 1e6, viewNanos / count, viewAllocated, 5 + ROUNDS);
+    }
+
+    /**
+     * 原先基于 ArrayList&lt;Float&gt; 的实现，作为对照
+     */
+    private static class BoxedEmbedding {
+        final ArrayList<Float> embVector;
+
+        BoxedEmbedding(ArrayList<Float> embVector) {
+            this.embVector = embVector;
+        }
+
+        double calculateSimilarity(BoxedEmbedding otherEmb) {
+            if (null == otherEmb || embVector.size() != otherEmb.embVector.size()) {
+                return -1;
+            }
+            double dotProduct = 0;
+            double denominator1 = 0;
+            double denominator2 = 0;
+            for (int i = 0; i < embVector.size(); i++) {
+                dotProduct += embVector.get(i) * otherEmb.embVector.get(i);
+                denominator1 += embVector.get(i) * embVector.get(i);
+                denominator2 += otherEmb.embVector.get(i) * otherEmb.embVector.get(i);
+            }
+            return dotProduct / (Math.sqrt(denominator1) * Math.sqrt(denominator2));
+        }
+    }
+}
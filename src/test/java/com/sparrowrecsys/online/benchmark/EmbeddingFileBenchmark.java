@@ -0,0 +1,102 @@
+package com.sparrowrecsys.online.benchmark;
+
+import com.sparrowrecsys.online.datamanager.EmbeddingFile;
+import com.sparrowrecsys.online.util.EmbeddingFileConverter;
+import com.sparrowrecsys.online.util.EmbeddingParser;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * EmbeddingFileBenchmark 类，比较加载文本向量文件和内存映射二进制向量文件的耗时
+ *   text    逐行读取 id:v1 v2 ... 并解析到按行存放的矩阵，对应原先的 loadMovieEmb/loadUserEmb
+ *   mapped  内存映射二进制文件（只读文件头和 ID 表），再把每一行复制到矩阵
+ * 单独列出映射打开的耗时：它与向量数量基本无关，向量数据在复制时才按页载入。
+ * 用法：EmbeddingFileBenchmark [向量数量] [维度]，默认 162541 个（ML-25M 的用户数）10 维向量
+ */
+public class EmbeddingFileBenchmark {
+    static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 162541;
+        int dim = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        File textFile = File.createTempFile("embedding", ".csv");
+        File binaryFile = new File(EmbeddingFile.binaryPathOf(textFile.getPath()));
+        textFile.deleteOnExit();
+        binaryFile.deleteOnExit();
+        Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(textFile.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 1; i <= count; i++) {
+                writer.write(Integer.toString(i));
+                writer.write(':');
+                for (int d = 0; d < dim; d++) {
+                    if (d > 0) {
+                        writer.write(' ');
+                    }
+                    writer.write(String.format("%.6f", random.nextGaussian()));
+                }
+                writer.newLine();
+            }
+        }
+        EmbeddingFileConverter.convert(textFile.getPath(), binaryFile.getPath(), "benchmark");
+        System.out.printf("embeddings=%d dim=%d, text %.1f MB, binary %.1f MB%n",
+                count, dim, textFile.length() / 1e6, binaryFile.length() / 1e6);
+
+        float[] matrix = new float[count * dim];
+        double[] checksums = new double[2];
+        double textNanos = measure(() -> {
+            try (BufferedReader reader = Files.newBufferedReader(textFile.toPath(), StandardCharsets.UTF_8)) {
+                String line;
+                while (null != (line = reader.readLine())) {
+                    int colon = line.indexOf(':');
+                    int row = Integer.parseInt(line.substring(0, colon)) - 1;
+                    EmbeddingParser.parse(line, colon + 1, line.length(), true, matrix, row * dim, dim);
+                }
+            }
+            checksums[0] = checksum(matrix);
+        });
+        double[] openNanos = {0};
+        double mappedNanos = measure(() -> {
+            long start = System.nanoTime();
+            EmbeddingFile file = EmbeddingFile.open(binaryFile.getPath());
+            openNanos[0] += System.nanoTime() - start;
+            for (int row = 0; row < file.getCount(); row++) {
+                file.read(row, matrix, (file.getId(row) - 1) * dim);
+            }
+            checksums[1] = checksum(matrix);
+        });
+        System.out.printf("  text    %8.1f ms/load%n", textNanos / 1e6);
+        System.out.printf("  mapped  %8.1f ms/load (open %.2f ms, copy %.1f ms)  %.1fx faster%n",
+                mappedNanos / 1e6, openNanos[0] / (ROUNDS + 1) / 1e6, (mappedNanos - openNanos[0] / (ROUNDS + 1)) / 1e6,
+                textNanos / mappedNanos);
+        System.out.printf("  checksums %.4f %.4f%n", checksums[0], checksums[1]);
+    }
+
+    private interface Load {
+        void run() throws IOException;
+    }
+
+    // 预热一次后取 ROUNDS 次的平均耗时
+    private static double measure(Load load) throws IOException {
+        load.run();
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            load.run();
+        }
+        return (double) (System.nanoTime() - start) / ROUNDS;
+    }
+
+    private static double checksum(float[] matrix) {
+        double sum = 0;
+        for (float value : matrix) {
+            sum += value;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,135 @@
+package com.sparrowrecsys.online.benchmark;
+
+import com.sparrowrecsys.online.model.Embedding;
+import com.sparrowrecsys.online.util.EmbeddingParser;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * EmbeddingParseBenchmark 类，比较原先基于 split 和装箱的向量解析与 EmbeddingParser 的耗时和内存分配
+ *   split+parseFloat  原先的 Utility.parseEmbStr：正则切分、逐个 Float.parseFloat、逐个装箱添加
+ *   parser -> new     EmbeddingParser 解析字符串为新的 Embedding，对应启动加载和增量更新
+ *   parser bytes      EmbeddingParser 直接解析 Redis 返回的字节到复用的 float 数组，对应 /getrecforyou 的每次请求
+ * 同时用随机数值校验解析结果与 Float.parseFloat 逐位一致。
+ * 用法：EmbeddingParseBenchmark [向量数量] [维度]，默认 10000 个 10 维向量（%.6f 格式，与 item2vecEmb.csv 一致）
+ */
+public class EmbeddingParseBenchmark {
+    static final int ROUNDS = 200;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int dim = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        Random random = new Random(42);
+        String[] lines = new String[count];
+        byte[][] bytes = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            StringBuilder line = new StringBuilder();
+            for (int d = 0; d < dim; d++) {
+                if (d > 0) {
+                    line.append(' ');
+                }
+                line.append(String.format("%.6f", random.nextGaussian()));
+            }
+            lines[i] = line.toString();
+            bytes[i] = lines[i].getBytes(StandardCharsets.US_ASCII);
+        }
+
+        System.out.printf("embeddings=%d dim=%d, mismatches vs Float.parseFloat: %d of %d values%n",
+                count, dim, verify(random, 1000000), 1000000);
+
+        float[] checksums = new float[3];
+        float[] scratch = new float[dim];
+        Runnable legacy = () -> {
+            float sum = 0;
+            for (String line : lines) {
+                sum += legacyParse(line).get(dim - 1);
+            }
+            checksums[0] = sum;
+        };
+        Runnable parser = () -> {
+            float sum = 0;
+            for (String line : lines) {
+                sum += EmbeddingParser.parse(line, 0, line.length(), true).get(dim - 1);
+            }
+            checksums[1] = sum;
+        };
+        Runnable parserBytes = () -> {
+            float sum = 0;
+            for (byte[] line : bytes) {
+                EmbeddingParser.parse(line, 0, line.length, true, scratch, 0, dim);
+                sum += scratch[dim - 1];
+            }
+            checksums[2] = sum;
+        };
+        report("split+parseFloat", legacy, count);
+        report("parser -> new", parser, count);
+        report("parser bytes", parserBytes, count);
+        System.out.printf("  checksums %.4f %.4f %.4f%n", checksums[0], checksums[1], checksums[2]);
+    }
+
+    private static void report(String name, Runnable task, int count) {
+        double nanos = BenchmarkUtil.measureNanos(5, ROUNDS, task);
+        long allocationBefore = BenchmarkUtil.threadAllocatedBytes();
+        task.run();
+        long allocated = BenchmarkUtil.threadAllocatedBytes() - allocationBefore;
+        System.out.printf("  %-17s %8.1f ns/vector  %6.1f bytes allocated/vector%n",
+                name, nanos / count, (double) allocated / count);
+    }
+
+    // 曾经因为先舍入为 double 再舍入为 float 而与 Float.parseFloat 不一致的数值
+    private static final String[] MIDPOINT_CASES = {"0.91916224360466", "1.00069922208786"};
+
+    // 随机生成各种格式的数值，统计解析结果与 Float.parseFloat 不一致的个数
+    private static int verify(Random random, int values) {
+        int mismatches = 0;
+        float[] parsed = new float[1];
+        for (String text : MIDPOINT_CASES) {
+            EmbeddingParser.parse(text, 0, text.length(), true, parsed, 0, 1);
+            if (Float.floatToIntBits(parsed[0]) != Float.floatToIntBits(Float.parseFloat(text))) {
+                mismatches++;
+            }
+        }
+        for (int i = 0; i < values; i++) {
+            float value = (float) (random.nextGaussian() * Math.pow(10, random.nextInt(16) - 8));
+            String text;
+            switch (i % 5) {
+                case 4:
+                    // 两个相邻 float 的中点附近、13 到 15 位有效数字的十进制数
+                    float low = random.nextFloat() * 2;
+                    double midpoint = ((double) low + Math.nextUp(low)) / 2;
+                    text = new BigDecimal(midpoint).round(new MathContext(13 + random.nextInt(3))).toPlainString();
+                    break;
+                case 0:
+                    text = Float.toString(value);
+                    break;
+                case 1:
+                    text = Double.toString(value);
+                    break;
+                case 2:
+                    text = String.format("%.6f", value);
+                    break;
+                default:
+                    text = String.format("%.8e", value);
+                    break;
+            }
+            EmbeddingParser.parse(text, 0, text.length(), true, parsed, 0, 1);
+            if (Float.floatToIntBits(parsed[0]) != Float.floatToIntBits(Float.parseFloat(text))) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    // 原先的 Utility.parseEmbStr，作为对照
+    private static Embedding legacyParse(String embStr) {
+        String[] embStrings = embStr.split("\\s");
+        Embedding emb = new Embedding();
+        for (String element : embStrings) {
+            emb.addDim(Float.parseFloat(element));
+        }
+        return emb;
+    }
+}
@@ -0,0 +1,101 @@
+package com.sparrowrecsys.online.benchmark;
+
+import com.sparrowrecsys.online.model.Embedding;
+import com.sparrowrecsys.online.model.HnswIndex;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * HnswBenchmark 类，测量 HNSW 索引在不同 efSearch 下的 recall@K 和单线程 QPS，并与精确检索对比
+ * 向量由若干个聚类中心加噪声生成，比纯随机向量更接近真实的物品向量分布
+ * 用法：HnswBenchmark [向量数量] [维度] [K] [M] [efConstruction]，默认 100000、64、10、16、100
+ */
+public class HnswBenchmark {
+    static final int QUERIES = 500;
+    static final int CLUSTERS = 200;
+    static final int[] EF_SEARCH = {10, 25, 50, 100, 200, 400};
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int dim = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int m = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+        int efConstruction = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+
+        Random random = new Random(42);
+        float[][] centers = new float[CLUSTERS][dim];
+        for (float[] center : centers) {
+            for (int d = 0; d < dim; d++) {
+                center[d] = (float) random.nextGaussian();
+            }
+        }
+        Embedding[] vectors = clusteredEmbeddings(random, centers, count, dim);
+        Embedding[] queries = clusteredEmbeddings(random, centers, QUERIES, dim);
+
+        long before = BenchmarkUtil.usedHeapAfterGc();
+        long startTime = System.nanoTime();
+        HnswIndex index = new HnswIndex(m, efConstruction, EF_SEARCH[0], count);
+        for (int i = 0; i < count; i++) {
+            index.add(i, vectors[i]);
+        }
+        double buildSeconds = (System.nanoTime() - startTime) / 1e9;
+        long indexBytes = BenchmarkUtil.usedHeapAfterGc() - before;
+        System.out.printf("vectors=%d dim=%d k=%d M=%d efConstruction=%d%n", count, dim, k, m, efConstruction);
+        System.out.printf("  build %.2f s (%.0f inserts/s), graph %.1f MB estimated, %.1f MB heap%n",
+                buildSeconds, count / buildSeconds, index.estimateGraphBytes() / 1048576.0, indexBytes / 1048576.0);
+
+        int[] labels = new int[k];
+        float[] scores = new float[k];
+        int[][] truth = new int[QUERIES][];
+        double exactNanos = BenchmarkUtil.measureNanos(1, 3, () -> {
+            for (int q = 0; q < QUERIES; q++) {
+                int n = index.searchExact(queries[q], k, labels, scores);
+                truth[q] = Arrays.copyOf(labels, n);
+            }
+        }) / QUERIES;
+        System.out.printf("  %-14s recall@%d %6.4f  %9.1f QPS  %8.3f ms/query%n",
+                "exact", k, 1.0, 1e9 / exactNanos, exactNanos / 1e6);
+
+        for (int efSearch : EF_SEARCH) {
+            index.setEfSearch(efSearch);
+            double nanos = BenchmarkUtil.measureNanos(1, 5, () -> {
+                for (int q = 0; q < QUERIES; q++) {
+                    BenchmarkUtil.blackhole += index.search(queries[q], k, labels, scores);
+                }
+            }) / QUERIES;
+            long hits = 0;
+            for (int q = 0; q < QUERIES; q++) {
+                int n = index.search(queries[q], k, labels, scores);
+                HashSet<Integer> expected = new HashSet<>();
+                for (int label : truth[q]) {
+                    expected.add(label);
+                }
+                for (int i = 0; i < n; i++) {
+                    if (expected.contains(labels[i])) {
+                        hits++;
+                    }
+                }
+            }
+            double recall = (double) hits / ((long) QUERIES * k);
+            System.out.printf("  efSearch=%-5d recall@%d %6.4f  %9.1f QPS  %8.3f ms/query  %.1fx exact%n",
+                    efSearch, k, recall, 1e9 / nanos, nanos / 1e6, exactNanos / nanos);
+        }
+    }
+
+    // 在随机选择的聚类中心附近生成归一化向量
+    private static Embedding[] clusteredEmbeddings(Random random, float[][] centers, int count, int dim) {
+        float[] matrix = new float[count * dim];
+        Embedding[] embeddings = new Embedding[count];
+        for (int i = 0; i < count; i++) {
+            float[] center = centers[random.nextInt(centers.length)];
+            for (int d = 0; d < dim; d++) {
+                matrix[i * dim + d] = center[d] + (float) random.nextGaussian();
+            }
+            embeddings[i] = new Embedding(matrix, i * dim, dim);
+            embeddings[i].normalize();
+        }
+        return embeddings;
+    }
+}
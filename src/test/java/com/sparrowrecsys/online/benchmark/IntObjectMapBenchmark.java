@@ -0,0 +1,91 @@
+package com.sparrowrecsys.online.benchmark;
+
+import com.sparrowrecsys.online.util.IntObjectHashMap;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * IntObjectMapBenchmark 类，在 ML-25M 规模的 ID 空间上比较 HashMap&lt;Integer, V&gt; 和 IntObjectHashMap 的内存与查找延迟
+ * ML-25M 含 62423 部电影（ID 最大 209171）和 162541 个用户（ID 连续）
+ */
+public class IntObjectMapBenchmark {
+    static final int MOVIE_COUNT = 62423;
+    static final int MAX_MOVIE_ID = 209171;
+    static final int USER_COUNT = 162541;
+    static final int LOOKUPS = 1_000_000;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        int[] movieIds = sparseIds(random, MOVIE_COUNT, MAX_MOVIE_ID);
+        int[] userIds = new int[USER_COUNT];
+        for (int i = 0; i < USER_COUNT; i++) {
+            userIds[i] = i + 1;
+        }
+        run("movies", movieIds, random);
+        run("users", userIds, random);
+    }
+
+    private static void run(String name, int[] ids, Random random) {
+        Object[] payloads = new Object[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            payloads[i] = new Object();
+        }
+        int[] probes = new int[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            probes[i] = ids[random.nextInt(ids.length)];
+        }
+
+        long before = BenchmarkUtil.usedHeapAfterGc();
+        HashMap<Integer, Object> hashMap = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            hashMap.put(ids[i], payloads[i]);
+        }
+        long hashMapBytes = BenchmarkUtil.usedHeapAfterGc() - before;
+
+        before = BenchmarkUtil.usedHeapAfterGc();
+        IntObjectHashMap<Object> intMap = new IntObjectHashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            intMap.put(ids[i], payloads[i]);
+        }
+        long intMapBytes = BenchmarkUtil.usedHeapAfterGc() - before;
+
+        double hashMapNanos = BenchmarkUtil.measureNanos(5, 20, () -> {
+            long hits = 0;
+            for (int probe : probes) {
+                if (hashMap.get(probe) != null) {
+                    hits++;
+                }
+            }
+            BenchmarkUtil.blackhole += hits;
+        }) / LOOKUPS;
+        double intMapNanos = BenchmarkUtil.measureNanos(5, 20, () -> {
+            long hits = 0;
+            for (int probe : probes) {
+                if (intMap.get(probe) != null) {
+                    hits++;
+                }
+            }
+            BenchmarkUtil.blackhole += hits;
+        }) / LOOKUPS;
+
+        System.out.printf("%-7s entries=%d%n", name, ids.length);
+        System.out.printf("  HashMap<Integer, V> : %8.1f KB, %6.2f ns/lookup%n", hashMapBytes / 1024.0, hashMapNanos);
+        System.out.printf("  IntObjectHashMap<V> : %8.1f KB (estimated %.1f KB), %6.2f ns/lookup%n",
+                intMapBytes / 1024.0, intMap.estimateMemoryBytes() / 1024.0, intMapNanos);
+    }
+
+    // 在 [1, maxId] 中随机选出 count 个不重复的 ID
+    private static int[] sparseIds(Random random, int count, int maxId) {
+        IntObjectHashMap<Boolean> chosen = new IntObjectHashMap<>(count);
+        int[] ids = new int[count];
+        int n = 0;
+        while (n < count) {
+            int id = 1 + random.nextInt(maxId);
+            if (null == chosen.put(id, Boolean.TRUE)) {
+                ids[n++] = id;
+            }
+        }
+        return ids;
+    }
+}
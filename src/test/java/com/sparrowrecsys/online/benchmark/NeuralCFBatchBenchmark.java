@@ -0,0 +1,103 @@
+package com.sparrowrecsys.online.benchmark;
+
+import com.sparrowrecsys.online.util.HttpClient;
+import com.sparrowrecsys.online.util.PredictionBatcher;
+import com.sparrowrecsys.online.util.PredictionCodec;
+import com.sparrowrecsys.online.util.TFServingStub;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NeuralCFBatchBenchmark 类，比较不同批处理时间窗下 NeuralCF 预测请求的吞吐量和延迟
+ * 在本地启动 TFServingStub，多个线程并发地各自发起预测请求，每个请求的实例数与 /getrecforyou 的候选数相当；
+ * 时间窗为 0 时每个请求直接调用 :predict，否则经过 PredictionBatcher 合并，并检查拆分回来的得分是否正确。
+ * 用法：NeuralCFBatchBenchmark [并发线程数] [每个请求的实例数] [每次调用的固定耗时(毫秒)] [每个实例的耗时(微秒)]，
+ * 默认 16 800 2 1
+ */
+public class NeuralCFBatchBenchmark {
+    static final int REQUESTS_PER_THREAD = 40;
+    static final double[] WINDOWS_MILLIS = {0, 1, 2, 5, 10};
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int instanceCount = args.length > 1 ? Integer.parseInt(args[1]) : 800;
+        double callMillis = args.length > 2 ? Double.parseDouble(args[2]) : 2;
+        double instanceMicros = args.length > 3 ? Double.parseDouble(args[3]) : 1;
+        TFServingStub stub = TFServingStub.start(0, callMillis, instanceMicros, 1);
+        String url = stub.getPredictUrl();
+        HttpClient.start();
+        System.out.printf("threads=%d instances=%d, stub %.1f ms/call + %.1f us/instance%n",
+                threads, instanceCount, callMillis, instanceMicros);
+
+        for (double window : WINDOWS_MILLIS) {
+            PredictionBatcher batcher = window > 0 ? new PredictionBatcher(url, window, 8000) : null;
+            // 预热一轮，再测量一轮
+            run(threads, instanceCount, url, batcher);
+            AtomicInteger errors = new AtomicInteger();
+            long start = System.nanoTime();
+            long[] latencies = run(threads, instanceCount, url, batcher, errors);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("  window %4.1f ms  %7.1f req/s  p50 %7.2f ms  p99 %7.2f ms  errors %d%n", window,
+                    latencies.length / seconds, latencies[latencies.length / 2] / 1e6,
+                    latencies[(int) (latencies.length * 0.99)] / 1e6, errors.get());
+            if (null != batcher) {
+                batcher.close();
+            }
+        }
+        HttpClient.shutdown();
+        stub.stop();
+        System.exit(0);
+    }
+
+    private static long[] run(int threads, int instanceCount, String url, PredictionBatcher batcher)
+            throws InterruptedException {
+        return run(threads, instanceCount, url, batcher, new AtomicInteger());
+    }
+
+    // 在 threads 个线程中各发起 REQUESTS_PER_THREAD 次请求，返回全部请求的延迟，得分错误或请求失败计入 errors
+    private static long[] run(int threads, int instanceCount, String url, PredictionBatcher batcher,
+                              AtomicInteger errors) throws InterruptedException {
+        long[] latencies = new long[threads * REQUESTS_PER_THREAD];
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int base = t * REQUESTS_PER_THREAD;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                    int userId = base + i + 1;
+                    int[] userIds = new int[instanceCount];
+                    int[] movieIds = new int[instanceCount];
+                    Arrays.fill(userIds, userId);
+                    for (int m = 0; m < instanceCount; m++) {
+                        movieIds[m] = m + 1;
+                    }
+                    long start = System.nanoTime();
+                    float[] scores = predict(url, batcher, userIds, movieIds);
+                    latencies[base + i] = System.nanoTime() - start;
+                    if (null == scores || scores.length != instanceCount
+                            || scores[instanceCount - 1] != (float) TFServingStub.score(userId, instanceCount)) {
+                        errors.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            });
+            thread.start();
+        }
+        done.await();
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static float[] predict(String url, PredictionBatcher batcher, int[] userIds, int[] movieIds) {
+        if (null != batcher) {
+            try {
+                return batcher.submit(userIds, movieIds, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1000)).get();
+            } catch (Exception e) {
+                return null;
+            }
+        }
+        return PredictionCodec.predict(url, userIds, movieIds, movieIds.length, 1000);
+    }
+}
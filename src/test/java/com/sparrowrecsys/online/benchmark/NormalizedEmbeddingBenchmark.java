@@ -0,0 +1,79 @@
+package com.sparrowrecsys.online.benchmark;
+
+import com.sparrowrecsys.online.model.Embedding;
+
+import java.util.Random;
+
+/**
+ * NormalizedEmbeddingBenchmark 类，比较未归一化向量（每次计算两个模）和预先归一化向量（只计算点积）的单次请求耗时
+ * user→movie 对应 RecForYouProcess 的 800 个候选，movie→movie 对应 retrievalCandidatesByEmbedding 的 10000 个候选
+ * 用法：NormalizedEmbeddingBenchmark [维度]，默认 10 维
+ */
+public class NormalizedEmbeddingBenchmark {
+    static final int USER_CANDIDATES = 800;
+    static final int MOVIE_CANDIDATES = 10000;
+    static final int QUERIES = 200;
+
+    public static void main(String[] args) {
+        int dim = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        Random random = new Random(42);
+        Embedding[] rawMovies = randomEmbeddings(random, MOVIE_CANDIDATES, dim);
+        Embedding[] rawQueries = randomEmbeddings(random, QUERIES, dim);
+        Embedding[] normalizedMovies = normalizedCopies(rawMovies);
+        Embedding[] normalizedQueries = normalizedCopies(rawQueries);
+
+        System.out.printf("dim=%d%n", dim);
+        run("user->movie", rawQueries, rawMovies, normalizedQueries, normalizedMovies, USER_CANDIDATES);
+        run("movie->movie", rawQueries, rawMovies, normalizedQueries, normalizedMovies, MOVIE_CANDIDATES);
+    }
+
+    private static void run(String name, Embedding[] rawQueries, Embedding[] rawCandidates,
+                            Embedding[] normalizedQueries, Embedding[] normalizedCandidates, int candidateCount) {
+        double[] checksums = new double[2];
+        double rawNanos = BenchmarkUtil.measureNanos(3, 10, () -> {
+            checksums[0] = scoreAll(rawQueries, rawCandidates, candidateCount);
+        }) / rawQueries.length;
+        double normalizedNanos = BenchmarkUtil.measureNanos(3, 10, () -> {
+            checksums[1] = scoreAll(normalizedQueries, normalizedCandidates, candidateCount);
+        }) / normalizedQueries.length;
+        BenchmarkUtil.blackhole += (long) (checksums[0] + checksums[1]);
+        System.out.printf("  %-12s candidates=%-6d raw %8.1f us/request, normalized %8.1f us/request, speedup %.2fx (checksum %.4f vs %.4f)%n",
+                name, candidateCount, rawNanos / 1e3, normalizedNanos / 1e3, rawNanos / normalizedNanos, checksums[0], checksums[1]);
+    }
+
+    // 每个查询向量与前 candidateCount 个候选计算相似度，返回相似度之和
+    private static double scoreAll(Embedding[] queries, Embedding[] candidates, int candidateCount) {
+        double sum = 0;
+        for (Embedding query : queries) {
+            for (int i = 0; i < candidateCount; i++) {
+                sum += query.calculateSimilarity(candidates[i]);
+            }
+        }
+        return sum;
+    }
+
+    // 生成按行存放在同一个矩阵中的随机向量
+    private static Embedding[] randomEmbeddings(Random random, int count, int dim) {
+        float[] matrix = new float[count * dim];
+        Embedding[] embeddings = new Embedding[count];
+        for (int i = 0; i < count; i++) {
+            for (int d = 0; d < dim; d++) {
+                matrix[i * dim + d] = (float) random.nextGaussian();
+            }
+            embeddings[i] = new Embedding(matrix, i * dim, dim);
+        }
+        return embeddings;
+    }
+
+    private static Embedding[] normalizedCopies(Embedding[] embeddings) {
+        Embedding[] copies = new Embedding[embeddings.length];
+        int dim = embeddings[0].getDim();
+        float[] matrix = new float[embeddings.length * dim];
+        for (int i = 0; i < embeddings.length; i++) {
+            embeddings[i].copyTo(matrix, i * dim);
+            copies[i] = new Embedding(matrix, i * dim, dim);
+            copies[i].normalize();
+        }
+        return copies;
+    }
+}
@@ -0,0 +1,96 @@
+package com.sparrowrecsys.online.benchmark;
+
+import com.sparrowrecsys.online.model.Embedding;
+import com.sparrowrecsys.online.model.SimilarityKernel;
+import com.sparrowrecsys.online.util.Config;
+import com.sparrowrecsys.online.util.ParallelScorer;
+import com.sparrowrecsys.online.util.TopKSelector;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * ParallelScoringBenchmark 类，比较大候选集下串行打分和 ParallelScorer 分块并行打分的请求延迟
+ * 每个请求用一个查询向量对全部候选计算余弦相似度并取前 k 个，与 ranker 的 emb 模型一致；
+ * 分别在 1 个和 2 倍 CPU 核数个并发请求线程下测量，后者检查线程池忙时请求是否仍然按时完成。
+ * 用法：ParallelScoringBenchmark [候选数量] [维度] [k]，默认 50000 个 64 维候选取前 20 个
+ */
+public class ParallelScoringBenchmark {
+    static final int REQUESTS_PER_THREAD = 50;
+
+    public static void main(String[] args) throws InterruptedException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int dim = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int k = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        Random random = new Random(42);
+        Embedding[] candidates = new Embedding[count];
+        for (int i = 0; i < count; i++) {
+            candidates[i] = randomEmbedding(random, dim);
+        }
+        Embedding query = randomEmbedding(random, dim);
+        SimilarityKernel kernel = SimilarityKernel.BLOCKED;
+        ParallelScorer.ChunkScorer scorer = (from, to, scores) ->
+                kernel.cosine(query, Arrays.copyOfRange(candidates, from, to), to - from, scores);
+
+        int parallelThreshold = Config.RANKING_PARALLEL_THRESHOLD;
+        Config.RANKING_PARALLEL_THRESHOLD = Integer.MAX_VALUE;
+        TopKSelector serial = ParallelScorer.topK(count, k, scorer);
+        Config.RANKING_PARALLEL_THRESHOLD = parallelThreshold;
+        TopKSelector parallel = ParallelScorer.topK(count, k, scorer);
+        int mismatches = 0;
+        for (int i = 0; i < k; i++) {
+            if (serial.getId(i) != parallel.getId(i)) {
+                mismatches++;
+            }
+        }
+        System.out.printf("candidates=%d dim=%d k=%d, parallelism=%d, chunk=%d, rank mismatches: %d%n",
+                count, dim, k, Config.RANKING_PARALLELISM, Config.RANKING_CHUNK_SIZE, mismatches);
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads : new int[]{1, 2 * cores}) {
+            Config.RANKING_PARALLEL_THRESHOLD = Integer.MAX_VALUE;
+            long[] serialLatencies = run(threads, count, k, scorer);
+            Config.RANKING_PARALLEL_THRESHOLD = parallelThreshold;
+            long[] parallelLatencies = run(threads, count, k, scorer);
+            report("serial", threads, serialLatencies);
+            report("parallel", threads, parallelLatencies);
+        }
+    }
+
+    // 在 threads 个线程中各发起 REQUESTS_PER_THREAD 次请求（先预热相同次数），返回全部请求的延迟
+    private static long[] run(int threads, int count, int k, ParallelScorer.ChunkScorer scorer) throws InterruptedException {
+        long[] latencies = new long[threads * REQUESTS_PER_THREAD];
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            int base = t * REQUESTS_PER_THREAD;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 2 * REQUESTS_PER_THREAD; i++) {
+                    long start = System.nanoTime();
+                    BenchmarkUtil.blackhole += ParallelScorer.topK(count, k, scorer).getId(0);
+                    if (i >= REQUESTS_PER_THREAD) {
+                        latencies[base + i - REQUESTS_PER_THREAD] = System.nanoTime() - start;
+                    }
+                }
+                done.countDown();
+            });
+            thread.start();
+        }
+        done.await();
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private static void report(String name, int threads, long[] latencies) {
+        System.out.printf("  %-8s %3d threads  p50 %7.2f ms  p99 %7.2f ms%n", name, threads,
+                latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * 0.99)] / 1e6);
+    }
+
+    private static Embedding randomEmbedding(Random random, int dim) {
+        float[] vector = new float[dim];
+        for (int d = 0; d < dim; d++) {
+            vector[d] = (float) random.nextGaussian();
+        }
+        return new Embedding(vector);
+    }
+}
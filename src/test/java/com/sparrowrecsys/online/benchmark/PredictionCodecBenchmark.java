@@ -0,0 +1,111 @@
+package com.sparrowrecsys.online.benchmark;
+
+import com.sparrowrecsys.online.util.PredictionCodec;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * PredictionCodecBenchmark 类，比较 TF Serving :predict 请求和响应的编解码耗时和每次调用的内存分配
+ *   org.json  原先的 callNeuralCFTFServing：每个实例一个 JSONObject 的行格式，序列化为字符串再转为字节；
+ *             响应先读成字符串，再解析为 JSONObject 和 JSONArray
+ *   streaming PredictionCodec：列格式直接写入复用的字节缓冲，响应流式解析为 float[]
+ * 用法：PredictionCodecBenchmark [实例数]，默认 800（/getrecforyou 的候选数）
+ */
+public class PredictionCodecBenchmark {
+    static final int ROUNDS = 2000;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 800;
+        Random random = new Random(42);
+        int[] userIds = new int[count];
+        int[] movieIds = new int[count];
+        Arrays.fill(userIds, 10351);
+        float[] expected = new float[count];
+        for (int i = 0; i < count; i++) {
+            movieIds[i] = i + 1;
+            expected[i] = random.nextFloat();
+        }
+        // TF Serving 的响应，行格式和列格式只有字段名不同
+        JSONArray predictions = new JSONArray();
+        for (float score : expected) {
+            predictions.put(new JSONArray().put(score));
+        }
+        byte[] rowResponse = new JSONObject().put("predictions", predictions).toString().getBytes(StandardCharsets.UTF_8);
+        byte[] columnResponse = new JSONObject().put("outputs", predictions).toString().getBytes(StandardCharsets.UTF_8);
+
+        float[] legacy = legacyDecode(rowResponse, count);
+        float[] streaming = streamingDecode(columnResponse, count);
+        int mismatches = 0;
+        for (int i = 0; i < count; i++) {
+            if (legacy[i] != expected[i] || streaming[i] != expected[i]) {
+                mismatches++;
+            }
+        }
+        System.out.printf("instances=%d, request %d bytes (org.json) vs %d bytes (streaming), score mismatches: %d%n",
+                count, legacyEncode(userIds, movieIds, count).length,
+                streamingEncode(userIds, movieIds, count), mismatches);
+
+        report("org.json encode", () -> BenchmarkUtil.blackhole += legacyEncode(userIds, movieIds, count).length);
+        report("streaming encode", () -> BenchmarkUtil.blackhole += streamingEncode(userIds, movieIds, count));
+        report("org.json decode", () -> BenchmarkUtil.blackhole += legacyDecode(rowResponse, count).length);
+        report("streaming decode", () -> BenchmarkUtil.blackhole += streamingDecode(columnResponse, count).length);
+    }
+
+    private static void report(String name, Runnable task) {
+        double nanos = BenchmarkUtil.measureNanos(ROUNDS, ROUNDS, task);
+        long allocationBefore = BenchmarkUtil.threadAllocatedBytes();
+        for (int i = 0; i < 100; i++) {
+            task.run();
+        }
+        long allocated = BenchmarkUtil.threadAllocatedBytes() - allocationBefore;
+        System.out.printf("  %-17s %8.1f us/call  %9.0f bytes allocated/call%n", name, nanos / 1e3, allocated / 100.0);
+    }
+
+    // 原先 callNeuralCFTFServing 构建请求的方式，作为对照
+    private static byte[] legacyEncode(int[] userIds, int[] movieIds, int count) {
+        JSONArray instances = new JSONArray();
+        for (int i = 0; i < count; i++) {
+            JSONObject instance = new JSONObject();
+            instance.put("userId", userIds[i]);
+            instance.put("movieId", movieIds[i]);
+            instances.put(instance);
+        }
+        JSONObject instancesRoot = new JSONObject();
+        instancesRoot.put("instances", instances);
+        return instancesRoot.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // 原先解析响应的方式：响应读成字符串后用 org.json 解析
+    private static float[] legacyDecode(byte[] response, int count) {
+        String content = new String(response, StandardCharsets.UTF_8);
+        JSONArray predictions = new JSONObject(content).getJSONArray("predictions");
+        float[] scores = new float[count];
+        for (int i = 0; i < count; i++) {
+            scores[i] = (float) predictions.getJSONArray(i).getDouble(0);
+        }
+        return scores;
+    }
+
+    private static int streamingEncode(int[] userIds, int[] movieIds, int count) {
+        try {
+            return PredictionCodec.encode(userIds, movieIds, count).size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static float[] streamingDecode(byte[] response, int count) {
+        try {
+            return PredictionCodec.decode(new ByteArrayInputStream(response), count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
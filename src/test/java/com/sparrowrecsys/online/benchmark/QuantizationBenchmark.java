@@ -0,0 +1,258 @@
+package com.sparrowrecsys.online.benchmark;
+
+import com.sparrowrecsys.online.model.Embedding;
+import com.sparrowrecsys.online.model.EmbeddingQuantizer;
+import com.sparrowrecsys.online.model.SimilarityKernel;
+import com.sparrowrecsys.online.util.Utility;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * QuantizationBenchmark 类，比较 float32 向量与 int8、乘积量化编码的内存占用、打分耗时和排序一致性
+ * 同一批请求分别用 float32 余弦相似度和量化编码（ADC）打分，以 float32 的 top-K 为基准计算重合率和 NDCG@K
+ *   user->movie  每个用户对 800 个随机候选电影排序，对应 RecForYouProcess
+ *   movie->movie 每部电影对全部电影排序，对应基于嵌入向量的候选集检索
+ * 用法：QuantizationBenchmark [电影向量文件 用户向量文件]，默认生成 62423 部电影、162541 个用户（ML-25M）的 10 维聚类向量
+ */
+public class QuantizationBenchmark {
+    static final int K = 20;
+    static final int USER_CANDIDATES = 800;
+    static final int QUERIES = 500;
+    static final int[] PQ_SUBSPACE_DIMS = {1, 2, 5};
+
+    public static void main(String[] args) throws IOException {
+        Embedding[] movies;
+        Embedding[] users;
+        if (args.length >= 2) {
+            movies = readEmbeddings(args[0]);
+            users = readEmbeddings(args[1]);
+        } else {
+            Random random = new Random(42);
+            float[][] centers = new float[200][10];
+            for (float[] center : centers) {
+                for (int d = 0; d < center.length; d++) {
+                    center[d] = (float) random.nextGaussian();
+                }
+            }
+            movies = clusteredEmbeddings(random, centers, 62423);
+            users = clusteredEmbeddings(random, centers, 162541);
+        }
+        int dim = movies[0].getDim();
+        System.out.printf("movies=%d users=%d dim=%d k=%d%n", movies.length, users.length, dim, K);
+
+        // float32：按行存放的矩阵加上每行一个视图对象
+        long before = BenchmarkUtil.usedHeapAfterGc();
+        Embedding[] floatMovies = unitMatrix(movies);
+        Embedding[] floatUsers = unitMatrix(users);
+        long floatBytes = BenchmarkUtil.usedHeapAfterGc() - before;
+        long floatMatrixBytes = 4L * dim * (movies.length + users.length);
+        System.out.printf("  %-10s %6d bytes/vector  matrix %8.1f KB  heap %8.1f KB%n",
+                "float32", 4 * dim, floatMatrixBytes / 1024.0, floatBytes / 1024.0);
+
+        Random random = new Random(7);
+        int[][] userCandidates = new int[QUERIES][USER_CANDIDATES];
+        for (int[] candidates : userCandidates) {
+            for (int i = 0; i < candidates.length; i++) {
+                candidates[i] = random.nextInt(movies.length);
+            }
+        }
+        int[] userQueries = new int[QUERIES];
+        int[] movieQueries = new int[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            userQueries[q] = random.nextInt(users.length);
+            movieQueries[q] = random.nextInt(movies.length);
+        }
+        int[] allMovies = new int[movies.length];
+        for (int i = 0; i < allMovies.length; i++) {
+            allMovies[i] = i;
+        }
+
+        float[][] userReference = new float[QUERIES][];
+        float[][] movieReference = new float[QUERIES][];
+        double floatUserNanos = BenchmarkUtil.measureNanos(1, 3, () -> {
+            for (int q = 0; q < QUERIES; q++) {
+                userReference[q] = floatScores(floatUsers[userQueries[q]], floatMovies, userCandidates[q]);
+            }
+        }) / QUERIES;
+        double floatMovieNanos = BenchmarkUtil.measureNanos(1, 1, () -> {
+            for (int q = 0; q < QUERIES; q++) {
+                movieReference[q] = floatScores(floatMovies[movieQueries[q]], floatMovies, allMovies);
+            }
+        }) / QUERIES;
+        System.out.printf("  %-10s user->movie %7.1f us/request  movie->movie %8.1f us/request%n",
+                "float32", floatUserNanos / 1e3, floatMovieNanos / 1e3);
+
+        List<String> names = new ArrayList<>();
+        List<EmbeddingQuantizer[]> quantizers = new ArrayList<>();
+        names.add("int8");
+        quantizers.add(new EmbeddingQuantizer[]{
+                EmbeddingQuantizer.train("int8", floatMovies, floatMovies.length, dim, 0),
+                EmbeddingQuantizer.train("int8", floatUsers, floatUsers.length, dim, 0)});
+        for (int subspaceDim : PQ_SUBSPACE_DIMS) {
+            if (subspaceDim > dim) {
+                continue;
+            }
+            names.add("pq/" + subspaceDim);
+            quantizers.add(new EmbeddingQuantizer[]{
+                    EmbeddingQuantizer.train("pq", floatMovies, floatMovies.length, dim, subspaceDim),
+                    EmbeddingQuantizer.train("pq", floatUsers, floatUsers.length, dim, subspaceDim)});
+        }
+
+        for (int n = 0; n < names.size(); n++) {
+            EmbeddingQuantizer movieQuantizer = quantizers.get(n)[0];
+            EmbeddingQuantizer userQuantizer = quantizers.get(n)[1];
+            byte[] movieCodes = encode(movieQuantizer, floatMovies);
+            byte[] userCodes = encode(userQuantizer, floatUsers);
+            // 编码、每行的模和两个码本
+            long bytes = movieCodes.length + userCodes.length + 4L * (movies.length + users.length)
+                    + movieQuantizer.getCodebookBytes() + userQuantizer.getCodebookBytes();
+
+            // 查询向量（用户、电影）也从编码解码，与服务端的量化存储一致
+            Embedding[] queryUsers = new Embedding[QUERIES];
+            Embedding[] queryMovies = new Embedding[QUERIES];
+            for (int q = 0; q < QUERIES; q++) {
+                queryUsers[q] = decode(userQuantizer, userCodes, userQueries[q]);
+                queryMovies[q] = decode(movieQuantizer, movieCodes, movieQueries[q]);
+            }
+            float[][] userScores = new float[QUERIES][USER_CANDIDATES];
+            float[][] movieScores = new float[QUERIES][movies.length];
+            double userNanos = BenchmarkUtil.measureNanos(1, 3, () -> {
+                for (int q = 0; q < QUERIES; q++) {
+                    movieQuantizer.score(queryUsers[q], movieCodes, userCandidates[q], USER_CANDIDATES, userScores[q]);
+                }
+            }) / QUERIES;
+            double movieNanos = BenchmarkUtil.measureNanos(1, 1, () -> {
+                for (int q = 0; q < QUERIES; q++) {
+                    movieQuantizer.score(queryMovies[q], movieCodes, allMovies, movies.length, movieScores[q]);
+                }
+            }) / QUERIES;
+
+            double[] userAgreement = agreement(userReference, userScores);
+            double[] movieAgreement = agreement(movieReference, movieScores);
+            System.out.printf("  %-10s %6d bytes/vector  total %8.1f KB (%.1fx smaller than matrix, %.1fx smaller than heap)%n",
+                    names.get(n), movieQuantizer.getCodeSize(), bytes / 1024.0, (double) floatMatrixBytes / bytes,
+                    (double) floatBytes / bytes);
+            System.out.printf("  %-10s user->movie %7.1f us/request  overlap@%d %.4f  NDCG@%d %.4f%n",
+                    "", userNanos / 1e3, K, userAgreement[0], K, userAgreement[1]);
+            System.out.printf("  %-10s movie->movie %6.1f us/request  overlap@%d %.4f  NDCG@%d %.4f%n",
+                    "", movieNanos / 1e3, K, movieAgreement[0], K, movieAgreement[1]);
+        }
+    }
+
+    // 用 float32 余弦相似度给候选打分
+    private static float[] floatScores(Embedding query, Embedding[] movies, int[] candidates) {
+        Embedding[] rows = new Embedding[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            rows[i] = movies[candidates[i]];
+        }
+        float[] scores = new float[candidates.length];
+        SimilarityKernel.BLOCKED.cosine(query, rows, rows.length, scores);
+        return scores;
+    }
+
+    /**
+     * 以 float32 得分的 top-K 为基准，计算量化得分 top-K 的平均重合率和 NDCG@K
+     * NDCG 的相关度是候选在 float32 排序中的得分，理想排序就是 float32 的 top-K
+     */
+    private static double[] agreement(float[][] reference, float[][] scores) {
+        double overlap = 0;
+        double ndcg = 0;
+        for (int q = 0; q < reference.length; q++) {
+            int[] expected = topK(reference[q]);
+            int[] actual = topK(scores[q]);
+            boolean[] inExpected = new boolean[reference[q].length];
+            for (int i : expected) {
+                inExpected[i] = true;
+            }
+            int hits = 0;
+            double dcg = 0;
+            double idcg = 0;
+            for (int rank = 0; rank < K; rank++) {
+                if (inExpected[actual[rank]]) {
+                    hits++;
+                }
+                double discount = Math.log(rank + 2) / Math.log(2);
+                dcg += Math.max(0, reference[q][actual[rank]]) / discount;
+                idcg += Math.max(0, reference[q][expected[rank]]) / discount;
+            }
+            overlap += (double) hits / K;
+            ndcg += idcg > 0 ? dcg / idcg : 1;
+        }
+        return new double[]{overlap / reference.length, ndcg / reference.length};
+    }
+
+    // 得分最高的 K 个候选的位置，得分相同时位置小的在前
+    private static int[] topK(float[] scores) {
+        Integer[] order = new Integer[scores.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> scores[a] != scores[b] ? Float.compare(scores[b], scores[a]) : Integer.compare(a, b));
+        int[] top = new int[Math.min(K, order.length)];
+        for (int i = 0; i < top.length; i++) {
+            top[i] = order[i];
+        }
+        return top;
+    }
+
+    private static byte[] encode(EmbeddingQuantizer quantizer, Embedding[] vectors) {
+        byte[] codes = new byte[vectors.length * quantizer.getCodeSize()];
+        for (int i = 0; i < vectors.length; i++) {
+            quantizer.encode(vectors[i], codes, i * quantizer.getCodeSize());
+        }
+        return codes;
+    }
+
+    private static Embedding decode(EmbeddingQuantizer quantizer, byte[] codes, int row) {
+        float[] vector = new float[quantizer.getDim()];
+        quantizer.decode(codes, row * quantizer.getCodeSize(), vector, 0);
+        return new Embedding(vector, 0, vector.length, 1);
+    }
+
+    // 复制到按行存放的矩阵中并归一化，与 EmbeddingTable 的存储方式一致
+    private static Embedding[] unitMatrix(Embedding[] vectors) {
+        int dim = vectors[0].getDim();
+        float[] matrix = new float[vectors.length * dim];
+        Embedding[] views = new Embedding[vectors.length];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i].copyTo(matrix, i * dim);
+            views[i] = new Embedding(matrix, i * dim, dim);
+            views[i].normalize();
+        }
+        return views;
+    }
+
+    // 读取 id:v1 v2 ... 格式的向量文件
+    private static Embedding[] readEmbeddings(String path) throws IOException {
+        List<Embedding> embeddings = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+            String[] parts = line.split(":");
+            if (parts.length == 2) {
+                embeddings.add(Utility.parseEmbStr(parts[1]));
+            }
+        }
+        return embeddings.toArray(new Embedding[0]);
+    }
+
+    // 在随机选择的聚类中心附近生成向量
+    private static Embedding[] clusteredEmbeddings(Random random, float[][] centers, int count) {
+        int dim = centers[0].length;
+        Embedding[] embeddings = new Embedding[count];
+        for (int i = 0; i < count; i++) {
+            float[] center = centers[random.nextInt(centers.length)];
+            float[] vector = new float[dim];
+            for (int d = 0; d < dim; d++) {
+                vector[d] = center[d] + (float) random.nextGaussian();
+            }
+            embeddings[i] = new Embedding(vector);
+        }
+        return embeddings;
+    }
+}
@@ -0,0 +1,72 @@
+package com.sparrowrecsys.online.benchmark;
+
+import com.sparrowrecsys.online.datamanager.DataManager;
+import com.sparrowrecsys.online.datamanager.Movie;
+import com.sparrowrecsys.online.recprocess.RecForYouProcess;
+import com.sparrowrecsys.online.recprocess.SimilarMovieProcess;
+import com.sparrowrecsys.online.util.Config;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * RecListDigest 类，计算各个推荐列表的摘要，用于确认优化前后推荐结果不变
+ * 从文件加载数据（不使用 Redis），对前 count 部电影计算 emb 模型的相似电影列表和 embedding 召回列表，
+ * 对前 count 个用户计算 emb 模型的猜你喜欢列表，每种列表输出一个哈希值；同一数据下两个版本的输出相同即推荐结果相同。
+ * 数据目录与 webroot 的结构相同：sampledata/ 下是 movies.csv、links.csv、ratings.csv，
+ * modeldata/ 下是 item2vecEmb.csv、userEmb.csv。
+ * 用法：RecListDigest 数据目录 [电影和用户数] [列表输出文件]，默认 300 个，指定输出文件时同时写出完整列表便于比较差异
+ */
+public class RecListDigest {
+    static final int LIST_SIZE = 20;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: RecListDigest <data dir> [count] [list output file]");
+            return;
+        }
+        String dataDir = args[0].endsWith("/") ? args[0] : args[0] + "/";
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        Config.EMB_DATA_SOURCE = Config.DATA_SOURCE_FILE;
+        Config.IS_LOAD_ITEM_FEATURE_FROM_REDIS = false;
+        Config.IS_LOAD_USER_FEATURE_FROM_REDIS = false;
+        DataManager dataManager = DataManager.getInstance();
+        dataManager.loadData(dataDir + "sampledata/movies.csv", dataDir + "sampledata/links.csv",
+                dataDir + "sampledata/ratings.csv", dataDir + "modeldata/item2vecEmb.csv",
+                dataDir + "modeldata/userEmb.csv", "i2vEmb", "uEmb");
+
+        StringBuilder similar = new StringBuilder();
+        StringBuilder retrieval = new StringBuilder();
+        StringBuilder recForYou = new StringBuilder();
+        for (int id = 1; id <= count; id++) {
+            similar.append(';');
+            appendIds(similar, SimilarMovieProcess.getRecList(id, LIST_SIZE, "emb"));
+            retrieval.append(';');
+            Movie movie = dataManager.getMovieById(id);
+            if (null != movie) {
+                appendIds(retrieval, SimilarMovieProcess.retrievalCandidatesByEmbedding(movie, LIST_SIZE));
+            }
+            recForYou.append(';');
+            appendIds(recForYou, RecForYouProcess.getRecList(id, LIST_SIZE, "emb"));
+        }
+        System.out.println("similar " + similar.toString().hashCode());
+        System.out.println("retrieval " + retrieval.toString().hashCode());
+        System.out.println("recforyou " + recForYou.toString().hashCode());
+        if (args.length > 2) {
+            String lists = similar + "\n" + retrieval + "\n" + recForYou + "\n";
+            Files.write(Paths.get(args[2]), lists.getBytes(StandardCharsets.UTF_8));
+        }
+        System.exit(0);
+    }
+
+    private static void appendIds(StringBuilder builder, List<Movie> movies) {
+        if (null == movies) {
+            return;
+        }
+        for (Movie movie : movies) {
+            builder.append(movie.getMovieId()).append(',');
+        }
+    }
+}
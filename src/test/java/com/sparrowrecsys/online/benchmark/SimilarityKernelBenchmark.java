@@ -0,0 +1,99 @@
+package com.sparrowrecsys.online.benchmark;
+
+import com.sparrowrecsys.online.model.Embedding;
+import com.sparrowrecsys.online.model.SimilarityKernel;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * SimilarityKernelBenchmark 类，比较逐对调用 calculateSimilarity 与 SimilarityKernel 批量计算的耗时
+ * 候选向量是同一个矩阵中的归一化行视图，与 EmbeddingTable 中的存放方式一致，并按随机顺序排列，模拟请求中的候选集
+ * 用法：SimilarityKernelBenchmark [维度列表] [候选数量列表]，默认 10,32,64,128,256 和 100,1000,10000,100000
+ */
+public class SimilarityKernelBenchmark {
+    static final int QUERIES = 16;
+
+    public static void main(String[] args) {
+        int[] dims = parseList(args.length > 0 ? args[0] : "10,32,64,128,256");
+        int[] counts = parseList(args.length > 1 ? args[1] : "100,1000,10000,100000");
+        Random random = new Random(42);
+        System.out.printf("%5s %8s %14s %14s %14s %9s %9s%n",
+                "dim", "count", "pairwise ns", "scalar ns", "blocked ns", "scalar x", "blocked x");
+        for (int dim : dims) {
+            for (int count : counts) {
+                Embedding[] candidates = randomEmbeddings(random, count, dim);
+                Collections.shuffle(Arrays.asList(candidates), random);
+                Embedding[] queries = randomEmbeddings(random, QUERIES, dim);
+                run(dim, candidates, queries);
+            }
+        }
+    }
+
+    private static void run(int dim, Embedding[] candidates, Embedding[] queries) {
+        int count = candidates.length;
+        float[] scores = new float[count];
+        double[] checksums = new double[3];
+        // 每轮的计算量大致相同，小候选集多跑几轮
+        int rounds = Math.max(5, 2000000 / (count * dim));
+        double pairwiseNanos = BenchmarkUtil.measureNanos(3, rounds, () -> {
+            double sum = 0;
+            for (Embedding query : queries) {
+                for (int i = 0; i < count; i++) {
+                    scores[i] = (float) query.calculateSimilarity(candidates[i]);
+                }
+                sum += scores[count - 1];
+            }
+            checksums[0] = sum;
+        });
+        double scalarNanos = measureKernel(SimilarityKernel.SCALAR, candidates, queries, scores, rounds, checksums, 1);
+        long allocationBefore = BenchmarkUtil.threadAllocatedBytes();
+        double blockedNanos = measureKernel(SimilarityKernel.BLOCKED, candidates, queries, scores, rounds, checksums, 2);
+        long allocated = BenchmarkUtil.threadAllocatedBytes() - allocationBefore;
+        BenchmarkUtil.blackhole += (long) (checksums[0] + checksums[1] + checksums[2]);
+
+        // 输出每个查询-候选对的耗时
+        double pairs = (double) count * queries.length;
+        System.out.printf("%5d %8d %14.2f %14.2f %14.2f %8.2fx %8.2fx  (%d bytes allocated, checksum %.4f/%.4f/%.4f)%n",
+                dim, count, pairwiseNanos / pairs, scalarNanos / pairs, blockedNanos / pairs,
+                pairwiseNanos / scalarNanos, pairwiseNanos / blockedNanos, allocated,
+                checksums[0], checksums[1], checksums[2]);
+    }
+
+    private static double measureKernel(SimilarityKernel kernel, Embedding[] candidates, Embedding[] queries,
+                                        float[] scores, int rounds, double[] checksums, int slot) {
+        int count = candidates.length;
+        return BenchmarkUtil.measureNanos(3, rounds, () -> {
+            double sum = 0;
+            for (Embedding query : queries) {
+                kernel.cosine(query, candidates, count, scores);
+                sum += scores[count - 1];
+            }
+            checksums[slot] = sum;
+        });
+    }
+
+    // 生成按行存放在同一个矩阵中的随机单位向量
+    private static Embedding[] randomEmbeddings(Random random, int count, int dim) {
+        float[] matrix = new float[count * dim];
+        Embedding[] embeddings = new Embedding[count];
+        for (int i = 0; i < count; i++) {
+            for (int d = 0; d < dim; d++) {
+                matrix[i * dim + d] = (float) random.nextGaussian();
+            }
+            embeddings[i] = new Embedding(matrix, i * dim, dim);
+            embeddings[i].normalize();
+        }
+        return embeddings;
+    }
+
+    private static int[] parseList(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,86 @@
+package com.sparrowrecsys.online.benchmark;
+
+import com.sparrowrecsys.online.datamanager.Movie;
+import com.sparrowrecsys.online.util.TopKSelector;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * TopKBenchmark 类，比较排序阶段从打好分的候选中取前 k 个的耗时和每次请求的内存分配
+ *   hashmap+sort  原先的 ranker：得分装箱放入 HashMap&lt;Movie, Double&gt;，对全部条目流式排序后截取前 k 个
+ *   top-k heap    TopKSelector：容量为 k 的堆，只保留前 k 个，结果列表大小为 k
+ * 用法：TopKBenchmark [候选数量] [k]，默认 800 个候选（retrievalCandidatesByEmbedding 的候选规模）取前 20 个
+ */
+public class TopKBenchmark {
+    static final int ROUNDS = 20000;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 800;
+        int k = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        Random random = new Random(42);
+        List<Movie> candidates = new ArrayList<>(count);
+        float[] scores = new float[count];
+        for (int i = 0; i < count; i++) {
+            Movie movie = new Movie();
+            movie.setMovieId(i + 1);
+            candidates.add(movie);
+            // 保留 3 位小数，制造一部分同分的候选
+            scores[i] = Math.round(random.nextFloat() * 1000) / 1000f;
+        }
+
+        List<Movie> legacy = legacyTopK(candidates, scores, k);
+        List<Movie> selected = heapTopK(candidates, scores, k);
+        int mismatches = 0;
+        for (int i = 0; i < k; i++) {
+            if (scores[legacy.get(i).getMovieId() - 1] != scores[selected.get(i).getMovieId() - 1]) {
+                mismatches++;
+            }
+        }
+        System.out.printf("candidates=%d k=%d, score mismatches between the two rankings: %d%n", count, k, mismatches);
+
+        report("hashmap+sort", () -> BenchmarkUtil.blackhole += legacyTopK(candidates, scores, k).size());
+        report("top-k heap", () -> BenchmarkUtil.blackhole += heapTopK(candidates, scores, k).size());
+    }
+
+    private static void report(String name, Runnable task) {
+        double nanos = BenchmarkUtil.measureNanos(ROUNDS, ROUNDS, task);
+        long allocationBefore = BenchmarkUtil.threadAllocatedBytes();
+        for (int i = 0; i < 100; i++) {
+            task.run();
+        }
+        long allocated = BenchmarkUtil.threadAllocatedBytes() - allocationBefore;
+        System.out.printf("  %-13s %8.1f us/request  %8.0f bytes allocated/request%n",
+                name, nanos / 1e3, allocated / 100.0);
+    }
+
+    // 原先 ranker 的排序方式，作为对照
+    private static List<Movie> legacyTopK(List<Movie> candidates, float[] scores, int k) {
+        HashMap<Movie, Double> candidateScoreMap = new HashMap<>();
+        for (int i = 0; i < scores.length; i++) {
+            candidateScoreMap.put(candidates.get(i), (double) scores[i]);
+        }
+        List<Movie> rankedList = new ArrayList<>();
+        candidateScoreMap.entrySet().stream().sorted(Map.Entry.comparingByValue(Comparator.reverseOrder()))
+                .forEach(m -> rankedList.add(m.getKey()));
+        return rankedList.size() > k ? rankedList.subList(0, k) : rankedList;
+    }
+
+    // 与 SimilarMovieProcess.topMovies 相同
+    private static List<Movie> heapTopK(List<Movie> candidates, float[] scores, int k) {
+        TopKSelector selector = new TopKSelector(Math.min(k, candidates.size()));
+        for (int i = 0; i < scores.length; i++) {
+            selector.offer(i, scores[i]);
+        }
+        int n = selector.sort();
+        List<Movie> rankedList = new ArrayList<>(n);
+        for (int rank = 0; rank < n; rank++) {
+            rankedList.add(candidates.get(selector.getId(rank)));
+        }
+        return rankedList;
+    }
+}
@@ -0,0 +1,149 @@
+package com.sparrowrecsys.online.util;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TFServingStub 类，本地模拟 TensorFlow Serving 的 :predict 接口，用于基准测试，位于测试源码目录，不打包进服务端
+ * 对行格式 {"instances":[{"userId":..,"movieId":..}, ...]} 返回 {"predictions":[[得分], ...]}，
+ * 对列格式 {"inputs":{"userId":[...],"movieId":[...]}} 返回 {"outputs":[[得分], ...]}，得分由 userId 和 movieId 确定。
+ * 模拟模型的推理耗时：每次调用固定耗时加上每个实例的耗时，推理在 workers 个模型实例上执行，超出时排队，
+ * 与真实服务一样，合并请求可以分摊固定耗时。
+ * 用法：TFServingStub [端口] [每次调用的固定耗时(毫秒)] [每个实例的耗时(微秒)] [模型实例数]，默认 8501 2 1 1
+ */
+public class TFServingStub {
+    private final Server server;
+
+    private TFServingStub(Server server) {
+        this.server = server;
+    }
+
+    /**
+     * 启动模拟服务
+     * @param port 端口，为0时使用随机的空闲端口
+     * @param callMillis 每次调用的固定耗时（毫秒）
+     * @param instanceMicros 每个实例的耗时（微秒）
+     * @param workers 同时推理的模型实例数
+     * @return 已启动的模拟服务
+     * @throws Exception 启动失败
+     */
+    public static TFServingStub start(int port, double callMillis, double instanceMicros, int workers) throws Exception {
+        Server server = new Server(new InetSocketAddress("127.0.0.1", port));
+        ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        context.addServlet(new ServletHolder(new PredictServlet(callMillis, instanceMicros, workers)), "/*");
+        server.setHandler(context);
+        server.start();
+        return new TFServingStub(server);
+    }
+
+    // 获取 :predict 地址
+    public String getPredictUrl() {
+        return "http://127.0.0.1:" + ((ServerConnector) server.getConnectors()[0]).getLocalPort()
+                + "/v1/models/recmodel:predict";
+    }
+
+    // 停止模拟服务
+    public void stop() throws Exception {
+        server.stop();
+    }
+
+    /**
+     * 模拟模型的得分，只与 userId 和 movieId 有关，范围 [0, 1)
+     * @param userId 用户ID
+     * @param movieId 电影ID
+     * @return 得分
+     */
+    public static double score(int userId, int movieId) {
+        long hash = (userId * 31L + movieId) * 2654435761L;
+        return (hash & 0xFFFF) / 65536.0;
+    }
+
+    private static class PredictServlet extends HttpServlet {
+        private final long callNanos;
+        private final double instanceNanos;
+        // 空闲的模型实例数
+        private final Semaphore models;
+
+        PredictServlet(double callMillis, double instanceMicros, int workers) {
+            this.callNanos = (long) (callMillis * 1e6);
+            this.instanceNanos = instanceMicros * 1e3;
+            this.models = new Semaphore(Math.max(1, workers), true);
+        }
+
+        @Override
+        protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            StringBuilder body = new StringBuilder();
+            try (BufferedReader reader = request.getReader()) {
+                char[] buffer = new char[8192];
+                int read;
+                while ((read = reader.read(buffer)) > 0) {
+                    body.append(buffer, 0, read);
+                }
+            }
+            JSONObject root = new JSONObject(body.toString());
+            JSONArray predictions = new JSONArray();
+            String resultField;
+            if (root.has("inputs")) {
+                // 列格式
+                JSONObject inputs = root.getJSONObject("inputs");
+                JSONArray userIds = inputs.getJSONArray("userId");
+                JSONArray movieIds = inputs.getJSONArray("movieId");
+                for (int i = 0; i < movieIds.length(); i++) {
+                    predictions.put(new JSONArray().put(score(userIds.getInt(i), movieIds.getInt(i))));
+                }
+                resultField = "outputs";
+            } else {
+                // 行格式
+                JSONArray instances = root.getJSONArray("instances");
+                for (int i = 0; i < instances.length(); i++) {
+                    JSONObject instance = instances.getJSONObject(i);
+                    predictions.put(new JSONArray().put(score(instance.getInt("userId"), instance.getInt("movieId"))));
+                }
+                resultField = "predictions";
+            }
+
+            // 占用一个模型实例完成推理
+            models.acquireUninterruptibly();
+            try {
+                long deadline = System.nanoTime() + callNanos + (long) (instanceNanos * predictions.length());
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(remaining);
+                }
+            } finally {
+                models.release();
+            }
+
+            response.setContentType("application/json");
+            response.setStatus(HttpServletResponse.SC_OK);
+            byte[] bytes = new JSONObject().put(resultField, predictions).toString().getBytes(StandardCharsets.UTF_8);
+            response.setContentLength(bytes.length);
+            response.getOutputStream().write(bytes);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8501;
+        double callMillis = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+        double instanceMicros = args.length > 2 ? Double.parseDouble(args[2]) : 1;
+        int workers = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        TFServingStub stub = start(port, callMillis, instanceMicros, workers);
+        System.out.println("TF Serving stub listening on " + stub.getPredictUrl());
+        stub.server.join();
+    }
+}